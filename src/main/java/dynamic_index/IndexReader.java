@@ -1,13 +1,20 @@
 package dynamic_index;
 
+import dynamic_index.global_tools.DeletionBitmap;
+import dynamic_index.global_tools.IndexResourceManager;
+import dynamic_index.global_tools.IndexState;
+import dynamic_index.global_tools.LiveDocsTool;
 import dynamic_index.global_tools.MiscTools;
 import dynamic_index.index_reading.IndexMergingModerator;
 import dynamic_index.index_reading.ReviewsMetaDataIndexReader;
 import dynamic_index.index_reading.SingleIndexReader;
+import dynamic_index.index_structure.DictionaryRowFormat;
+import dynamic_index.index_structure.SegmentInfo;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
 
 
 /**
@@ -19,13 +26,22 @@ public class IndexReader {
     // place of main index and its auxiliary indexes directories
     private final File mainIndexDirectory;
     private File mainInvertedIndexFile;
-    private final ReviewsMetaDataIndexReader reviewMetaDataIndexReader;
+    private ReviewsMetaDataIndexReader reviewMetaDataIndexReader;
+    private final IndexResourceManager resourceManager;
+    private final IndexState indexState;
+
+    // readers opened for querying reload when segments are published to the index while they are open
+    private final boolean isReloadable;
+    private final boolean hasMainIndex;
+    private long loadedSegmentsGeneration;
 
 
     // main index data
     private byte[] mainIndexDictionary;
     private byte[] mainConcatString;
     private int mainNumOfWordsInFrontCodeBlock;
+    private DictionaryRowFormat mainDictionaryRowFormat;
+    private SegmentInfo mainSegmentInfo;
 
     // auxiliary index data
     private int numOfSubIndexes = 0;
@@ -33,6 +49,8 @@ public class IndexReader {
     private byte[][] subIndexesDictionary;
     private byte[][] subIndexesConcatString;
     private int[] subNumOfWordsInFrontCodeBlock;
+    private DictionaryRowFormat[] subDictionaryRowFormats;
+    private SegmentInfo[] subSegmentInfos;
 
     //======================= Loading and Initializing  =======================//
     /**
@@ -41,19 +59,37 @@ public class IndexReader {
      * @param dir - directory where the indexes should be
      */
     public IndexReader(String dir) {
+        this(dir, IndexResourceManager.getShared());
+    }
+
+    /**
+     * Creates an IndexReader which will read from the given directory, including all auxiliary indexes
+     * it might have.
+     * @param dir - directory where the indexes should be
+     * @param resourceManager - manager of the index state and of the cache for the index files.
+     */
+    public IndexReader(String dir, IndexResourceManager resourceManager) {
         this.mainIndexDirectory = new File(dir);
-        this.reviewMetaDataIndexReader = new ReviewsMetaDataIndexReader(mainIndexDirectory);
-        loadAllIndexesWithMain();
+        this.resourceManager = resourceManager;
+        this.indexState = resourceManager.getIndexState(dir);
+        this.isReloadable = true;
+        this.hasMainIndex = true;
+        loadVisibleIndexes();
     }
 
     /**
      * For getting a log-merger.
      * @param dir - directory in which all indexes are.
      * @param indexFilesToMerge - index directories that would be merged.
+     * @param resourceManager - manager of the index state and of the cache for the index files.
      */
-    IndexReader(String dir, Collection<File> indexFilesToMerge) {
+    IndexReader(String dir, Collection<File> indexFilesToMerge, IndexResourceManager resourceManager) {
         this.mainIndexDirectory = new File(dir);
-        this.reviewMetaDataIndexReader = new ReviewsMetaDataIndexReader(mainIndexDirectory);
+        this.resourceManager = resourceManager;
+        this.indexState = resourceManager.getIndexState(dir);
+        this.isReloadable = false;
+        this.hasMainIndex = false;
+        this.reviewMetaDataIndexReader = new ReviewsMetaDataIndexReader(mainIndexDirectory, indexState);
         this.numOfSubIndexes = indexFilesToMerge.size();
         loadNFirstIndexes(indexFilesToMerge);
     }
@@ -65,11 +101,65 @@ public class IndexReader {
      *                         a main index, i.e. files in the main directory.
      */
     public IndexReader(String dir, boolean dummyForLogMerge){
+        this(dir, dummyForLogMerge, IndexResourceManager.getShared());
+    }
+
+    /**
+     * For querying the index from outside the package.
+     * @param dir - directory in which all the index directories are
+     * @param dummyForLogMerge - a way to invoke the constructor that does not use/look for
+     *                         a main index, i.e. files in the main directory.
+     * @param resourceManager - manager of the index state and of the cache for the index files.
+     */
+    public IndexReader(String dir, boolean dummyForLogMerge, IndexResourceManager resourceManager){
         this.mainIndexDirectory = new File(dir);
-        this.reviewMetaDataIndexReader = new ReviewsMetaDataIndexReader(mainIndexDirectory);
-        List<File> allDirectories = Arrays.asList(Objects.requireNonNull(mainIndexDirectory.listFiles(File::isDirectory)));
-        this.numOfSubIndexes = allDirectories.size();
-        loadNFirstIndexes(allDirectories);
+        this.resourceManager = resourceManager;
+        this.indexState = resourceManager.getIndexState(dir);
+        this.isReloadable = true;
+        this.hasMainIndex = false;
+        loadVisibleIndexes();
+    }
+
+    /*
+     * Loads the indexes as the readers of the index should see them, i.e. not in the middle of an update.
+     */
+    private void loadVisibleIndexes() {
+        Lock readLock = indexState.getVisibilityLock().readLock();
+        readLock.lock();
+        try {
+            loadedSegmentsGeneration = indexState.getSegmentsGeneration();
+            reviewMetaDataIndexReader = new ReviewsMetaDataIndexReader(mainIndexDirectory, indexState);
+            if (hasMainIndex) {
+                loadAllIndexesWithMain();
+            } else {
+                File[] allDirectories = getAuxIndexDirectories();
+                this.numOfSubIndexes = allDirectories.length;
+                loadNFirstIndexes(Arrays.asList(allDirectories));
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /*
+     * Runs a query while no update is published, after loading the segments published since this reader
+     * was opened. Since loading is from the cache, reloading reads only the new segments' files.
+     */
+    private <T> T queryVisibleIndexes(Supplier<T> query) {
+        Lock readLock = indexState.getVisibilityLock().readLock();
+        readLock.lock();
+        try {
+            reloadIfSegmentsChanged();
+            return query.get();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private synchronized void reloadIfSegmentsChanged() {
+        if (isReloadable && loadedSegmentsGeneration != indexState.getSegmentsGeneration()) {
+            loadVisibleIndexes();
+        }
     }
 
     private void loadNFirstIndexes(Collection<File> indexFilesToMerge) {
@@ -100,14 +190,18 @@ public class IndexReader {
     }
 
     private File[] getAuxIndexDirectories() {
-        return mainIndexDirectory.getAbsoluteFile().listFiles(File::isDirectory);
+        File[] auxIndexDirectories = mainIndexDirectory.getAbsoluteFile()
+                .listFiles(file -> file.isDirectory() && !MiscTools.isStagingDirectory(file));
+        return Objects.requireNonNull(auxIndexDirectories);
     }
 
     private void instantiateSubIndexArrays() {
         subIndexesDictionary = new byte[numOfSubIndexes][];
         subIndexesConcatString = new byte[numOfSubIndexes][];
         subNumOfWordsInFrontCodeBlock = new int[numOfSubIndexes];
+        subDictionaryRowFormats = new DictionaryRowFormat[numOfSubIndexes];
         subInvertedIndexFiles = new File[numOfSubIndexes];
+        subSegmentInfos = new SegmentInfo[numOfSubIndexes];
     }
 
     private void loadSingleSubIndex(File auxIndexDirectory, int index_i) throws IOException {
@@ -120,14 +214,16 @@ public class IndexReader {
 
         assert auxDictionaryFile.exists() && auxStringConcatFile.exists() && auxInvertedIndexFile.exists();
 
-        subIndexesDictionary[index_i] = Files.readAllBytes(auxDictionaryFile.toPath());
-        subIndexesConcatString[index_i] = Files.readAllBytes(auxStringConcatFile.toPath());
+        subSegmentInfos[index_i] = SegmentInfo.read(auxIndexDirectory);
+        subIndexesDictionary[index_i] = resourceManager.readIndexFile(auxDictionaryFile, subSegmentInfos[index_i]);
+        subIndexesConcatString[index_i] = resourceManager.readIndexFile(auxStringConcatFile, subSegmentInfos[index_i]);
         subInvertedIndexFiles[index_i] = auxInvertedIndexFile;
         loadAuxNumOfTokensPerBlock(index_i);
     }
 
     private void loadAuxNumOfTokensPerBlock(int index_i) {
-        subNumOfWordsInFrontCodeBlock[index_i] = MiscTools.BASE_NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK;
+        subNumOfWordsInFrontCodeBlock[index_i] = getNumOfTokensPerBlock(subSegmentInfos[index_i]);
+        subDictionaryRowFormats[index_i] = getDictionaryRowFormat(subSegmentInfos[index_i]);
     }
 
     private void loadMainIndex() throws IOException {
@@ -141,14 +237,40 @@ public class IndexReader {
         assert mainDictionaryFile.exists() && mainStringConcatFile.exists()
                 && mainInvertedIndexFile.exists();
 
-        mainIndexDictionary = Files.readAllBytes(mainDictionaryFile.toPath());
-        mainConcatString = Files.readAllBytes(mainStringConcatFile.toPath());
+        mainSegmentInfo = SegmentInfo.read(mainIndexDirectory);
+        mainIndexDictionary = resourceManager.readIndexFile(mainDictionaryFile, mainSegmentInfo);
+        mainConcatString = resourceManager.readIndexFile(mainStringConcatFile, mainSegmentInfo);
         loadMainNumOfTokensPerBlock();
     }
 
 
     private void loadMainNumOfTokensPerBlock() {
-        mainNumOfWordsInFrontCodeBlock = MiscTools.BASE_NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK;
+        mainNumOfWordsInFrontCodeBlock = getNumOfTokensPerBlock(mainSegmentInfo);
+        mainDictionaryRowFormat = getDictionaryRowFormat(mainSegmentInfo);
+    }
+
+    /*
+    The block size and the row format are recorded in the segment data. An index directory without segment data
+    has the base size and fixed width rows, as it was written before they were recorded.
+     */
+    private static int getNumOfTokensPerBlock(SegmentInfo segmentInfo) {
+        return segmentInfo == null
+                ? MiscTools.BASE_NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK : segmentInfo.getNumOfTokensInFrontCodeBlock();
+    }
+
+    private static DictionaryRowFormat getDictionaryRowFormat(SegmentInfo segmentInfo) {
+        return segmentInfo == null ? DictionaryRowFormat.FIXED_WIDTH : segmentInfo.getDictionaryRowFormat();
+    }
+
+    /* The deletions are taken on every query since they may change while this reader is alive. */
+
+    private DeletionBitmap getMainIndexDeletions() {
+        return LiveDocsTool.getSegmentDeletions(indexState, mainIndexDirectory, mainSegmentInfo);
+    }
+
+    private DeletionBitmap getSubIndexDeletions(int index_i) {
+        return LiveDocsTool.getSegmentDeletions(indexState, subInvertedIndexFiles[index_i].getParentFile(),
+                subSegmentInfos[index_i]);
     }
 
     //======================= Querying (Reading)  =======================//
@@ -166,13 +288,15 @@ public class IndexReader {
      */
     public Map<Integer, Integer> getReviewsWithToken(String token,
                                              IndexWriter indexWriter){
-        Map<Integer, Integer>  postingList;
-        if(indexWriter instanceof LogMergeIndexWriter){
-            postingList = getPostingsListOfToken(token, (LogMergeIndexWriter)indexWriter);
-        } else {
-            postingList = getPostingsListOfToken(token);
-        }
-        return postingList;
+        return queryVisibleIndexes(() -> {
+            Map<Integer, Integer>  postingList;
+            if(indexWriter instanceof LogMergeIndexWriter){
+                postingList = getPostingsListOfToken(token, (LogMergeIndexWriter)indexWriter);
+            } else {
+                postingList = getPostingsListOfToken(token);
+            }
+            return postingList;
+        });
     }
 
     private Map<Integer,Integer> getPostingsListOfToken(String token){
@@ -198,7 +322,9 @@ public class IndexReader {
                     subIndexesConcatString[i],
                     subInvertedIndexFiles[i],
                     subNumOfWordsInFrontCodeBlock[i],
-                    mainIndexDirectory);
+                    subDictionaryRowFormats[i],
+                    mainIndexDirectory,
+                    getSubIndexDeletions(i));
             Map<Integer, Integer> auxResults = singleIndexReader.getReviewsWithWord(token);
             unionOfResults.putAll(auxResults);
         }
@@ -209,7 +335,8 @@ public class IndexReader {
                 new SingleIndexReader(mainIndexDictionary,
                         mainConcatString,
                         mainInvertedIndexFile,
-                        mainNumOfWordsInFrontCodeBlock, mainIndexDirectory);
+                        mainNumOfWordsInFrontCodeBlock, mainDictionaryRowFormat, mainIndexDirectory,
+                        getMainIndexDeletions());
         TreeMap<Integer, Integer> mainResults = singleIndexReader.getReviewsWithWord(token);
         unionOfResults.putAll(mainResults);
     }
@@ -236,11 +363,13 @@ public class IndexReader {
      * @return Number of times a token was mentioned in the index.
      */
     public int getNumberOfMentions(String token){
-        int sum = 0;
-        for(Integer freq: getPostingsListOfToken(token).values()) {
-            sum += freq;
-        }
-        return sum;
+        return queryVisibleIndexes(() -> {
+            int sum = 0;
+            for(Integer freq: getPostingsListOfToken(token).values()) {
+                sum += freq;
+            }
+            return sum;
+        });
     }
 
     /**
@@ -249,11 +378,13 @@ public class IndexReader {
      * @return Number of times a token was mentioned in the index.
      */
     public int getNumberOfMentions(String token, LogMergeIndexWriter logMergeIndexWriter){
-        int sum = 0;
-        for(Integer freq: getPostingsListOfToken(token, logMergeIndexWriter).values()) {
-            sum += freq;
-        }
-        return sum;
+        return queryVisibleIndexes(() -> {
+            int sum = 0;
+            for(Integer freq: getPostingsListOfToken(token, logMergeIndexWriter).values()) {
+                sum += freq;
+            }
+            return sum;
+        });
     }
 
     /**
@@ -261,7 +392,7 @@ public class IndexReader {
      * @return - number of reviews that have token in them.
      */
     public int getNumberOfReviews(String token){
-        return getPostingsListOfToken(token).size();
+        return queryVisibleIndexes(() -> getPostingsListOfToken(token).size());
     }
 
     /**
@@ -270,7 +401,7 @@ public class IndexReader {
      * @return - number of reviews that have token in them.
      */
     public int getNumberOfReviews(String token, LogMergeIndexWriter logMergeIndexWriter){
-        return getPostingsListOfToken(token, logMergeIndexWriter).size();
+        return queryVisibleIndexes(() -> getPostingsListOfToken(token, logMergeIndexWriter).size());
     }
 
 
@@ -279,7 +410,7 @@ public class IndexReader {
      * Returns null if there is no review with the given identifier
      */
     public String getProductId(int reviewId) {
-        return reviewMetaDataIndexReader.getProductId(reviewId);
+        return queryVisibleIndexes(() -> reviewMetaDataIndexReader.getProductId(reviewId));
     }
 
     /**
@@ -287,7 +418,7 @@ public class IndexReader {
      * Returns -1 if there is no review with the given identifier
      */
     public int getReviewScore(int reviewId) {
-        return reviewMetaDataIndexReader.getReviewScore(reviewId);
+        return queryVisibleIndexes(() -> reviewMetaDataIndexReader.getReviewScore(reviewId));
     }
 
     /**
@@ -295,7 +426,7 @@ public class IndexReader {
      * Returns -1 if there is no review with the given identifier
      */
     public int getReviewHelpfulnessNumerator(int reviewId) {
-        return reviewMetaDataIndexReader.getReviewHelpfulnessNumerator(reviewId);
+        return queryVisibleIndexes(() -> reviewMetaDataIndexReader.getReviewHelpfulnessNumerator(reviewId));
     }
 
     /**
@@ -303,7 +434,7 @@ public class IndexReader {
      * Returns -1 if there is no review with the given identifier
      */
     public int getReviewHelpfulnessDenominator(int reviewId) {
-        return reviewMetaDataIndexReader.getReviewHelpfulnessDenominator(reviewId);
+        return queryVisibleIndexes(() -> reviewMetaDataIndexReader.getReviewHelpfulnessDenominator(reviewId));
     }
 
     /**
@@ -311,7 +442,7 @@ public class IndexReader {
      * Returns -1 if there is no review with the given identifier
      */
     public int getReviewLength(int reviewId) {
-        return reviewMetaDataIndexReader.getReviewLength(reviewId);
+        return queryVisibleIndexes(() -> reviewMetaDataIndexReader.getReviewLength(reviewId));
     }
 
 
@@ -319,7 +450,7 @@ public class IndexReader {
      * @return Number of reviews in the index minus the deleted ones
      */
     public int getNumberOfReviews() {
-        return reviewMetaDataIndexReader.getTotalNumberOfReviews();
+        return queryVisibleIndexes(() -> reviewMetaDataIndexReader.getTotalNumberOfReviews());
     }
 
     /**
@@ -327,7 +458,7 @@ public class IndexReader {
      * in the constructor)
      */
     public int getTotalNumberOfTokens(){
-        return reviewMetaDataIndexReader.getTotalNumberOfTokens();
+        return queryVisibleIndexes(() -> reviewMetaDataIndexReader.getTotalNumberOfTokens());
     }
 
 
@@ -344,7 +475,9 @@ public class IndexReader {
                 mainConcatString,
                 mainInvertedIndexFile,
                 mainNumOfWordsInFrontCodeBlock,
-                mainIndexDirectory);
+                mainDictionaryRowFormat,
+                mainIndexDirectory,
+                getMainIndexDeletions());
         indexMergingModerator.add(singleIndexReader);
 
         // adding auxiliary indexes
@@ -361,7 +494,9 @@ public class IndexReader {
                     subIndexesConcatString[i],
                     subInvertedIndexFiles[i],
                     subNumOfWordsInFrontCodeBlock[i],
-                    mainIndexDirectory);
+                    subDictionaryRowFormats[i],
+                    mainIndexDirectory,
+                    getSubIndexDeletions(i));
             singleIndexReaders.add(singleIndexReader);
         }
         return singleIndexReaders;
@@ -29,6 +29,26 @@ public class IndexRemover {
         }
     }
 
+    void removeDirectory(File directory){
+        useExceptions = true;
+        deleteDirectory(directory);
+    }
+
+    /**
+     * Removes only the files of a single segment, without its sub-directories, e.g. the main index
+     * files without the auxiliary indexes.
+     * @param segmentDirectory - directory of the segment.
+     */
+    void removeSegmentFiles(File segmentDirectory){
+        useExceptions = true;
+        File[] segmentFiles = segmentDirectory.listFiles(File::isFile);
+        if (segmentFiles != null) {
+            for (File segmentFile : segmentFiles) {
+                singleDelete(segmentFile);
+            }
+        }
+    }
+
     public void removeAllIndexFiles(String dir) {
         useExceptions = false;
         File file = new File(dir);
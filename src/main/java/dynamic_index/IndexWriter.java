@@ -1,6 +1,7 @@
 package dynamic_index;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Writes an index to a given directory of an input raw data file taken from
@@ -11,7 +12,8 @@ public interface IndexWriter {
 
     /**
      * Constructs an index using the given input file.
-     * @param inputFile - input file in a format specified in class description.
+     * @param inputFile - input file in a format specified in class description, or its gzip-compressed version
+     *                  if its name ends with ".gz".
      */
     int construct(String inputFile);
 
@@ -20,7 +22,7 @@ public interface IndexWriter {
      *
      * In Log-Merge, since merging automatically, the aux directory is ignored and this call is wrapping
      * directly a construct(inputFile) call.
-     * @param inputFile         - product review raw data
+     * @param inputFile         - product review raw data, gzip-compressed if its name ends with ".gz"
      * @param auxIndexDirectory - directory for the auxiliary index. Should be inside the
      *                          main index directory.
      * @return current new number of reviews (previously entered + currently entered)
@@ -35,6 +37,40 @@ public interface IndexWriter {
      */
     void removeReviews(String indexDirectory, List<Integer> ridsToDelete);
 
+    /**
+     * Replaces reviews with new ones. Replacements are buffered, and flushed together when the buffer is full
+     * or on flushUpdates(): every replacing review then gets a new rid and the review it replaces is deleted,
+     * and readers see the new reviews and the deletions at once.
+     *
+     * @param indexDirectory - directory of the main index, aka "indexes"
+     * @param ridToNewReview - rid of a review to replace, to the review replacing it in the raw data format
+     *                       (its product/productId, review/helpfulness, review/score and review/text lines).
+     */
+    void updateReviews(String indexDirectory, Map<Integer, String> ridToNewReview);
+
+    /**
+     * Makes all buffered replacements visible, as described in updateReviews().
+     *
+     * @param indexDirectory - directory of the main index, aka "indexes"
+     * @return the new rid of every replaced rid.
+     */
+    Map<Integer, Integer> flushUpdates(String indexDirectory);
+
+    /**
+     * Turns on merge selection by deleted ratio: after every deletion, each index directory in which the
+     * fraction of deleted reviews exceeds the threshold is rewritten without them, regardless of other merges.
+     * @param deletedRatioThreshold - fraction of deleted reviews in an index directory, in [0, 1).
+     */
+    void enableDeletedRatioMerges(double deletedRatioThreshold);
+
+    /**
+     * Turns on pipelined reading of the input files of construct() and insert(): a reader thread cuts the input
+     * into chunks of reviews, which are tokenized on the threads of the resource manager, and the reviews are
+     * indexed in input order on the calling thread. The index written is the same as without it.
+     * @param maxChunksInProcess - number of chunks being tokenized at once, at most.
+     */
+    void enablePipelinedIngestion(int maxChunksInProcess);
+
     /**
      * @return number of reviews indexed, including reviews that have been deleted.
      */
@@ -0,0 +1,210 @@
+package dynamic_index;
+
+import dynamic_index.global_tools.ReviewInputParser;
+import dynamic_index.global_tools.TermTokenizer;
+import dynamic_index.index_writing.ReviewsMetaDataIndexWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import static dynamic_index.global_tools.MiscTools.*;
+
+/**
+ * Pipelined reading of an input file: one reader thread parses the input into chunks of whole reviews, worker
+ * threads tokenize the chunks, and the calling thread gets the tokenized reviews in input order, so
+ * it can give them their rids and index them as if it had read the input by itself.
+ *
+ * The number of chunks read and not yet consumed is bounded, so a slow consumer holds back the reader.
+ */
+class IngestionPipeline {
+
+    private static final CompletableFuture<List<TokenizedReview>> END_OF_INPUT = CompletableFuture.completedFuture(null);
+
+    private final String inputFile;
+    private final long firstByte;
+    private final long endByte;
+    private final ExecutorService workers;
+    private final BlockingQueue<Future<List<TokenizedReview>>> chunksInInputOrder;
+    private volatile IOException readingException = null;
+    private List<TokenizedReview> chunkBeingRead; // by the reader thread
+
+    /**
+     * @param inputFile - the raw data file to read, possibly gzip-compressed (ending with ".gz").
+     * @param workers - threads to parse and tokenize the chunks on.
+     * @param maxChunksInProcess - number of chunks being tokenized or waiting to be consumed, at most.
+     */
+    IngestionPipeline(String inputFile, ExecutorService workers, int maxChunksInProcess) {
+        this(inputFile, 0, Long.MAX_VALUE, workers, maxChunksInProcess);
+    }
+
+    /**
+     * @param inputFile - the raw data file to read, uncompressed unless the range is the whole file.
+     * @param firstByte - offset of the first byte to read, the start of a line.
+     * @param endByte - offset after the last byte to read, or Long.MAX_VALUE for the rest of the file.
+     * @param workers - threads to parse and tokenize the chunks on.
+     * @param maxChunksInProcess - number of chunks being tokenized or waiting to be consumed, at most.
+     */
+    IngestionPipeline(String inputFile, long firstByte, long endByte, ExecutorService workers,
+                      int maxChunksInProcess) {
+        assert maxChunksInProcess > 0;
+        this.inputFile = inputFile;
+        this.firstByte = firstByte;
+        this.endByte = endByte;
+        this.workers = workers;
+        this.chunksInInputOrder = new ArrayBlockingQueue<>(maxChunksInProcess);
+    }
+
+    /**
+     * Reads the whole input and passes each of its reviews to the consumer, in the order of the input, on the
+     * calling thread.
+     * @param reviewConsumer - indexes a tokenized review.
+     * @throws IOException - if the input could not be read.
+     */
+    void forEachReview(Consumer<TokenizedReview> reviewConsumer) throws IOException {
+        Thread readerThread = new Thread(this::readChunks, "ingestion-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+        try {
+            Future<List<TokenizedReview>> chunk;
+            while ((chunk = chunksInInputOrder.take()) != END_OF_INPUT) {
+                chunk.get().forEach(reviewConsumer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + inputFile, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not tokenize " + inputFile, e.getCause());
+        } finally {
+            readerThread.interrupt(); // in case the consumer stopped before the end of the input
+        }
+        if (readingException != null) {
+            throw readingException;
+        }
+    }
+
+    /*
+    Runs on the reader thread, which parses the input and copies the fields and the text of each review, so the
+    parser can go on. A chunk ends after a review, once it has enough reviews.
+     */
+    private void readChunks() {
+        chunkBeingRead = new ArrayList<>();
+        try {
+            new ReviewInputParser(inputFile, firstByte, endByte).forEachReview(parsedReview -> {
+                chunkBeingRead.add(new TokenizedReview(parsedReview));
+                if (chunkBeingRead.size() >= INGESTION_CHUNK_SIZE_IN_REVIEWS) {
+                    submitChunk(chunkBeingRead);
+                    chunkBeingRead = new ArrayList<>();
+                }
+            });
+            if (!chunkBeingRead.isEmpty()) {
+                submitChunk(chunkBeingRead);
+            }
+        } catch (IOException e) {
+            readingException = e;
+        } catch (CancellationException e) {
+            return; // the consumer is not waiting for more chunks
+        } finally {
+            chunkBeingRead = null;
+        }
+        try {
+            chunksInInputOrder.put(END_OF_INPUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+    Waits while the queue is full. The parser cannot be given an InterruptedException, so an interrupt while
+    waiting stops the reading with a CancellationException.
+     */
+    private void submitChunk(List<TokenizedReview> chunkReviews) {
+        try {
+            chunksInInputOrder.put(workers.submit(() -> tokenizeChunk(chunkReviews)));
+        } catch (InterruptedException e) {
+            throw new CancellationException("Reading " + inputFile + " was interrupted");
+        }
+    }
+
+    /*
+    Runs on a worker thread, does everything that does not depend on the rids of the reviews. A tokenizer of the
+    chunk interns its terms, so a term is one String for all its occurrences in the chunk.
+     */
+    private static List<TokenizedReview> tokenizeChunk(List<TokenizedReview> chunkReviews) {
+        TermTokenizer termTokenizer = new TermTokenizer();
+        for (TokenizedReview chunkReview : chunkReviews) {
+            chunkReview.tokenize(termTokenizer);
+        }
+        return chunkReviews;
+    }
+
+    /**
+     * A review whose text was tokenized, and which is waiting for its rid. Its meta data is kept parsed, as the
+     * ReviewInputParser parsed it.
+     */
+    static class TokenizedReview {
+
+        private final byte[] pid;
+        private final int helpfulnessNumerator;
+        private final int helpfulnessDenominator;
+        private final int score;
+        private byte[] text; // only until it is tokenized
+        private String[] terms; // by first occurrence, without words longer than WORD_MAX_SIZE
+        private int[] frequencies;
+        private int numOfIndexedTokens;
+        private int numOfTokens; // including words longer than WORD_MAX_SIZE
+
+        private TokenizedReview(ReviewInputParser.ParsedReview parsedReview) {
+            this.pid = Arrays.copyOf(parsedReview.getPid(), parsedReview.getPidLength());
+            this.helpfulnessNumerator = parsedReview.getHelpfulnessNumerator();
+            this.helpfulnessDenominator = parsedReview.getHelpfulnessDenominator();
+            this.score = parsedReview.getScore();
+            this.text = Arrays.copyOfRange(parsedReview.getText(), parsedReview.getTextOffset(),
+                    parsedReview.getTextOffset() + parsedReview.getTextLength());
+        }
+
+        private void tokenize(TermTokenizer termTokenizer) {
+            numOfIndexedTokens = termTokenizer.tokenize(text, 0, text.length);
+            numOfTokens = termTokenizer.getNumOfTokens();
+            terms = new String[termTokenizer.getNumOfTermsInText()];
+            frequencies = new int[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = termTokenizer.getTerm(termTokenizer.getTermIdInText(i));
+                frequencies[i] = termTokenizer.getFrequencyInText(i);
+            }
+            text = null;
+        }
+
+        /**
+         * @param rid - the rid given to this review.
+         * @param reviewsMetaDataIndexWriter - writer of the meta data of the reviews of the index.
+         */
+        void writeMetaData(int rid, ReviewsMetaDataIndexWriter reviewsMetaDataIndexWriter) {
+            reviewsMetaDataIndexWriter.writeData(rid, pid, pid.length, helpfulnessNumerator, helpfulnessDenominator,
+                    score, numOfIndexedTokens);
+        }
+
+        int getNumOfTerms() {
+            return terms.length;
+        }
+
+        String getTerm(int termIndex) {
+            return terms[termIndex];
+        }
+
+        int getFrequency(int termIndex) {
+            return frequencies[termIndex];
+        }
+
+        int getNumOfIndexedTokens() {
+            return numOfIndexedTokens;
+        }
+
+        int getNumOfTokens() {
+            return numOfTokens;
+        }
+    }
+}
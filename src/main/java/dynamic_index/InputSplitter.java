@@ -0,0 +1,118 @@
+package dynamic_index;
+
+import dynamic_index.global_tools.ReviewInputParser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static dynamic_index.global_tools.MiscTools.*;
+
+/**
+ * Splits an input file of reviews into chunks of consecutive whole reviews, of about the same size, so that each
+ * chunk can be indexed by itself with rids that continue the rids of the chunks before it.
+ *
+ * A chunk is a range of bytes of the input, found by parsing the input once with a ReviewInputParser, so nothing is
+ * copied. A gzip-compressed input cannot be read from the middle, so it is decompressed to a file first.
+ */
+class InputSplitter {
+
+    private static final String DECOMPRESSED_INPUT_FILENAME = "input.txt";
+
+    private final String inputFile;
+
+    // the chunk being found while the input is parsed
+    private long chunkFirstByte = 0;
+    private int numOfReviewsInChunk = 0;
+
+    /**
+     * @param inputFile - the raw data file to split, possibly gzip-compressed (ending with ".gz").
+     */
+    InputSplitter(String inputFile) {
+        this.inputFile = inputFile;
+    }
+
+    /**
+     * A range of bytes of an uncompressed input file and the number of reviews in it.
+     */
+    static class Chunk {
+
+        private final String inputFile;
+        private final long firstByte;
+        private final long endByte;
+        private final int numOfReviews;
+
+        private Chunk(String inputFile, long firstByte, long endByte, int numOfReviews) {
+            this.inputFile = inputFile;
+            this.firstByte = firstByte;
+            this.endByte = endByte;
+            this.numOfReviews = numOfReviews;
+        }
+
+        String getInputFile() {
+            return inputFile;
+        }
+
+        long getFirstByte() {
+            return firstByte;
+        }
+
+        long getEndByte() {
+            return endByte;
+        }
+
+        int getNumOfReviews() {
+            return numOfReviews;
+        }
+    }
+
+    /**
+     * Finds the chunks. A chunk ends at the end of the text line of a review, once it has its share of the input.
+     * @param chunksDirectory - existing directory to decompress a gzip-compressed input to, which must be kept until
+     *                        the chunks are read.
+     * @param maxNumOfChunks - number of chunks, at most. A small input may have fewer.
+     * @return the chunks in input order, each with at least one review.
+     */
+    List<Chunk> split(File chunksDirectory, int maxNumOfChunks) throws IOException {
+        assert maxNumOfChunks > 0;
+        String rawInputFile = isGzipFile(inputFile) ? decompressTo(chunksDirectory) : inputFile;
+        long rawInputSize = new File(rawInputFile).length();
+        long chunkSizeInBytes = Math.max(1, rawInputSize / maxNumOfChunks);
+        List<Chunk> chunks = new ArrayList<>(maxNumOfChunks);
+        chunkFirstByte = 0;
+        numOfReviewsInChunk = 0;
+        new ReviewInputParser(rawInputFile).forEachReview(parsedReview -> {
+            numOfReviewsInChunk++;
+            long chunkEndByte = parsedReview.getEndOffset();
+            boolean isLastChunk = chunks.size() == maxNumOfChunks - 1;
+            if (!isLastChunk && chunkEndByte - chunkFirstByte >= chunkSizeInBytes) {
+                chunks.add(new Chunk(rawInputFile, chunkFirstByte, chunkEndByte, numOfReviewsInChunk));
+                chunkFirstByte = chunkEndByte;
+                numOfReviewsInChunk = 0;
+            }
+        });
+        if (numOfReviewsInChunk > 0) { // the rest of the input
+            chunks.add(new Chunk(rawInputFile, chunkFirstByte, rawInputSize, numOfReviewsInChunk));
+        }
+        return chunks;
+    }
+
+    private String decompressTo(File chunksDirectory) throws IOException {
+        File decompressedInputFile = new File(chunksDirectory + File.separator + DECOMPRESSED_INPUT_FILENAME);
+        try (ReadableByteChannel inputChannel = openInputFile(inputFile);
+             FileChannel decompressedInputChannel = new FileOutputStream(decompressedInputFile).getChannel()) {
+            ByteBuffer inputBuffer = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE_IN_BYTES);
+            while (inputChannel.read(inputBuffer) != -1) {
+                inputBuffer.flip();
+                while (inputBuffer.hasRemaining()) {
+                    decompressedInputChannel.write(inputBuffer);
+                }
+                inputBuffer.clear();
+            }
+        }
+        return decompressedInputFile.getPath();
+    }
+}
@@ -1,24 +1,27 @@
 package dynamic_index;
 
 import dynamic_index.global_tools.IndexInvalidationTool;
+import dynamic_index.global_tools.IndexResourceManager;
+import dynamic_index.global_tools.IndexState;
+import dynamic_index.global_tools.LiveDocsTool;
+import dynamic_index.global_tools.ReviewInputParser;
+import dynamic_index.global_tools.TermTokenizer;
 import dynamic_index.index_reading.IndexMergingModerator;
+import dynamic_index.index_structure.DictionaryRowFormat;
 import dynamic_index.index_structure.InvertedIndex;
 import dynamic_index.index_writing.WordsIndexMergeWriter;
 import dynamic_index.index_writing.ReviewsMetaDataIndexWriter;
 import dynamic_index.index_writing.WordsSimpleIndexWriter;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.Lock;
 
 import static dynamic_index.global_tools.MiscTools.*;
 import static dynamic_index.global_tools.ParsingTool.extractHelpfulness;
-import static dynamic_index.global_tools.ParsingTool.textToNormalizedTokens;
 
 /**
  * The method of building the index is by log-merging: every time the temporary (in-memory) reaches its
@@ -28,10 +31,18 @@ import static dynamic_index.global_tools.ParsingTool.textToNormalizedTokens;
 public class LogMergeIndexWriter implements IndexWriter{
 
     private final File allIndexesDirectory;
+    private final IndexResourceManager resourceManager;
+    private final IndexState indexState;
     private final TemporaryIndex temporaryIndex;
     private final HashSet<String> terms = new HashSet<>();
+    private final TermTokenizer termTokenizer = new TermTokenizer();
 
     private ReviewsMetaDataIndexWriter reviewsMetaDataIndexWriter;
+    private SegmentReclaimer segmentReclaimer = null; // merges selected by deleted ratio are off by default
+    private int maxChunksInPipeline = 0; // pipelined ingestion is off by default
+    private int numOfTokensInFrontCodeBlock = BASE_NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK;
+    private DictionaryRowFormat dictionaryRowFormat = DictionaryRowFormat.BASE_ROW_FORMAT;
+    private final ReviewUpdateBuffer reviewUpdateBuffer = new ReviewUpdateBuffer(UPDATE_BUFFER_SIZE_IN_REVIEWS);
     private int reviewCounter = 1; // not necessarily the number of reviews in index in practice because deletion
 
     /**
@@ -40,29 +51,55 @@ public class LogMergeIndexWriter implements IndexWriter{
      * @param tempIndexSize - size of temporary in-memory index.
      */
     public LogMergeIndexWriter(String allIndexesDirectory, int tempIndexSize) {
+        this(allIndexesDirectory, tempIndexSize, IndexResourceManager.getShared());
+    }
+
+    /**
+     * Creates the log-merge writer of the index.
+     * @param allIndexesDirectory - where all index directories will be.
+     * @param tempIndexSize - size of temporary in-memory index.
+     * @param resourceManager - manager of the state of this index, shared with other indexes.
+     */
+    public LogMergeIndexWriter(String allIndexesDirectory, int tempIndexSize, IndexResourceManager resourceManager) {
         this.allIndexesDirectory = createDirectory(allIndexesDirectory);
         this.temporaryIndex = new TemporaryIndex(tempIndexSize);
-        IndexInvalidationTool.setInvalidationDirty(false);
+        this.resourceManager = resourceManager;
+        this.indexState = resourceManager.resetIndexState(this.allIndexesDirectory.getAbsolutePath());
+    }
+
+    /**
+     * @param numOfTokensInFrontCodeBlock - number of words in a row of the dictionary of the indexes written and
+     *                                    merged from now on, recorded in each of them for its readers.
+     */
+    public void setNumOfTokensInFrontCodeBlock(int numOfTokensInFrontCodeBlock) {
+        assert numOfTokensInFrontCodeBlock > 0;
+        this.numOfTokensInFrontCodeBlock = numOfTokensInFrontCodeBlock;
+        if (segmentReclaimer != null) {
+            segmentReclaimer.setNumOfTokensInFrontCodeBlock(numOfTokensInFrontCodeBlock);
+        }
+    }
+
+    /**
+     * @param dictionaryRowFormat - format of the rows of the dictionary of the indexes written and merged from now
+     *                            on, recorded in each of them for its readers, FIXED_WIDTH by default.
+     */
+    public void setDictionaryRowFormat(DictionaryRowFormat dictionaryRowFormat) {
+        this.dictionaryRowFormat = dictionaryRowFormat;
+        if (segmentReclaimer != null) {
+            segmentReclaimer.setDictionaryRowFormat(dictionaryRowFormat);
+        }
     }
 
     @Override
     public int construct(String inputFile) {
         try {
             this.reviewsMetaDataIndexWriter = new ReviewsMetaDataIndexWriter(allIndexesDirectory.getAbsolutePath());
-            BufferedReader bufferedReaderOfRawInput = new BufferedReader(new FileReader(inputFile));
-            StringBuilder reviewConcatFields = new StringBuilder();
-
-            String line = bufferedReaderOfRawInput.readLine();
-            while ((line != null)) {
-                if (!line.isEmpty()) {
-                    String[] splitArray = line.split(":", 2);
-                    String field = splitArray[0];
-                    String value = splitArray[1];
-                    handleLine(field, value, reviewConcatFields);
-                }
-                line = bufferedReaderOfRawInput.readLine();
+            if (maxChunksInPipeline > 0) {
+                new IngestionPipeline(inputFile, resourceManager.getExecutorService(), maxChunksInPipeline)
+                        .forEachReview(this::handleTokenizedReview);
+            } else {
+                readInput(inputFile);
             }
-            bufferedReaderOfRawInput.close();
             reviewsMetaDataIndexWriter.closeWriter();
         } catch (IOException e) {
             e.printStackTrace();
@@ -70,6 +107,17 @@ public class LogMergeIndexWriter implements IndexWriter{
         return reviewCounter;
     }
 
+    private void readInput(String inputFile) throws IOException {
+        new ReviewInputParser(inputFile).forEachReview(parsedReview -> {
+            termTokenizer.tokenize(parsedReview.getText(), parsedReview.getTextOffset(), parsedReview.getTextLength());
+            int reviewLength = addTokenizedTextToTemporaryIndex();
+            reviewsMetaDataIndexWriter.writeData(reviewCounter, parsedReview.getPid(), parsedReview.getPidLength(),
+                    parsedReview.getHelpfulnessNumerator(), parsedReview.getHelpfulnessDenominator(),
+                    parsedReview.getScore(), reviewLength);
+            incrementReviewCounter();
+        });
+    }
+
     @Override
     public int insert(String inputFile, String auxIndexDirectory) {
         // indeed the second argument is ignored so we can have polymorphism here as well
@@ -100,39 +148,92 @@ public class LogMergeIndexWriter implements IndexWriter{
     }
 
     private int feedTextToIndexWriter(String reviewTextLine) {
-        List<String> filteredSortedTokens = textToNormalizedTokens(reviewTextLine);
-        List<String> noBigWords = filteredSortedTokens
-                .stream()
-                .filter(s -> s.length() <= WORD_MAX_SIZE)
-                .collect(Collectors.toList());
-        addReviewToTemporaryIndex(noBigWords);
-        terms.addAll(noBigWords);
-        return noBigWords.size();
+        termTokenizer.tokenize(reviewTextLine);
+        return addTokenizedTextToTemporaryIndex();
     }
 
-    private Map<String, Integer> getHistogram(List<String> wordsInReview) {
-        Map<String, Integer> histogram = new HashMap<>();
-        for (String word : wordsInReview) {
-            if (histogram.containsKey(word)) {
-                int frequency = histogram.get(word);
-                histogram.put(word, frequency + 1);
-            } else {
-                histogram.put(word, 1);
-            }
+    /*
+    Adds the text last tokenized by the term tokenizer, and returns its number of indexed tokens.
+     */
+    private int addTokenizedTextToTemporaryIndex() {
+        int numOfIndexedTokens = 0;
+        for (int i = 0; i < termTokenizer.getNumOfTermsInText(); i++) {
+            String term = termTokenizer.getTerm(termTokenizer.getTermIdInText(i));
+            temporaryIndex.add(term, termTokenizer.getFrequencyInText(i), reviewCounter);
+            terms.add(term);
+            numOfIndexedTokens += termTokenizer.getFrequencyInText(i);
         }
-        return histogram;
+        return numOfIndexedTokens;
     }
 
-    private void addReviewToTemporaryIndex(List<String> wordsInReview) {
-        Map<String, Integer> histogram = getHistogram(wordsInReview);
-        for (Map.Entry<String, Integer> wordAndFrequency : histogram.entrySet()) {
-            temporaryIndex.add(wordAndFrequency.getKey(), wordAndFrequency.getValue(), reviewCounter);
+    private void handleTokenizedReview(IngestionPipeline.TokenizedReview tokenizedReview) {
+        for (int i = 0; i < tokenizedReview.getNumOfTerms(); i++) {
+            String term = tokenizedReview.getTerm(i);
+            temporaryIndex.add(term, tokenizedReview.getFrequency(i), reviewCounter);
+            terms.add(term);
         }
+        tokenizedReview.writeMetaData(reviewCounter, reviewsMetaDataIndexWriter);
+        incrementReviewCounter();
     }
 
     @Override
     public void removeReviews(String indexDirectory, List<Integer> ridsToDelete) {
-        IndexInvalidationTool.addToInvalidationFile(indexDirectory, ridsToDelete);
+        IndexState deletingIndexState = resourceManager.getIndexState(indexDirectory);
+        IndexInvalidationTool.addToInvalidationFile(deletingIndexState, ridsToDelete);
+        LiveDocsTool.addToLiveDocs(deletingIndexState, ridsToDelete);
+        if (segmentReclaimer != null) {
+            segmentReclaimer.reclaimSegments();
+        }
+    }
+
+    @Override
+    public void enableDeletedRatioMerges(double deletedRatioThreshold) {
+        this.segmentReclaimer = new SegmentReclaimer(allIndexesDirectory, resourceManager, deletedRatioThreshold,
+                numOfTokensInFrontCodeBlock, dictionaryRowFormat);
+    }
+
+    @Override
+    public void enablePipelinedIngestion(int maxChunksInProcess) {
+        this.maxChunksInPipeline = maxChunksInProcess;
+    }
+
+    @Override
+    public void updateReviews(String indexDirectory, Map<Integer, String> ridToNewReview) {
+        reviewUpdateBuffer.addAll(ridToNewReview);
+        if (reviewUpdateBuffer.isFull()) {
+            flushUpdates(indexDirectory);
+        }
+    }
+
+    /**
+     * The replacing reviews are added to the in-memory index as inserted reviews are, and the replaced reviews
+     * are deleted, while readers are held.
+     */
+    @Override
+    public Map<Integer, Integer> flushUpdates(String indexDirectory) {
+        Map<Integer, Integer> replacedRidToNewRid = new LinkedHashMap<>();
+        if (reviewUpdateBuffer.isEmpty()) {
+            return replacedRidToNewRid;
+        }
+        IndexState updatedIndexState = resourceManager.getIndexState(indexDirectory);
+        Lock writeLock = updatedIndexState.getVisibilityLock().writeLock();
+        writeLock.lock();
+        try {
+            this.reviewsMetaDataIndexWriter = new ReviewsMetaDataIndexWriter(allIndexesDirectory.getAbsolutePath());
+            StringBuilder reviewConcatFields = new StringBuilder();
+            for (Map.Entry<Integer, String> replacement : reviewUpdateBuffer.getReplacements().entrySet()) {
+                replacedRidToNewRid.put(replacement.getKey(), reviewCounter);
+                ReviewUpdateBuffer.forEachLine(replacement.getValue(),
+                        (field, value) -> handleLine(field, value, reviewConcatFields));
+            }
+            reviewsMetaDataIndexWriter.closeWriter();
+            removeReviews(indexDirectory, reviewUpdateBuffer.getReplacedRids());
+            updatedIndexState.incrementSegmentsGeneration(); // open readers should load the new meta data
+        } finally {
+            writeLock.unlock();
+        }
+        reviewUpdateBuffer.clear();
+        return replacedRidToNewRid;
     }
 
     TreeMap<Integer, Integer> getReviewsWithToken(String token) {
@@ -142,7 +243,7 @@ public class LogMergeIndexWriter implements IndexWriter{
             ridToFrequencies = new TreeMap<>();
         } else {
             ridToFrequencies = invertedIndex.getRidToFrequencyMap();
-            IndexInvalidationTool.filterResults(allIndexesDirectory.getAbsolutePath(), ridToFrequencies);
+            IndexInvalidationTool.filterResults(indexState, ridToFrequencies);
         }
         return ridToFrequencies;
     }
@@ -177,12 +278,18 @@ public class LogMergeIndexWriter implements IndexWriter{
             // this method increases the queue size by 1
             if(sizeOfTemporaryIndex == TEMPORARY_INDEX_SIZE){
 //            if (getQueueSize() == TEMPORARY_INDEX_SIZE) {
+                // readers should not see the in-memory index both written and still in memory
+                Lock writeLock = indexState.getVisibilityLock().writeLock();
+                writeLock.lock();
                 try {
                     writeTemporaryIndex();
                     wordToInvertedIndexMap.clear();
                     sizeOfTemporaryIndex = 0;
+                    indexState.incrementSegmentsGeneration();
                 } catch (IOException e) {
                     e.printStackTrace();
+                } finally {
+                    writeLock.unlock();
                 }
             }
         }
@@ -213,7 +320,7 @@ public class LogMergeIndexWriter implements IndexWriter{
         private void emptyInvalidationFileIfNeeded(boolean shouldSetNotDirty) {
             // if we are merge all index files, then we don't need to query the invalidation vector again.
             if (shouldSetNotDirty) {
-                IndexInvalidationTool.emptyInvalidationFile(allIndexesDirectory.getAbsolutePath());
+                IndexInvalidationTool.emptyInvalidationFile(indexState);
             }
         }
 
@@ -229,18 +336,21 @@ public class LogMergeIndexWriter implements IndexWriter{
         private File mergeIndexDirectories(SortedMap<Integer, File> sizeToFilesToMerge) {
             // building the merger
             IndexReader indexReader = new IndexReader(allIndexesDirectory.getAbsolutePath(),
-                    sizeToFilesToMerge.values());
+                    sizeToFilesToMerge.values(), resourceManager);
             IndexMergingModerator indexMergingModerator = indexReader.getIndexMergingModeratorLogMerge();
 
             // writing the index with the merger
-            WordsIndexMergeWriter wordsIndexMergeWriter = new WordsIndexMergeWriter(allIndexesDirectory.getAbsolutePath());
+            WordsIndexMergeWriter wordsIndexMergeWriter = new WordsIndexMergeWriter(allIndexesDirectory.getAbsolutePath(),
+                    numOfTokensInFrontCodeBlock, dictionaryRowFormat);
             return wordsIndexMergeWriter.merge(indexMergingModerator);
         }
 
         private void putTempIndexInMap(TreeMap<Integer, File> sizeToFile) {
             File tempIndexDirectory = createDirectory(allIndexesDirectory + File.separator + "tempIndex");
-            WordsSimpleIndexWriter wordsSimpleIndexWriter = new WordsSimpleIndexWriter(tempIndexDirectory);
+            WordsSimpleIndexWriter wordsSimpleIndexWriter = new WordsSimpleIndexWriter(tempIndexDirectory,
+                    numOfTokensInFrontCodeBlock, dictionaryRowFormat);
             wordsSimpleIndexWriter.write(wordToInvertedIndexMap);
+            LiveDocsTool.seedLiveDocs(indexState, tempIndexDirectory); // reviews in memory may have been deleted already
             sizeToFile.put(0, tempIndexDirectory);
         }
 
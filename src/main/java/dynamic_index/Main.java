@@ -32,6 +32,11 @@ public class Main {
 //                new LogMergeExperiment(localDir, 65536);
 //        logMergeExperiment.runExperiment();
 
+        /* Uncomment for a comparison of front coding block sizes by dictionary size and lookup time */
+//        FrontCodeBlockSizeExperiment frontCodeBlockSizeExperiment =
+//                new FrontCodeBlockSizeExperiment(localDir);
+//        frontCodeBlockSizeExperiment.runExperiment();
+
 
     }
 
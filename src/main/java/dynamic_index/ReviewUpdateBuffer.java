@@ -0,0 +1,75 @@
+package dynamic_index;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Buffers replacements of reviews until they are flushed together as one update. Buffering lets a writer
+ * index many replacing reviews at once, and a review replaced again before the flush is indexed only in its
+ * latest version.
+ *
+ * A replacing review is in the raw data format: the lines of one review, each a field and its value
+ * separated by a colon.
+ */
+class ReviewUpdateBuffer {
+
+    private final int capacity;
+    private final LinkedHashMap<Integer, String> replacedRidToReview = new LinkedHashMap<>();
+
+    /**
+     * @param capacity - number of replacing reviews after which the buffer is full.
+     */
+    ReviewUpdateBuffer(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param ridToNewReview - rid of a review to replace, to the review replacing it.
+     */
+    void addAll(Map<Integer, String> ridToNewReview) {
+        for (Map.Entry<Integer, String> ridAndReview : ridToNewReview.entrySet()) {
+            replacedRidToReview.remove(ridAndReview.getKey()); // so the order is of the latest replacement
+            replacedRidToReview.put(ridAndReview.getKey(), ridAndReview.getValue());
+        }
+    }
+
+    boolean isFull() {
+        return replacedRidToReview.size() >= capacity;
+    }
+
+    boolean isEmpty() {
+        return replacedRidToReview.isEmpty();
+    }
+
+    /**
+     * @return rids of the replaced reviews, in the order of their replacing reviews.
+     */
+    List<Integer> getReplacedRids() {
+        return new ArrayList<>(replacedRidToReview.keySet());
+    }
+
+    /**
+     * @return replaced rid to its replacing review, in the order they were buffered.
+     */
+    Map<Integer, String> getReplacements() {
+        return Collections.unmodifiableMap(replacedRidToReview);
+    }
+
+    void clear() {
+        replacedRidToReview.clear();
+    }
+
+    /**
+     * Passes each line of a review to a line handler, as the writers do when reading the raw data file.
+     * @param review - a review in the raw data format.
+     * @param lineHandler - called with the field and the value of every non-empty line.
+     */
+    static void forEachLine(String review, BiConsumer<String, String> lineHandler) {
+        for (String line : review.split("\\R")) {
+            if (!line.isEmpty()) {
+                String[] splitArray = line.split(":", 2);
+                lineHandler.accept(splitArray[0], splitArray[1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package dynamic_index;
+
+import dynamic_index.global_tools.DeletionBitmap;
+import dynamic_index.global_tools.IndexResourceManager;
+import dynamic_index.global_tools.IndexState;
+import dynamic_index.global_tools.LiveDocsTool;
+import dynamic_index.index_reading.IndexMergingModerator;
+import dynamic_index.index_structure.DictionaryRowFormat;
+import dynamic_index.index_structure.SegmentInfo;
+import dynamic_index.index_writing.WordsIndexMergeWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.concurrent.locks.Lock;
+
+import static dynamic_index.global_tools.MiscTools.*;
+
+/**
+ * Merge selection by deleted ratio: instead of waiting for a segment (an index directory) to be merged with
+ * others, every segment whose fraction of deleted reviews exceeds a threshold is rewritten on its own without
+ * the deleted postings. This keeps both the filtering at query time and the disk space of deleted reviews bounded.
+ *
+ * A sub-index that has nothing left is removed altogether. The main index of the simple-merge writer is kept
+ * even then, since the index reader expects it, and is only filtered.
+ *
+ * A segment is rewritten into a staging directory, and the rewritten files replace the files of the segment while
+ * readers are held, so an open reader never reads the postings of one version with the dictionary of another.
+ */
+class SegmentReclaimer {
+
+    private final File allIndexesDirectory;
+    private final IndexResourceManager resourceManager;
+    private final IndexState indexState;
+    private final double deletedRatioThreshold;
+    private int numOfTokensInFrontCodeBlock;
+    private DictionaryRowFormat dictionaryRowFormat;
+
+    /**
+     * @param allIndexesDirectory - the directory where all the index directories and files are.
+     * @param resourceManager - manager of the state of the index.
+     * @param deletedRatioThreshold - a segment with a larger fraction of deleted reviews is rewritten.
+     * @param numOfTokensInFrontCodeBlock - number of words in a row of the dictionary of a rewritten segment, as
+     *                                    the writer of the index writes its segments.
+     * @param dictionaryRowFormat - format of the rows of the dictionary of a rewritten segment, as the writer of
+     *                            the index writes its segments.
+     */
+    SegmentReclaimer(File allIndexesDirectory, IndexResourceManager resourceManager, double deletedRatioThreshold,
+                     int numOfTokensInFrontCodeBlock, DictionaryRowFormat dictionaryRowFormat) {
+        assert deletedRatioThreshold >= 0 && deletedRatioThreshold < 1;
+        this.allIndexesDirectory = allIndexesDirectory;
+        this.resourceManager = resourceManager;
+        this.indexState = resourceManager.getIndexState(allIndexesDirectory.getAbsolutePath());
+        this.deletedRatioThreshold = deletedRatioThreshold;
+        this.numOfTokensInFrontCodeBlock = numOfTokensInFrontCodeBlock;
+        this.dictionaryRowFormat = dictionaryRowFormat;
+    }
+
+    /**
+     * @param numOfTokensInFrontCodeBlock - number of words in a row of the dictionary of the segments rewritten
+     *                                    from now on.
+     */
+    void setNumOfTokensInFrontCodeBlock(int numOfTokensInFrontCodeBlock) {
+        this.numOfTokensInFrontCodeBlock = numOfTokensInFrontCodeBlock;
+    }
+
+    /**
+     * @param dictionaryRowFormat - format of the rows of the dictionary of the segments rewritten from now on.
+     */
+    void setDictionaryRowFormat(DictionaryRowFormat dictionaryRowFormat) {
+        this.dictionaryRowFormat = dictionaryRowFormat;
+    }
+
+    /**
+     * Rewrites or removes all segments whose deleted ratio is above the threshold.
+     */
+    void reclaimSegments() {
+        for (File segmentDirectory : LiveDocsTool.getSegmentDirectories(allIndexesDirectory.getAbsolutePath())) {
+            SegmentInfo segmentInfo = SegmentInfo.read(segmentDirectory);
+            DeletionBitmap segmentDeletions = LiveDocsTool.getSegmentDeletions(indexState, segmentDirectory, segmentInfo);
+            if (segmentInfo == null || segmentInfo.getDeletedRatio(segmentDeletions) <= deletedRatioThreshold) {
+                continue;
+            }
+            boolean isMainIndex = segmentDirectory.getAbsoluteFile().equals(allIndexesDirectory.getAbsoluteFile());
+            if (segmentDeletions.getCardinality() < segmentInfo.getNumOfReviews()) {
+                rewriteSegment(segmentDirectory);
+            } else if (!isMainIndex) {
+                removeSegment(segmentDirectory);
+            }
+        }
+    }
+
+    private void rewriteSegment(File segmentDirectory) {
+        // reading the segment alone, filtered by its deletions
+        IndexReader indexReader = new IndexReader(allIndexesDirectory.getAbsolutePath(),
+                Collections.singletonList(segmentDirectory), resourceManager);
+        IndexMergingModerator indexMergingModerator = indexReader.getIndexMergingModeratorLogMerge();
+
+        File stagingDirectory = createDirectory(allIndexesDirectory + File.separator
+                + STAGING_DIRECTORY_PREFIX + RECLAIMED_SEGMENT_DIRECTORY_NAME);
+        WordsIndexMergeWriter wordsIndexMergeWriter = new WordsIndexMergeWriter(stagingDirectory.getAbsolutePath(),
+                numOfTokensInFrontCodeBlock, dictionaryRowFormat);
+        File rewrittenDirectory = wordsIndexMergeWriter.merge(indexMergingModerator);
+        Lock writeLock = indexState.getVisibilityLock().writeLock();
+        writeLock.lock();
+        try {
+            // the live-docs files of the segment go too, the rewritten segment has no deletions
+            (new IndexRemover()).removeSegmentFiles(segmentDirectory);
+            moveRewrittenFilesToSegment(rewrittenDirectory, segmentDirectory);
+            resourceManager.evictSegmentFiles(segmentDirectory);
+            indexState.incrementSegmentsGeneration();
+        } finally {
+            writeLock.unlock();
+        }
+        (new IndexRemover()).removeDirectory(stagingDirectory);
+    }
+
+    private void moveRewrittenFilesToSegment(File rewrittenDirectory, File segmentDirectory) {
+        Path segmentPath = segmentDirectory.toPath();
+        try {
+            File[] rewrittenIndexFiles = rewrittenDirectory.listFiles();
+            if (rewrittenIndexFiles != null) {
+                for (File rewrittenIndexFile : rewrittenIndexFiles) {
+                    Files.move(rewrittenIndexFile.toPath(), segmentPath.resolve(rewrittenIndexFile.getName()),
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            Files.delete(rewrittenDirectory.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void removeSegment(File segmentDirectory) {
+        Lock writeLock = indexState.getVisibilityLock().writeLock();
+        writeLock.lock();
+        try {
+            (new IndexRemover()).removeDirectory(segmentDirectory);
+            resourceManager.evictSegmentFiles(segmentDirectory);
+            indexState.incrementSegmentsGeneration();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -1,18 +1,37 @@
 package dynamic_index;
 
 import dynamic_index.external_sort.ExternalMergeSort;
+import dynamic_index.external_sort.SortedTripleConsumer;
 import dynamic_index.external_sort.TermToReviewBlockWriter;
 import dynamic_index.global_tools.IndexInvalidationTool;
+import dynamic_index.global_tools.IndexResourceManager;
+import dynamic_index.global_tools.IndexState;
+import dynamic_index.global_tools.LiveDocsTool;
 import dynamic_index.global_tools.PrintingTool;
+import dynamic_index.global_tools.ReviewInputParser;
+import dynamic_index.global_tools.TermTokenizer;
 import dynamic_index.index_reading.IndexMergingModerator;
+import dynamic_index.index_structure.DictionaryRowFormat;
+import dynamic_index.index_structure.InvertedIndex;
 import dynamic_index.index_writing.WordsIndexMergeWriter;
 import dynamic_index.index_writing.WordsExternalIndexWriter;
 import dynamic_index.index_writing.ReviewsMetaDataIndexWriter;
+import dynamic_index.index_writing.WordsSimpleIndexWriter;
+import dynamic_index.index_writing.WordsSpimiIndexWriter;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
 import static dynamic_index.global_tools.MiscTools.*;
 import static dynamic_index.global_tools.ParsingTool.extractHelpfulness;
@@ -27,15 +46,44 @@ import static dynamic_index.global_tools.ParsingTool.textToNormalizedTokens;
  */
 public class SimpleMergeIndexWriter implements IndexWriter{
 
+    /**
+     * How the input file is read when building an index.
+     * TWO_PASS - a first reading collects the terms sorted to give them tids, and a second one writes the runs.
+     * SINGLE_PASS - one reading gives each term a provisional tid when it is first seen and writes the runs, and
+     * the tids are changed to the lexicographic order of the terms when the runs are merged.
+     * SPIMI - one reading inverts the reviews in memory, with no tids and no sorting of pairs, writing a partial
+     * index whenever the postings take the memory budget, and the partial indexes are merged into the index.
+     * A gzip-compressed input is always built in a single pass, so it is decompressed only once.
+     */
+    public enum BuildMode {TWO_PASS, SINGLE_PASS, SPIMI}
 
     private final File allIndexesDirectory;
+    private final IndexResourceManager resourceManager;
+    private final IndexState indexState;
     private File currentIndexDirectory;
 
     private WordsExternalIndexWriter wordsDataIndexWriter;
     private ReviewsMetaDataIndexWriter reviewsMetaDataIndexWriter;
-    private TermToReviewBlockWriter wordsTermToReviewBlockWriter;
+    private TermToReviewBlockWriter wordsTermToReviewBlockWriter; // only while the runs are written
+    private File mergeFilesDirectory; // the runs of the build, once they are written
+    private WordsSpimiIndexWriter wordsSpimiIndexWriter;
+    private SegmentReclaimer segmentReclaimer = null; // merges selected by deleted ratio are off by default
+    private BuildMode buildMode = BuildMode.TWO_PASS; // the other build modes are turned on with setBuildMode()
+    private int maxChunksInPipeline = 0; // pipelined ingestion is off by default
+    private long buildMemoryBudget = 0; // for the blocks, buffers and postings of a build, 0 for the manager's
+    private long reservedBuildMemory; // the part of the budget the resource manager gave the current build
+    private long stagedBuildMemory = 0; // a share of what the writer that staged this one reserved, if it did
+    private int numOfTermPartitions = 1; // the words index of a sort-based build is written by one thread by default
+    private int numOfTokensInFrontCodeBlock = BASE_NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK;
+    private DictionaryRowFormat dictionaryRowFormat = DictionaryRowFormat.BASE_ROW_FORMAT;
+    private final ReviewUpdateBuffer reviewUpdateBuffer = new ReviewUpdateBuffer(UPDATE_BUFFER_SIZE_IN_REVIEWS);
 
     private final Map<String, Integer> wordTermToTermID = new HashMap<>();
+    private TermTokenizer termTokenizer; // gives the terms of a build their ids, for as long as the build reads
+
+    // the range of the input file that a writer of one chunk of a bulk build reads, the whole file otherwise
+    private long inputFirstByte = 0;
+    private long inputEndByte = Long.MAX_VALUE;
 
     private int reviewCounter = 1; // not necessarily the number of reviews in index in practice because deletion
     private int tokenCounter = 0; // token counter only incremented in the mapping stage
@@ -45,8 +93,74 @@ public class SimpleMergeIndexWriter implements IndexWriter{
      * @param allIndexesDirectory - directory to create for all indexes: main and auxiliary
      */
     public SimpleMergeIndexWriter(String allIndexesDirectory) {
+        this(allIndexesDirectory, IndexResourceManager.getShared());
+    }
+
+    /**
+     * Creates the simple-merge writer of the index.
+     * @param allIndexesDirectory - directory to create for all indexes: main and auxiliary
+     * @param resourceManager - manager of the state of this index, shared with other indexes.
+     */
+    public SimpleMergeIndexWriter(String allIndexesDirectory, IndexResourceManager resourceManager) {
         this.allIndexesDirectory = createDirectory(allIndexesDirectory);
-        IndexInvalidationTool.setInvalidationDirty(false);
+        this.resourceManager = resourceManager;
+        this.indexState = resourceManager.resetIndexState(this.allIndexesDirectory.getAbsolutePath());
+    }
+
+    /**
+     * @param buildMemoryBudget - bytes that construct() and insert() may take for sorting or inverting the input,
+     *                          or 0 (the default) for the part of the resource manager's budget that its cache
+     *                          never takes. The more memory, the fewer runs and merge passes. Each build reserves
+     *                          its bytes from the resource manager when it starts, and takes less while builds of
+     *                          other writers of the manager hold the rest of its budget.
+     */
+    public void setBuildMemoryBudget(long buildMemoryBudget) {
+        assert buildMemoryBudget >= 0;
+        this.buildMemoryBudget = buildMemoryBudget;
+    }
+
+    /**
+     * @param buildMode - how the input files of construct() and insert() are read from now on, TWO_PASS by default.
+     */
+    public void setBuildMode(BuildMode buildMode) {
+        this.buildMode = buildMode;
+    }
+
+    /**
+     * Turns on term-range partitioned construction for the sort-based build modes: once the vocabulary is known,
+     * the tids are split into ranges, each range is sorted and written on a thread of the resource manager, and
+     * the indexes of the ranges are concatenated. The index written is the same as without it.
+     * @param numOfTermPartitions - number of ranges of tids, 1 to write the words index on one thread.
+     */
+    public void enableTermPartitionedConstruction(int numOfTermPartitions) {
+        assert numOfTermPartitions > 0;
+        this.numOfTermPartitions = numOfTermPartitions;
+    }
+
+    /**
+     * @param numOfTokensInFrontCodeBlock - number of words in a row of the dictionary of the indexes written from
+     *                                    now on, recorded in each of them for its readers. Larger blocks make the
+     *                                    dictionary smaller, as fewer words are written whole and there are fewer
+     *                                    string pointers, but a lookup decodes more words of a row.
+     */
+    public void setNumOfTokensInFrontCodeBlock(int numOfTokensInFrontCodeBlock) {
+        assert numOfTokensInFrontCodeBlock > 0;
+        this.numOfTokensInFrontCodeBlock = numOfTokensInFrontCodeBlock;
+        if (segmentReclaimer != null) {
+            segmentReclaimer.setNumOfTokensInFrontCodeBlock(numOfTokensInFrontCodeBlock);
+        }
+    }
+
+    /**
+     * @param dictionaryRowFormat - format of the rows of the dictionary of the indexes written from now on,
+     *                            recorded in each of them for its readers, FIXED_WIDTH by default. COMPACT rows
+     *                            take about half the memory of FIXED_WIDTH ones, for a little decoding on a lookup.
+     */
+    public void setDictionaryRowFormat(DictionaryRowFormat dictionaryRowFormat) {
+        this.dictionaryRowFormat = dictionaryRowFormat;
+        if (segmentReclaimer != null) {
+            segmentReclaimer.setDictionaryRowFormat(dictionaryRowFormat);
+        }
     }
 
     @Override
@@ -56,6 +170,145 @@ public class SimpleMergeIndexWriter implements IndexWriter{
     }
 
 
+    /**
+     * Builds the main index as construct() does, in parallel: the input is split into chunks of consecutive
+     * reviews, each chunk is built as an index of its own on a thread of its own, with its own sort directories, and
+     * the indexes of the chunks are merged into the main index in one k-way merge. The rid ranges of the chunks are
+     * disjoint and increasing, so the merge only concatenates the postings of each word.
+     * @param inputFile - the raw data file, possibly gzip-compressed (ending with ".gz").
+     * @param numOfChunks - number of chunks, at most. As many of them as the resource manager has threads are built
+     *                    at once, and the build memory budget is divided between those.
+     * @return the rid the next review will get.
+     */
+    public int bulkConstruct(String inputFile, int numOfChunks) {
+        this.currentIndexDirectory = allIndexesDirectory;
+        File chunksDirectory = createDirectory(allIndexesDirectory + File.separator
+                + STAGING_DIRECTORY_PREFIX + BULK_CHUNKS_DIRECTORY_NAME);
+        List<InputSplitter.Chunk> chunks = Collections.emptyList();
+        try {
+            chunks = new InputSplitter(inputFile).split(chunksDirectory, numOfChunks);
+            if (chunks.isEmpty()) {
+                new IndexRemover().removeDirectory(chunksDirectory);
+                return construct(inputFile);
+            }
+            List<File> chunkIndexes = constructChunksInParallel(chunksDirectory, chunks);
+            moveReviewMetaDataOf(chunkIndexes);
+            moveMergedFilesTo(mergePartialIndexes(chunksDirectory, chunkIndexes), currentIndexDirectory);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        new IndexRemover().removeDirectory(chunksDirectory);
+        for (int i = 0; i < chunks.size(); i++) { // the chunk writers are done with their indexes
+            resourceManager.releaseIndexState(getChunkIndexDirectory(chunksDirectory, i).getPath());
+        }
+        seedLiveDocs();
+        return reviewCounter;
+    }
+
+    /*
+    Each chunk is built by a writer of its own, which reads only the range of the chunk and whose rids start after
+    the rids of the chunks before it, on a thread pool of its own, of as many threads as the resource manager has:
+    the chunk writers give tasks to the thread pool of the resource manager and wait for them.
+     */
+    private List<File> constructChunksInParallel(File chunksDirectory, List<InputSplitter.Chunk> chunks)
+            throws IOException {
+        int numOfConcurrentBuilds = Math.max(1, Math.min(chunks.size(), resourceManager.getNumOfThreads()));
+        long reservedMemoryOfBuilds = resourceManager.acquireBuildMemory(getRequestedBuildMemory());
+        ExecutorService chunkBuilders = Executors.newFixedThreadPool(numOfConcurrentBuilds);
+        try {
+            List<Future<SimpleMergeIndexWriter>> chunkBuilds = new ArrayList<>(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                InputSplitter.Chunk chunk = chunks.get(i);
+                SimpleMergeIndexWriter chunkWriter = newStagingWriter(getChunkIndexDirectory(chunksDirectory, i),
+                        reviewCounter, reservedMemoryOfBuilds / numOfConcurrentBuilds);
+                chunkWriter.inputFirstByte = chunk.getFirstByte();
+                chunkWriter.inputEndByte = chunk.getEndByte();
+                reviewCounter += chunk.getNumOfReviews();
+                chunkBuilds.add(chunkBuilders.submit(() -> {
+                    chunkWriter.construct(chunk.getInputFile());
+                    return chunkWriter;
+                }));
+            }
+            List<File> chunkIndexes = new ArrayList<>(chunks.size());
+            for (Future<SimpleMergeIndexWriter> chunkBuild : chunkBuilds) {
+                SimpleMergeIndexWriter chunkWriter = getStagedIndex(chunkBuild);
+                tokenCounter += chunkWriter.tokenCounter;
+                chunkIndexes.add(chunkWriter.allIndexesDirectory);
+            }
+            return chunkIndexes;
+        } finally {
+            shutdownBuilders(chunkBuilders, reservedMemoryOfBuilds);
+        }
+    }
+
+    private static File getChunkIndexDirectory(File chunksDirectory, int chunkIndex) {
+        return new File(chunksDirectory + File.separator + chunkIndex);
+    }
+
+    /*
+    A writer that builds one index of many built at once into a staging directory, with its own review meta data
+    file there, giving rids from firstRid. It builds in its share of the memory this writer reserved for all of
+    them, instead of reserving memory of its own.
+     */
+    private SimpleMergeIndexWriter newStagingWriter(File stagingIndexDirectory, int firstRid,
+                                                    long stagedBuildMemory) {
+        SimpleMergeIndexWriter stagingWriter =
+                new SimpleMergeIndexWriter(stagingIndexDirectory.getPath(), resourceManager);
+        stagingWriter.reviewCounter = firstRid;
+        stagingWriter.setBuildMode(buildMode);
+        stagingWriter.stagedBuildMemory = Math.max(1, stagedBuildMemory);
+        stagingWriter.enableTermPartitionedConstruction(1);
+        stagingWriter.setNumOfTokensInFrontCodeBlock(numOfTokensInFrontCodeBlock);
+        stagingWriter.setDictionaryRowFormat(dictionaryRowFormat);
+        return stagingWriter;
+    }
+
+    /*
+    The memory the builders shared is given back only once none of them builds, also after one of them failed.
+     */
+    private void shutdownBuilders(ExecutorService builders, long reservedMemoryOfBuilds) {
+        builders.shutdown();
+        boolean isInterrupted = false;
+        while (true) {
+            try {
+                if (builders.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        resourceManager.releaseMemory(reservedMemoryOfBuilds);
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private SimpleMergeIndexWriter getStagedIndex(Future<SimpleMergeIndexWriter> stagingBuild) throws IOException {
+        try {
+            return stagingBuild.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building the staged indexes", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Building a staged index failed", e.getCause());
+        }
+    }
+
+    /*
+    The meta data of the reviews of staged indexes, in rid order, is appended to the meta data of the index.
+     */
+    private void moveReviewMetaDataOf(List<File> stagedIndexes) throws IOException {
+        File reviewMetaDataFile = new File(allIndexesDirectory + File.separator + REVIEW_META_DATA_FILENAME);
+        try (FileOutputStream reviewMetaDataFOS = new FileOutputStream(reviewMetaDataFile, true)) {
+            for (File stagedIndex : stagedIndexes) {
+                Path stagedReviewMetaData = stagedIndex.toPath().resolve(REVIEW_META_DATA_FILENAME);
+                Files.copy(stagedReviewMetaData, reviewMetaDataFOS);
+                Files.delete(stagedReviewMetaData);
+            }
+        }
+    }
+
     private void constructIndexWithExternalSort(String inputFile) {
         this.currentIndexDirectory = allIndexesDirectory;
         instantiateWriters();
@@ -70,6 +323,122 @@ public class SimpleMergeIndexWriter implements IndexWriter{
         return reviewCounter;
     }
 
+    /**
+     * Inserts many input files as insert() does one after another, each to an auxiliary index of its own named by
+     * its first rid, building the indexes concurrently on as many threads as the resource manager has. The reviews
+     * of each file are counted before it is built, so each file gets the rids it would get if the files were
+     * inserted one after another. Each index is built in a staging directory, and made visible in rid order: the
+     * index of a file only after the indexes of the files before it.
+     * @param inputFiles - product review raw data files, gzip-compressed if their names end with ".gz"
+     * @return current new number of reviews (previously entered + currently entered)
+     * @throws IOException - if a file could not be read or built. The files before it are inserted, and the
+     *                     staged indexes of the files from it on are removed, so the next review gets the rid
+     *                     after the last inserted file.
+     */
+    public int insertAll(List<String> inputFiles) throws IOException {
+        int numOfConcurrentBuilds = Math.max(1, Math.min(inputFiles.size(), resourceManager.getNumOfThreads()));
+        long reservedMemoryOfBuilds = resourceManager.acquireBuildMemory(getRequestedBuildMemory());
+        ExecutorService insertionBuilders = Executors.newFixedThreadPool(numOfConcurrentBuilds);
+        List<Future<SimpleMergeIndexWriter>> insertionBuilds = new ArrayList<>(inputFiles.size());
+        List<File> stagingDirectories = new ArrayList<>(inputFiles.size());
+        int numOfPublishedInsertions = 0;
+        IOException countingException = null;
+        try {
+            int firstRidOfInsertion = reviewCounter; // the counter is advanced as each insertion is published
+            for (String inputFile : inputFiles) {
+                int numOfReviews;
+                try {
+                    numOfReviews = countReviews(inputFile);
+                } catch (IOException e) { // the files before it are still inserted
+                    countingException = e;
+                    break;
+                }
+                File stagingDirectory = new File(allIndexesDirectory + File.separator
+                        + STAGING_DIRECTORY_PREFIX + INSERTION_DIRECTORY_PREFIX + firstRidOfInsertion);
+                SimpleMergeIndexWriter insertionWriter = newStagingWriter(stagingDirectory, firstRidOfInsertion,
+                        reservedMemoryOfBuilds / numOfConcurrentBuilds);
+                firstRidOfInsertion += numOfReviews;
+                stagingDirectories.add(stagingDirectory);
+                insertionBuilds.add(insertionBuilders.submit(() -> {
+                    insertionWriter.construct(inputFile);
+                    return insertionWriter;
+                }));
+            }
+            for (Future<SimpleMergeIndexWriter> insertionBuild : insertionBuilds) { // in rid order
+                publishInsertion(getStagedIndex(insertionBuild));
+                numOfPublishedInsertions++;
+            }
+        } catch (IOException e) {
+            removeStagedInsertions(insertionBuilds, stagingDirectories, numOfPublishedInsertions);
+            throw e;
+        } finally {
+            shutdownBuilders(insertionBuilders, reservedMemoryOfBuilds);
+        }
+        if (countingException != null) {
+            throw countingException;
+        }
+        return reviewCounter;
+    }
+
+    /*
+    After a failure, the insertions from the first one that was not published on cannot be published without a gap
+    in the rids. Each is removed once its build is done, so nothing is removed while it is written.
+     */
+    private void removeStagedInsertions(List<Future<SimpleMergeIndexWriter>> insertionBuilds,
+                                        List<File> stagingDirectories, int numOfPublishedInsertions) {
+        boolean isInterrupted = false;
+        for (int i = numOfPublishedInsertions; i < insertionBuilds.size(); i++) {
+            while (true) {
+                try {
+                    insertionBuilds.get(i).get();
+                    break;
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                } catch (ExecutionException e) {
+                    break; // removed as well
+                }
+            }
+            new IndexRemover().removeDirectory(stagingDirectories.get(i));
+            resourceManager.releaseIndexState(stagingDirectories.get(i).getPath());
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int countReviews(String inputFile) throws IOException {
+        int[] reviewsCounter = {0};
+        new ReviewInputParser(inputFile).forEachReview(parsedReview -> reviewsCounter[0]++);
+        return reviewsCounter[0];
+    }
+
+    /*
+    Appends the meta data of the reviews of a staged insertion and renames its directory to an auxiliary index
+    directory, while readers are held.
+     */
+    private void publishInsertion(SimpleMergeIndexWriter insertionWriter) throws IOException {
+        Path stagingPath = insertionWriter.allIndexesDirectory.toPath();
+        Path auxIndexPath = stagingPath.resolveSibling(
+                stagingPath.getFileName().toString().substring(STAGING_DIRECTORY_PREFIX.length()));
+        Lock writeLock = indexState.getVisibilityLock().writeLock();
+        writeLock.lock();
+        try {
+            moveReviewMetaDataOf(Collections.singletonList(insertionWriter.allIndexesDirectory));
+            Files.move(stagingPath, auxIndexPath, StandardCopyOption.ATOMIC_MOVE);
+            indexState.incrementSegmentsGeneration();
+        } finally {
+            writeLock.unlock();
+        }
+        resourceManager.releaseIndexState(stagingPath.toString());
+        tokenCounter += insertionWriter.tokenCounter;
+        reviewCounter = insertionWriter.reviewCounter; // the rid after the reviews of the insertion
+        LiveDocsTool.seedLiveDocs(indexState, auxIndexPath.toFile());
+    }
+
+    private long getRequestedBuildMemory() {
+        return buildMemoryBudget > 0 ? buildMemoryBudget : resourceManager.getBuildMemoryBudget();
+    }
+
     private void instantiateWriters() {
         this.reviewsMetaDataIndexWriter = new ReviewsMetaDataIndexWriter(allIndexesDirectory.getAbsolutePath());
         wordsDataIndexWriter = new WordsExternalIndexWriter(currentIndexDirectory);
@@ -77,98 +446,202 @@ public class SimpleMergeIndexWriter implements IndexWriter{
 
 
     /*
-    Using the first external sort algorithm (sort-merge).
+    Using the first external sort algorithm (sort-merge). The memory of the build is taken from the budget of the
+    resource manager for as long as the build runs, so the builds of all writers of the manager share the budget.
+    A staged build was given its memory by the writer that staged it.
      */
     private void sortAndConstructIndex(String inputFile, final int initialReviewCounter) {
         try {
-            Map<Integer, String> wordTermIdToTerm;
-            constructTermToTermIDMapping(inputFile); // token and review counter complete
-            firstSortIteration(inputFile, initialReviewCounter); // review counter resets, second input reading
-            externalSort();
-            wordTermIdToTerm = swapHashMapDirections(wordTermToTermID);
-
-            constructIndexFromSorted(wordTermIdToTerm, initialReviewCounter);
+            boolean isStaged = stagedBuildMemory > 0;
+            reservedBuildMemory = isStaged ? stagedBuildMemory
+                    : resourceManager.acquireBuildMemory(getRequestedBuildMemory());
+            try {
+                sortAndConstructIndexInReservedMemory(inputFile, initialReviewCounter);
+            } finally {
+                if (!isStaged) {
+                    resourceManager.releaseMemory(reservedBuildMemory);
+                }
+                reservedBuildMemory = 0;
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
 
     }
 
+    private void sortAndConstructIndexInReservedMemory(String inputFile, final int initialReviewCounter)
+            throws IOException {
+        if (buildMode == BuildMode.SPIMI) {
+            constructIndexInMemory(inputFile);
+            return;
+        }
+        int[] termIdRemapping = null;
+        if (buildMode == BuildMode.SINGLE_PASS || isGzipFile(inputFile)) { // decompressing once
+            singlePassSortIteration(inputFile); // token and review counter complete, provisional tids
+            termIdRemapping = remapTermIdsToSortedOrder();
+        } else {
+            int[] finalTermIdOfTermId = constructTermToTermIDMapping(inputFile); // token counter complete
+            firstSortIteration(inputFile, initialReviewCounter, finalTermIdOfTermId); // second input reading
+        }
+        termTokenizer = null;
+        Map<Integer, String> wordTermIdToTerm = swapHashMapDirections(wordTermToTermID);
+
+        constructIndexFromSorted(wordTermIdToTerm, termIdRemapping, initialReviewCounter);
+    }
+
     private void writeHashmapFor100Random() {
         // adds to the same file at the main directory
         writeMapToFile(wordTermToTermID, allIndexesDirectory);
     }
 
-    private void constructTermToTermIDMapping(String inputFile) throws IOException {
-        Set<String> wordTerms = getTermsSorted(inputFile); // first reading of whole input file
-        createMappingForSet(wordTerms, wordTermToTermID);
-        wordTerms.clear();
+    /*
+    The first reading of the two-pass build interns the terms with the term tokenizer, and gives them their tids in
+    lexicographic order. Returns the tid of each term id of the tokenizer, which the second reading tokenizes to.
+     */
+    private int[] constructTermToTermIDMapping(String inputFile) throws IOException {
+        termTokenizer = new TermTokenizer();
+        internTermsOfInput(inputFile); // first reading of whole input file
+        return remapTermIdsToSortedOrder();
     }
 
-    private Set<String> getTermsSorted(String inputFile) throws IOException {
-        BufferedReader bufferedReaderOfRawInput = new BufferedReader(new FileReader(inputFile));
-        Set<String> wordTerms = new TreeSet<>();
+    private void internTermsOfInput(String inputFile) throws IOException {
+        new ReviewInputParser(inputFile, inputFirstByte, inputEndByte).forEachReview(parsedReview -> {
+            termTokenizer.tokenize(parsedReview.getText(), parsedReview.getTextOffset(), parsedReview.getTextLength());
+            tokenCounter += termTokenizer.getNumOfTokens(); // large words are counted but not interned
+        });
+    }
 
-        String line = bufferedReaderOfRawInput.readLine();
-        while ((line != null)) {
-            if (!line.isEmpty()) {
-                String[] splitArray = line.split(":", 2);
-                String field = splitArray[0];
-                String value = splitArray[1];
-                if (field.equals(REVIEW_TEXT_FIELD)) {
-                    addLineOfTextToTermSet(wordTerms, value);
-                }
-            } else {
-                incrementReviewCounter();
-            }
-            line = bufferedReaderOfRawInput.readLine();
-        }
+    /**
+     * @param termIdRemapping - the final tid of each tid written in the runs, or null if they are final already.
+     * @param sortedTripleConsumer - takes the sorted triples of the last merge pass.
+     */
+    private void externalSort(int[] termIdRemapping, SortedTripleConsumer sortedTripleConsumer) throws IOException {
+        long startTime = System.currentTimeMillis(); // words
+        new ExternalMergeSort(currentIndexDirectory, mergeFilesDirectory, reservedBuildMemory,
+                termIdRemapping, sortedTripleConsumer);
+        PrintingTool.printElapsedTime(startTime, "Words Sort-Merging and Writing");
+    }
 
-        bufferedReaderOfRawInput.close();
-        return wordTerms;
+    /*
+    The only reading of the input in the single-pass build. The number of tokens is not known before it, so
+    the size of the runs is estimated from the size of the input file.
+     */
+    private void singlePassSortIteration(String inputFile) throws IOException {
+        termTokenizer = new TermTokenizer(); // provisional tids are given from 1 in each build
+        long rawInputSize = inputEndByte == Long.MAX_VALUE
+                ? estimateRawInputSize(inputFile) : inputEndByte - inputFirstByte;
+        long estimatedNumOfTokens = tokenCounter + rawInputSize / ESTIMATED_INPUT_BYTES_PER_TOKEN;
+        wordsTermToReviewBlockWriter = new TermToReviewBlockWriter(currentIndexDirectory.getAbsolutePath(),
+                estimatedNumOfTokens, reservedBuildMemory, resourceManager.getExecutorService());
+        writeRunsFromInput(inputFile, this::feedTextToBlockWriterWithProvisionalIds, tokenizedReview -> {
+            tokenCounter += tokenizedReview.getNumOfTokens();
+            feedTokenizedReviewToBlockWriter(tokenizedReview, this::getProvisionalTermId);
+        });
     }
 
+    private int feedTextToBlockWriterWithProvisionalIds(ReviewInputParser.ParsedReview parsedReview) {
+        int addedWordsCounter = termTokenizer.tokenize(parsedReview.getText(),
+                parsedReview.getTextOffset(), parsedReview.getTextLength());
+        for (int i = 0; i < termTokenizer.getNumOfTermsInText(); i++) {
+            wordsTermToReviewBlockWriter.add(termTokenizer.getTermIdInText(i), reviewCounter,
+                    termTokenizer.getFrequencyInText(i));
+        }
+        tokenCounter += termTokenizer.getNumOfTokens();
+        return addedWordsCounter;
+    }
 
+    private int getProvisionalTermId(String term) {
+        return termTokenizer.internTerm(term);
+    }
 
-    private void createMappingForSet(Set<String> terms, Map<String, Integer> termToTermId) {
-        int termCounter = 1; // so tids and rids are always non-zero.
-        for (Iterator<String> setIterator = terms.iterator(); setIterator.hasNext(); ) {
-            termToTermId.put(setIterator.next(), termCounter);
+    /*
+    Gives the terms of the term tokenizer their final tids, in lexicographic order, and returns the final tid of
+    each provisional tid.
+     */
+    private int[] remapTermIdsToSortedOrder() {
+        int numOfTerms = termTokenizer.getNumOfTerms();
+        Integer[] sortedProvisionalTermIds = new Integer[numOfTerms];
+        for (int i = 0; i < numOfTerms; i++) {
+            sortedProvisionalTermIds[i] = i + 1;
+        }
+        Arrays.sort(sortedProvisionalTermIds, Comparator.comparing(termTokenizer::getTerm));
+
+        wordTermToTermID.clear();
+        int[] provisionalToFinalTermId = new int[numOfTerms + 1];
+        int termCounter = 1;
+        for (int provisionalTermId : sortedProvisionalTermIds) {
+            provisionalToFinalTermId[provisionalTermId] = termCounter;
+            wordTermToTermID.put(termTokenizer.getTerm(provisionalTermId), termCounter);
             termCounter++;
-            setIterator.remove();
         }
+        return provisionalToFinalTermId;
     }
 
-    private void externalSort() {
-        long startTime = System.currentTimeMillis(); // words
-        File mergeFilesDirectory = wordsTermToReviewBlockWriter.getMergeFilesDirectory();
-        int blockSizeInPairs = wordsTermToReviewBlockWriter.getBLOCK_SIZE_IN_INT_PAIRS();
-        new ExternalMergeSort(currentIndexDirectory, mergeFilesDirectory, blockSizeInPairs);
-        PrintingTool.printElapsedTime(startTime, "Words Sort-Merging");
+    private void firstSortIteration(String inputFile, int initialReviewCounter, int[] finalTermIdOfTermId)
+            throws IOException {
+        wordsTermToReviewBlockWriter = new TermToReviewBlockWriter(currentIndexDirectory.getAbsolutePath(),
+                tokenCounter, reservedBuildMemory, resourceManager.getExecutorService());
+        resetReviewCounterTo(initialReviewCounter);
+        writeRunsFromInput(inputFile, parsedReview -> feedTextToBlockWriter(parsedReview, finalTermIdOfTermId),
+                tokenizedReview -> feedTokenizedReviewToBlockWriter(tokenizedReview, wordTermToTermID::get));
     }
 
-    private void firstSortIteration(String inputFile, int initialReviewCounter) throws IOException {
-        BufferedReader bufferedReaderOfRawInput = new BufferedReader(new FileReader(inputFile));
-        wordsTermToReviewBlockWriter = new TermToReviewBlockWriter(currentIndexDirectory.getAbsolutePath(), tokenCounter);
-        resetReviewCounterTo(initialReviewCounter);
-        StringBuilder reviewConcatFields = new StringBuilder();
+    /*
+    Reads the input, by itself or with the ingestion pipeline, and writes the runs. The block writer is dropped
+    then, since its blocks take the build memory budget that the merge of the runs takes next.
+     */
+    private void writeRunsFromInput(String inputFile,
+                                    ToIntFunction<ReviewInputParser.ParsedReview> textFeeder,
+                                    Consumer<IngestionPipeline.TokenizedReview> tokenizedReviewFeeder)
+            throws IOException {
+        try {
+            forEachReviewOfInput(inputFile, textFeeder, tokenizedReviewFeeder);
+            wordsTermToReviewBlockWriter.closeWriter();
+            mergeFilesDirectory = wordsTermToReviewBlockWriter.getMergeFilesDirectory();
+        } catch (UncheckedIOException e) { // a run was not written
+            throw e.getCause();
+        } finally {
+            wordsTermToReviewBlockWriter = null;
+        }
+    }
 
-        String line = bufferedReaderOfRawInput.readLine();
-        while ((line != null)) {
-            if (!line.isEmpty()) {
-                String[] splitArray = line.split(":", 2);
-                String field = splitArray[0];
-                String value = splitArray[1];
-                handleLine(field, value, reviewConcatFields);
-            }
-            line = bufferedReaderOfRawInput.readLine();
+    /*
+    Reads the input, by itself or with the ingestion pipeline, and writes the meta data of the reviews. The text
+    of each review is given to one of the feeders.
+     */
+    private void forEachReviewOfInput(String inputFile,
+                                      ToIntFunction<ReviewInputParser.ParsedReview> textFeeder,
+                                      Consumer<IngestionPipeline.TokenizedReview> tokenizedReviewFeeder)
+            throws IOException {
+        if (maxChunksInPipeline > 0) {
+            new IngestionPipeline(inputFile, inputFirstByte, inputEndByte, resourceManager.getExecutorService(),
+                    maxChunksInPipeline).forEachReview(tokenizedReviewFeeder);
+        } else {
+            new ReviewInputParser(inputFile, inputFirstByte, inputEndByte).forEachReview(parsedReview -> {
+                int reviewLength = textFeeder.applyAsInt(parsedReview);
+                reviewsMetaDataIndexWriter.writeData(reviewCounter, parsedReview.getPid(), parsedReview.getPidLength(),
+                        parsedReview.getHelpfulnessNumerator(), parsedReview.getHelpfulnessDenominator(),
+                        parsedReview.getScore(), reviewLength);
+                incrementReviewCounter();
+            });
+        }
+    }
+
+    private void feedTokenizedReviewToBlockWriter(IngestionPipeline.TokenizedReview tokenizedReview,
+                                                  ToIntFunction<String> termIdOfTerm) {
+        for (int i = 0; i < tokenizedReview.getNumOfTerms(); i++) {
+            int termID = termIdOfTerm.applyAsInt(tokenizedReview.getTerm(i));
+            wordsTermToReviewBlockWriter.add(termID, reviewCounter, tokenizedReview.getFrequency(i));
         }
-        //closing first iteration
-        bufferedReaderOfRawInput.close();
-        wordsTermToReviewBlockWriter.closeWriter();
+        tokenizedReview.writeMetaData(reviewCounter, reviewsMetaDataIndexWriter);
+        incrementReviewCounter();
     }
 
-    private void handleLine(String field, String value, StringBuilder reviewConcatFields){
+    private void handleLine(String field,
+                            String value,
+                            StringBuilder reviewConcatFields,
+                            ToIntFunction<String> textFeeder,
+                            Consumer<String> reviewMetaDataWriter){
         switch (field) {
             case PID_FIELD:
                 reviewConcatFields.append(reviewCounter);
@@ -181,8 +654,8 @@ public class SimpleMergeIndexWriter implements IndexWriter{
                 reviewConcatFields.append(value.split("\\.")[0]);
                 break;
             case REVIEW_TEXT_FIELD:
-                reviewConcatFields.append(WHITE_SPACE_SEPARATOR).append(feedTextToBlockWriter(value));
-                reviewsMetaDataIndexWriter.writeData(reviewConcatFields.toString());
+                reviewConcatFields.append(WHITE_SPACE_SEPARATOR).append(textFeeder.applyAsInt(value));
+                reviewMetaDataWriter.accept(reviewConcatFields.toString());
                 reviewConcatFields.replace(0, reviewConcatFields.length(), "");
                 incrementReviewCounter();
                 break;
@@ -191,33 +664,92 @@ public class SimpleMergeIndexWriter implements IndexWriter{
         }
     }
 
-    private int feedTextToBlockWriter(String reviewTextLine) {
-        List<String> filteredSortedTokens = textToNormalizedTokens(reviewTextLine);
-        int addedWordsCounter = 0;
-        for (String tokenInReview : filteredSortedTokens) {
-            if (tokenInReview.length() <= WORD_MAX_SIZE) {
-                int termID = wordTermToTermID.get(tokenInReview);
-                wordsTermToReviewBlockWriter.add(termID, reviewCounter);
-                addedWordsCounter++;
-            }
+    /*
+    The terms of the review were all interned by the first reading, so tokenizing it again allocates nothing for
+    an ASCII text, and each term of the review is added as one pair by its final tid.
+     */
+    private int feedTextToBlockWriter(ReviewInputParser.ParsedReview parsedReview, int[] finalTermIdOfTermId) {
+        int addedWordsCounter = termTokenizer.tokenize(parsedReview.getText(),
+                parsedReview.getTextOffset(), parsedReview.getTextLength());
+        for (int i = 0; i < termTokenizer.getNumOfTermsInText(); i++) {
+            wordsTermToReviewBlockWriter.add(finalTermIdOfTermId[termTokenizer.getTermIdInText(i)], reviewCounter,
+                    termTokenizer.getFrequencyInText(i));
         }
         return addedWordsCounter;
     }
 
-    private void addLineOfTextToTermSet(Set<String> terms, String reviewTextLine) {
-        List<String> filteredTokens = textToNormalizedTokens(reviewTextLine);
-        for (String token : filteredTokens) {
-            assert !token.equals("");
-            if (token.length() <= WORD_MAX_SIZE) {
-                terms.add(token.toLowerCase()); // large words are counted but not added
+    /*
+    The SPIMI build. The partial indexes are written to a staging directory, which readers ignore, and the index
+    files of their merge are moved to the index directory.
+     */
+    private void constructIndexInMemory(String inputFile) throws IOException {
+        termTokenizer = new TermTokenizer();
+        wordsSpimiIndexWriter = new WordsSpimiIndexWriter(reservedBuildMemory, numOfTokensInFrontCodeBlock,
+                dictionaryRowFormat);
+        File partialIndexesDirectory = createDirectory(allIndexesDirectory + File.separator
+                + STAGING_DIRECTORY_PREFIX + SPIMI_DIRECTORY_NAME + reviewCounter);
+        List<File> partialIndexes = new ArrayList<>();
+        forEachReviewOfInput(inputFile, parsedReview -> {
+            int addedWordsCounter = termTokenizer.tokenize(parsedReview.getText(),
+                    parsedReview.getTextOffset(), parsedReview.getTextLength());
+            for (int i = 0; i < termTokenizer.getNumOfTermsInText(); i++) {
+                wordsSpimiIndexWriter.add(termTokenizer.getTerm(termTokenizer.getTermIdInText(i)), reviewCounter,
+                        termTokenizer.getFrequencyInText(i));
+            }
+            tokenCounter += termTokenizer.getNumOfTokens();
+            writePartialIndexIfFull(partialIndexesDirectory, partialIndexes);
+            return addedWordsCounter;
+        }, tokenizedReview -> {
+            for (int i = 0; i < tokenizedReview.getNumOfTerms(); i++) {
+                wordsSpimiIndexWriter.add(tokenizedReview.getTerm(i), reviewCounter, tokenizedReview.getFrequency(i));
             }
-            incrementTokenCounter();
+            tokenCounter += tokenizedReview.getNumOfTokens();
+            writePartialIndexIfFull(partialIndexesDirectory, partialIndexes);
+            tokenizedReview.writeMetaData(reviewCounter, reviewsMetaDataIndexWriter);
+            incrementReviewCounter();
+        });
+        termTokenizer = null;
+        if (!wordsSpimiIndexWriter.isEmpty() || partialIndexes.isEmpty()) {
+            writePartialIndex(partialIndexesDirectory, partialIndexes);
+        }
+        wordsSpimiIndexWriter = null;
+        reviewsMetaDataIndexWriter.closeWriter();
+
+        moveMergedFilesTo(mergePartialIndexes(partialIndexesDirectory, partialIndexes), currentIndexDirectory);
+        new IndexRemover().removeDirectory(partialIndexesDirectory);
+        seedLiveDocs();
+    }
+
+    private void writePartialIndexIfFull(File partialIndexesDirectory, List<File> partialIndexes) {
+        if (wordsSpimiIndexWriter.isFull()) {
+            writePartialIndex(partialIndexesDirectory, partialIndexes);
+        }
+    }
+
+    private void writePartialIndex(File partialIndexesDirectory, List<File> partialIndexes) {
+        File partialIndex = createDirectory(partialIndexesDirectory + File.separator + partialIndexes.size());
+        wordsSpimiIndexWriter.writePartialIndex(partialIndex);
+        partialIndexes.add(partialIndex);
+    }
+
+    /*
+    Returns the directory with the index files of all the partial indexes.
+     */
+    private File mergePartialIndexes(File partialIndexesDirectory, List<File> partialIndexes) {
+        if (partialIndexes.size() == 1) {
+            return partialIndexes.get(0);
         }
+        IndexReader indexReader = new IndexReader(allIndexesDirectory.getAbsolutePath(), partialIndexes,
+                resourceManager);
+        WordsIndexMergeWriter wordsIndexMergeWriter = new WordsIndexMergeWriter(
+                partialIndexesDirectory.getAbsolutePath(), numOfTokensInFrontCodeBlock, dictionaryRowFormat);
+        return wordsIndexMergeWriter.merge(indexReader.getIndexMergingModeratorLogMerge());
     }
 
 
 
-    private void constructIndexFromSorted(Map<Integer, String> wordsTermIdToTerm, int initialReviewCounter) throws IOException {
+    private void constructIndexFromSorted(Map<Integer, String> wordsTermIdToTerm, int[] termIdRemapping,
+                                          int initialReviewCounter) throws IOException {
         /* taking into account the number of reviews written in a write (build from scratch/insert), as the review counter
         goes always up between building and insertions */
         int numberOfReviewsToCurrentlyWrite = reviewCounter - initialReviewCounter;
@@ -225,18 +757,29 @@ public class SimpleMergeIndexWriter implements IndexWriter{
         // rids
         reviewsMetaDataIndexWriter.closeWriter(); // was written during first sort iteration
 
-        // words
-        int readBlockSize = estimateBestSizeOfWordsBlocks(tokenCounter, false);
-        wordsDataIndexWriter.writeFromSortedFileByBlocks(BASE_NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK, readBlockSize, wordsTermIdToTerm);
+        // words, written as the last pass of the sort merges the runs, without a sorted file
+        if (numOfTermPartitions > 1) {
+            long startTime = System.currentTimeMillis();
+            new TermPartitionedConstruction(currentIndexDirectory, numOfTermPartitions, numOfTokensInFrontCodeBlock,
+                    dictionaryRowFormat, resourceManager.getExecutorService(), reservedBuildMemory)
+                    .construct(mergeFilesDirectory, termIdRemapping, wordsTermIdToTerm);
+            PrintingTool.printElapsedTime(startTime, "Words Term-Partitioned Sort-Merging and Writing");
+        } else {
+            wordsDataIndexWriter.startWriting(numOfTokensInFrontCodeBlock, dictionaryRowFormat,
+                    getWordsWriteBufferSizeInBytes(reservedBuildMemory), wordsTermIdToTerm);
+            externalSort(termIdRemapping, wordsDataIndexWriter::add);
+            wordsDataIndexWriter.closeWriter();
+        }
 
-        deleteSortedFile(currentIndexDirectory);
+        seedLiveDocs();
     }
 
-
-    private void incrementTokenCounter() {
-        tokenCounter++;
+    private void seedLiveDocs() {
+        // deletions may have been made before the reviews of this index were written
+        LiveDocsTool.seedLiveDocs(indexState, currentIndexDirectory);
     }
 
+
     private void incrementReviewCounter() {
         reviewCounter++;
     }
@@ -247,7 +790,99 @@ public class SimpleMergeIndexWriter implements IndexWriter{
 
     @Override
     public void removeReviews(String indexDirectory, List<Integer> ridsToDelete) {
-        IndexInvalidationTool.addToInvalidationFile(indexDirectory, ridsToDelete);
+        IndexState deletingIndexState = resourceManager.getIndexState(indexDirectory);
+        IndexInvalidationTool.addToInvalidationFile(deletingIndexState, ridsToDelete);
+        LiveDocsTool.addToLiveDocs(deletingIndexState, ridsToDelete);
+        if (segmentReclaimer != null) {
+            segmentReclaimer.reclaimSegments();
+        }
+    }
+
+    @Override
+    public void enableDeletedRatioMerges(double deletedRatioThreshold) {
+        this.segmentReclaimer = new SegmentReclaimer(allIndexesDirectory, resourceManager, deletedRatioThreshold,
+                numOfTokensInFrontCodeBlock, dictionaryRowFormat);
+    }
+
+    @Override
+    public void enablePipelinedIngestion(int maxChunksInProcess) {
+        this.maxChunksInPipeline = maxChunksInProcess;
+    }
+
+    @Override
+    public void updateReviews(String indexDirectory, Map<Integer, String> ridToNewReview) {
+        reviewUpdateBuffer.addAll(ridToNewReview);
+        if (reviewUpdateBuffer.isFull()) {
+            flushUpdates(indexDirectory);
+        }
+    }
+
+    /**
+     * The replacing reviews are few compared to an insertion, so they are indexed in memory without
+     * external sorting, into a staging directory that readers ignore. Publishing renames it to an
+     * auxiliary index directory and deletes the replaced reviews, while readers are held.
+     */
+    @Override
+    public Map<Integer, Integer> flushUpdates(String indexDirectory) {
+        Map<Integer, Integer> replacedRidToNewRid = new LinkedHashMap<>();
+        if (reviewUpdateBuffer.isEmpty()) {
+            return replacedRidToNewRid;
+        }
+        int firstNewRid = reviewCounter;
+        File stagingDirectory = createDirectory(allIndexesDirectory + File.separator
+                + STAGING_DIRECTORY_PREFIX + firstNewRid);
+        TreeMap<String, InvertedIndex> wordToInvertedIndex = new TreeMap<>();
+        List<String> reviewsMetaData = new ArrayList<>();
+        StringBuilder reviewConcatFields = new StringBuilder();
+        for (Map.Entry<Integer, String> replacement : reviewUpdateBuffer.getReplacements().entrySet()) {
+            replacedRidToNewRid.put(replacement.getKey(), reviewCounter);
+            ReviewUpdateBuffer.forEachLine(replacement.getValue(), (field, value) ->
+                    handleLine(field, value, reviewConcatFields,
+                            text -> addTextToInMemoryIndex(text, wordToInvertedIndex, stagingDirectory),
+                            reviewsMetaData::add));
+        }
+        new WordsSimpleIndexWriter(stagingDirectory, numOfTokensInFrontCodeBlock, dictionaryRowFormat)
+                .write(wordToInvertedIndex);
+
+        IndexState updatedIndexState = resourceManager.getIndexState(indexDirectory);
+        Lock writeLock = updatedIndexState.getVisibilityLock().writeLock();
+        writeLock.lock();
+        try {
+            ReviewsMetaDataIndexWriter updateMetaDataWriter =
+                    new ReviewsMetaDataIndexWriter(allIndexesDirectory.getAbsolutePath());
+            reviewsMetaData.forEach(updateMetaDataWriter::writeData);
+            updateMetaDataWriter.closeWriter();
+            Path stagingPath = stagingDirectory.toPath();
+            Files.move(stagingPath, stagingPath.resolveSibling(UPDATE_DIRECTORY_PREFIX + firstNewRid),
+                    StandardCopyOption.ATOMIC_MOVE);
+            removeReviews(indexDirectory, reviewUpdateBuffer.getReplacedRids());
+            updatedIndexState.incrementSegmentsGeneration();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writeLock.unlock();
+        }
+        reviewUpdateBuffer.clear();
+        return replacedRidToNewRid;
+    }
+
+    private int addTextToInMemoryIndex(String reviewTextLine,
+                                       TreeMap<String, InvertedIndex> wordToInvertedIndex,
+                                       File indexDirectory) {
+        int addedWordsCounter = 0;
+        for (String tokenInReview : textToNormalizedTokens(reviewTextLine)) {
+            if (tokenInReview.length() <= WORD_MAX_SIZE) {
+                InvertedIndex invertedIndex = wordToInvertedIndex.get(tokenInReview);
+                if (invertedIndex == null) {
+                    wordToInvertedIndex.put(tokenInReview,
+                            new InvertedIndex(tokenInReview, reviewCounter, 1, indexDirectory));
+                } else {
+                    invertedIndex.put(reviewCounter, 1); // adds to the frequency of this review
+                }
+                addedWordsCounter++;
+            }
+        }
+        return addedWordsCounter;
     }
 
     @Override
@@ -264,20 +899,21 @@ public class SimpleMergeIndexWriter implements IndexWriter{
         // reading rows of all indexes
         IndexMergingModerator indexMergingModerator = indexReader.getIndexMergingModeratorRegularMerge();
         // makes each row read from the moderator written as one index.
-        WordsIndexMergeWriter wordsIndexMergeWriter = new WordsIndexMergeWriter(allIndexesDirectory.getAbsolutePath());
+        WordsIndexMergeWriter wordsIndexMergeWriter = new WordsIndexMergeWriter(
+                allIndexesDirectory.getAbsolutePath(), numOfTokensInFrontCodeBlock, dictionaryRowFormat);
         File mergedDirectory = wordsIndexMergeWriter.merge(indexMergingModerator);
         emptyInvalidationFile();
         IndexRemover indexRemover = new IndexRemover();
         indexRemover.removeFilesAfterMerge(allIndexesDirectory.getAbsolutePath());
-        moveMergedFilesToMainIndex(mergedDirectory);
+        moveMergedFilesTo(mergedDirectory, allIndexesDirectory);
     }
 
     private void emptyInvalidationFile() {
-        IndexInvalidationTool.emptyInvalidationFile(allIndexesDirectory.getAbsolutePath());
+        IndexInvalidationTool.emptyInvalidationFile(indexState);
     }
 
-    private void moveMergedFilesToMainIndex(File mergedDirectory){
-        Path mainDirectory = allIndexesDirectory.toPath();
+    private void moveMergedFilesTo(File mergedDirectory, File indexDirectory){
+        Path mainDirectory = indexDirectory.toPath();
         try {
             File[] mergedIndexFiles = mergedDirectory.listFiles();
             if(mergedIndexFiles != null){
@@ -0,0 +1,138 @@
+package dynamic_index;
+
+import dynamic_index.external_sort.ExternalMergeSort;
+import dynamic_index.index_structure.DictionaryRowFormat;
+import dynamic_index.index_writing.WordsExternalIndexWriter;
+import dynamic_index.index_writing.WordsIndexConcatenator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static dynamic_index.global_tools.MiscTools.*;
+
+/**
+ * Term-range partitioned construction of the words index from the runs of a sort-based build. Once the vocabulary
+ * is known, the tids are split into ranges of whole dictionary rows and the runs are split by the ranges. Each range
+ * is then merged and written as an index of its own, on its own thread. Last, the indexes of the ranges are
+ * concatenated into the words index, their pointers rebased.
+ *
+ * ASSUMPTION - every tid from 1 to the number of terms has postings, so a range of whole rows of tids gives whole
+ * dictionary rows.
+ */
+class TermPartitionedConstruction {
+
+    private final File indexDirectory;
+    private final int numOfPartitions;
+    private final int numOfTokensInFrontCodeBlock;
+    private final DictionaryRowFormat dictionaryRowFormat;
+    private final ExecutorService workers;
+    private final long memoryBudgetInBytes;
+
+    /**
+     * @param indexDirectory - directory of the index being built, where the runs directory is.
+     * @param numOfPartitions - number of ranges of tids, at most. Ranges are whole dictionary rows, so a small
+     *                        vocabulary may have fewer.
+     * @param numOfTokensInFrontCodeBlock - number of words in a row of the dictionary.
+     * @param dictionaryRowFormat - format of the rows of the dictionary.
+     * @param workers - threads to write the ranges on.
+     * @param memoryBudgetInBytes - memory for the merge and write buffers of all the ranges together.
+     */
+    TermPartitionedConstruction(File indexDirectory, int numOfPartitions, int numOfTokensInFrontCodeBlock,
+                                DictionaryRowFormat dictionaryRowFormat, ExecutorService workers,
+                                long memoryBudgetInBytes) {
+        assert numOfPartitions > 0;
+        this.indexDirectory = indexDirectory;
+        this.numOfPartitions = numOfPartitions;
+        this.numOfTokensInFrontCodeBlock = numOfTokensInFrontCodeBlock;
+        this.dictionaryRowFormat = dictionaryRowFormat;
+        this.workers = workers;
+        this.memoryBudgetInBytes = memoryBudgetInBytes;
+    }
+
+    /**
+     * Writes the words files and the segment data of the index from the runs, and deletes the runs.
+     * @param mergeFilesDirectory - directory of the runs.
+     * @param termIdRemapping - the final tid of each tid written in the runs, or null if they are final already.
+     * @param termIdToTerm - the term of each final tid.
+     */
+    void construct(File mergeFilesDirectory, int[] termIdRemapping, Map<Integer, String> termIdToTerm)
+            throws IOException {
+        int[] firstTidOfPartitions = getFirstTidOfPartitions(termIdToTerm.size());
+        int numOfRanges = firstTidOfPartitions.length - 1;
+        File[] partitionDirectories = new File[numOfRanges];
+        File[] partitionRunsDirectories = new File[numOfRanges];
+        for (int p = 0; p < numOfRanges; p++) {
+            partitionDirectories[p] = createDirectory(indexDirectory + File.separator
+                    + TERM_PARTITION_DIRECTORY_NAME + p);
+            partitionRunsDirectories[p] = createDirectory(partitionDirectories[p] + File.separator
+                    + MERGE_FILES_DIRECTORY_NAME + "0");
+        }
+        ExternalMergeSort.partitionRuns(mergeFilesDirectory, termIdRemapping, firstTidOfPartitions,
+                partitionRunsDirectories);
+
+        List<Future<WordsExternalIndexWriter>> partitionWrites = new ArrayList<>(numOfRanges);
+        for (int p = 0; p < numOfRanges; p++) {
+            File partitionDirectory = partitionDirectories[p];
+            File partitionRunsDirectory = partitionRunsDirectories[p];
+            partitionWrites.add(workers.submit(() ->
+                    writePartition(partitionDirectory, partitionRunsDirectory, termIdToTerm, numOfRanges)));
+        }
+        List<WordsExternalIndexWriter> partitionWriters = new ArrayList<>(numOfRanges);
+        for (Future<WordsExternalIndexWriter> partitionWrite : partitionWrites) {
+            partitionWriters.add(getWrittenPartition(partitionWrite));
+        }
+
+        new WordsIndexConcatenator(indexDirectory).concatenate(partitionWriters);
+        IndexRemover indexRemover = new IndexRemover();
+        for (File partitionDirectory : partitionDirectories) {
+            indexRemover.removeDirectory(partitionDirectory);
+        }
+    }
+
+    /*
+    The ranges are of (numOfRows / numOfPartitions) rows rounded up, the last one possibly shorter. Returns the first
+    tid of each non-empty range followed by the tid after the last term.
+     */
+    private int[] getFirstTidOfPartitions(int numOfTerms) {
+        int numOfRows = (numOfTerms + numOfTokensInFrontCodeBlock - 1) / numOfTokensInFrontCodeBlock;
+        int rowsPerPartition = Math.max(1, (numOfRows + numOfPartitions - 1) / numOfPartitions);
+        int numOfRanges = (numOfRows + rowsPerPartition - 1) / rowsPerPartition;
+        int[] firstTidOfPartitions = new int[numOfRanges + 1];
+        for (int p = 0; p < numOfRanges; p++) {
+            firstTidOfPartitions[p] = 1 + p * rowsPerPartition * numOfTokensInFrontCodeBlock;
+        }
+        firstTidOfPartitions[numOfRanges] = numOfTerms + 1;
+        return firstTidOfPartitions;
+    }
+
+    private WordsExternalIndexWriter writePartition(File partitionDirectory, File partitionRunsDirectory,
+                                                    Map<Integer, String> termIdToTerm, int numOfRanges)
+            throws IOException {
+        long partitionMemoryBudget = memoryBudgetInBytes / numOfRanges;
+        WordsExternalIndexWriter partitionWriter = new WordsExternalIndexWriter(partitionDirectory);
+        partitionWriter.startWriting(numOfTokensInFrontCodeBlock, dictionaryRowFormat,
+                getWordsWriteBufferSizeInBytes(partitionMemoryBudget), termIdToTerm);
+        new ExternalMergeSort(partitionDirectory, partitionRunsDirectory, partitionMemoryBudget,
+                null, partitionWriter::add);
+        partitionWriter.closeIndexFiles();
+        return partitionWriter;
+    }
+
+    private WordsExternalIndexWriter getWrittenPartition(Future<WordsExternalIndexWriter> partitionWrite)
+            throws IOException {
+        try {
+            return partitionWrite.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the term partitions", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Writing a term partition failed", e.getCause());
+        }
+    }
+}
@@ -4,62 +4,108 @@ import dynamic_index.global_tools.MiscTools;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
 import java.nio.file.Files;
-import java.util.*;
-
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * One pass of the external merge: the runs are merged in groups of up to the fan-in, each group with a loser
+ * tree into one run of the next pass. The last pass merges all the runs at once and gives the sorted triples to
+ * a consumer instead of writing them.
+ */
 public class ExternalMergeIteration {
 
-    final int BLOCK_SIZE_IN_INT_PAIRS;
-
     int iterationNumber;
     File filesToMergeDirectory;
     int numOfMergeFiles;
     int numOfFilesToMergeToOneFile;
     File[] mergeFilesToRead;
-    List<NumberedQueue> mergeFilesQueues;
-    OutputBlockWriter outputBlockWriter;
+    final int READ_BUFFER_SIZE_IN_BYTES;
+    OutputBlockWriter outputBlockWriter; // null in the last pass
+    SortedTripleConsumer sortedTripleConsumer; // null in all passes but the last
+
+    /**
+     * @param iterationNumber - number of this pass, from 1.
+     * @param mergeFiles - the sorted runs to merge.
+     * @param indexDirectory - directory of the index, where the runs directory of this pass is created.
+     * @param fanIn - number of runs merged into one, at most.
+     * @param readBufferSizeInBytes - size of each of the two buffers of a run, a multiple of the pair size.
+     */
+    ExternalMergeIteration(int iterationNumber, File[] mergeFiles, File indexDirectory,
+                           int fanIn, int readBufferSizeInBytes) {
+        this(iterationNumber, mergeFiles, fanIn, readBufferSizeInBytes);
+        this.outputBlockWriter =
+                new OutputBlockWriter(indexDirectory.getPath(),
+                        MiscTools.MAX_RUN_BUFFER_SIZE_IN_BYTES, this.iterationNumber);
+    }
 
-    ExternalMergeIteration(int iterationNumber, File[] mergeFiles, File indexDirectory, int blockSizeInPairs) {
-        assert mergeFiles != null && mergeFiles.length > 0;
+    /**
+     * The last pass.
+     * @param iterationNumber - number of this pass, from 1.
+     * @param mergeFiles - the sorted runs to merge, all at once.
+     * @param readBufferSizeInBytes - size of each of the two buffers of a run, a multiple of the pair size.
+     * @param sortedTripleConsumer - takes the merged triples in sorted order.
+     */
+    ExternalMergeIteration(int iterationNumber, File[] mergeFiles, int readBufferSizeInBytes,
+                           SortedTripleConsumer sortedTripleConsumer) {
+        this(iterationNumber, mergeFiles, Math.max(2, mergeFiles.length), readBufferSizeInBytes);
+        this.sortedTripleConsumer = sortedTripleConsumer;
+    }
+
+    private ExternalMergeIteration(int iterationNumber, File[] mergeFiles, int fanIn, int readBufferSizeInBytes) {
+        assert mergeFiles != null && mergeFiles.length > 0 && fanIn >= 2;
         this.filesToMergeDirectory = mergeFiles[0].getParentFile();
         this.iterationNumber = iterationNumber;
         this.numOfMergeFiles = mergeFiles.length;
-        this.numOfFilesToMergeToOneFile = Math.max(2, (int)Math.ceil(Math.sqrt(numOfMergeFiles)));
+        this.numOfFilesToMergeToOneFile = fanIn;
         this.mergeFilesToRead =  mergeFiles;
-        this.mergeFilesQueues = new ArrayList<>();
-        this.BLOCK_SIZE_IN_INT_PAIRS = MiscTools.roundUpToProductOfPairSize(blockSizeInPairs / numOfMergeFiles);
-        this.outputBlockWriter =
-                new OutputBlockWriter(indexDirectory.getPath(),
-                        BLOCK_SIZE_IN_INT_PAIRS, this.iterationNumber);
-
+        this.READ_BUFFER_SIZE_IN_BYTES = readBufferSizeInBytes;
     }
 
+    /**
+     * The runs of this pass are deleted only after all of them were merged, so a failed pass leaves them as they were.
+     * @return the directory of the runs of the next pass, or null after the last pass.
+     * @throws UncheckedIOException - if a run could not be read, or a run of the next pass could not be written.
+     */
     File merge() {
         for (int n = 0; n < numOfMergeFiles; n += numOfFilesToMergeToOneFile) {
             // merge all subsets of temp files
-            outputBlockWriter.createNewFile();
+            if (outputBlockWriter != null) {
+                outputBlockWriter.createNewFile();
+            }
             int stopSubIterationAt = (Math.min(n + numOfFilesToMergeToOneFile, numOfMergeFiles));
-            for (int i = n; i < stopSubIterationAt; i++) {
-                //load first blocks of subset of temp files
-                NumberedQueue currentQueue = new NumberedQueue(i, mergeFilesToRead[i], BLOCK_SIZE_IN_INT_PAIRS);
-                mergeFilesQueues.add(currentQueue);
+            RunCursor[] runCursors = new RunCursor[stopSubIterationAt - n];
+            try {
+                for (int i = n; i < stopSubIterationAt; i++) {
+                    runCursors[i - n] = new RunCursor(mergeFilesToRead[i], READ_BUFFER_SIZE_IN_BYTES);
+                }
+                mergeCurrentSubsetOfFiles(new LoserTree(runCursors));
+            } catch (IOException e) {
+                if (outputBlockWriter != null) {
+                    outputBlockWriter.abortSortedFile();
+                }
+                throw new UncheckedIOException("Could not merge the runs of pass " + iterationNumber, e);
+            } finally {
+                closeRunCursors(runCursors);
+            }
+            if (outputBlockWriter != null) {
+                outputBlockWriter.closeSortedFile();
             }
-            mergeCurrentSubsetOfFiles();
-            outputBlockWriter.closeSortedFile();
-            verifyClosedQueues();
-            mergeFilesQueues.clear();
-            System.gc();
         }
         deleteFilesToMergeDirectory();
-        return outputBlockWriter.getMergeFilesDirectory();
+        return outputBlockWriter == null ? null : outputBlockWriter.getMergeFilesDirectory();
     }
 
-    private void verifyClosedQueues() {
-        for(NumberedQueue queue: mergeFilesQueues){
-            if(!queue.closed){
-                System.err.format("This queue did not close: %d. iteration: %d\n", queue.runNum, this.iterationNumber);
-                if(!queue.queue.isEmpty()){
-                    System.err.println("Its queue is also NOT empty.");
+    private void closeRunCursors(RunCursor[] runCursors) {
+        for (RunCursor runCursor : runCursors) {
+            if (runCursor != null) {
+                try {
+                    runCursor.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
         }
@@ -76,149 +122,45 @@ public class ExternalMergeIteration {
         }
     }
 
-    private void mergeCurrentSubsetOfFiles() {
-        NumberedQueue minimumQueue;
-        TermIdReviewIdPair currMinPair;
-        while ((minimumQueue = getMinimumQueue()) != null) {
-            currMinPair = minimumQueue.poll();
-            outputBlockWriter.add(currMinPair.tid, currMinPair.rid);
-        }
-    }
-
-
-    private NumberedQueue getMinimumQueue() {
-        assert mergeFilesQueues.size() > 0;
-        NumberedQueue minQueue = getFirstNotDoneQueue();
-
-        if (minQueue == null) { // all files have been read and written to output buffer
-            return null;
-        } else {
-            for (NumberedQueue currentQueue: mergeFilesQueues){
-                if(currentQueue.isQueueNotDone()){
-                    TermIdReviewIdPair minPairForCurrentQueue = currentQueue.peek();
-                    assert minPairForCurrentQueue != null;
-                    TermIdReviewIdPair prevMinPair = minQueue.peek();
-                    if ( minPairForCurrentQueue.compareTo(prevMinPair) < 0){
-                        minQueue = currentQueue;
-                    }
-                }
-            }
-            return minQueue;
-        }
-    }
-
-    private NumberedQueue getFirstNotDoneQueue(){
-        for (NumberedQueue numberedQueue: mergeFilesQueues){
-            if(numberedQueue.isQueueNotDone()){
-                return numberedQueue;
-            }
-        }
-        return null;
-    }
-
-
-    static class NumberedQueue {
-
-        final int BLOCK_SIZE_IN_PAIRS;
-        final int runNum;
-        final Queue<TermIdReviewIdPair> queue;
-        BufferedInputStream inputFileBuffer;
-        boolean closed =false;
-        boolean isDoneReadingFile = false; // there are no more bytes to read from input file
-        boolean isQueueDone = false; // the above plus the inner queue is empty
-
-        NumberedQueue(int runNum, File inputFile, int blockSizeInPairs) {
-            BLOCK_SIZE_IN_PAIRS = blockSizeInPairs;
-            this.runNum = runNum;
-            try {
-                this.inputFileBuffer = new BufferedInputStream(new FileInputStream(inputFile));
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            }
-            this.queue = new PriorityQueue<>(blockSizeInPairs);
-            load();
-        }
-
-        TermIdReviewIdPair peek(){
-            return queue.peek();
-        }
-
-        TermIdReviewIdPair poll(){
-            TermIdReviewIdPair termIdReviewIdPair = queue.poll();
-            if (queue.isEmpty()){
-                if(!isDoneReadingFile) {
-                    load();
-                } else {
-                    setQueueDone();
-                }
+    private void mergeCurrentSubsetOfFiles(LoserTree loserTree) throws IOException {
+        long currMinPair;
+        if (sortedTripleConsumer != null) {
+            while ((currMinPair = loserTree.poll()) != RunCursor.EXHAUSTED) {
+                sortedTripleConsumer.accept(PackedPairs.tid(currMinPair), PackedPairs.rid(currMinPair),
+                        loserTree.getPolledFrequency());
             }
-            return termIdReviewIdPair;
-        }
-
-
-        boolean isQueueNotDone(){
-            return !isQueueDone;
-        }
-
-        private void load() {
-            ByteBuffer blockByteBuffer = getByteBuffer();
-            for (int i = 0; i < BLOCK_SIZE_IN_PAIRS; i++) {
-                /* there will be bad zeros at the last block of the file */
-                if (blockByteBuffer.getInt(i * MiscTools.PAIR_OF_INT_SIZE_IN_BYTES) == 0){
-                    break; // possibly hides other reasons for zeros...
-                }
-                int tid = blockByteBuffer.getInt();
-                int rid = blockByteBuffer.getInt();
-                queue.add(new TermIdReviewIdPair(tid, rid));
-            }
-            if(queue.isEmpty()){ // read empty block and queue is empty
-                setQueueDone();
-            }
-        }
-
-        private void setQueueDone(){
-            isQueueDone = true;
-            close();
+            return;
         }
-
-        private ByteBuffer getByteBuffer() {
-            final int blockSizeInBytes = this.BLOCK_SIZE_IN_PAIRS * MiscTools.PAIR_OF_INT_SIZE_IN_BYTES;
-            byte[] blockFromFile = new byte[blockSizeInBytes];
-            try {
-                int numOfBytesRead = inputFileBuffer.read(blockFromFile);
-                if (numOfBytesRead < blockSizeInBytes){
-                    this.isDoneReadingFile = true;
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            return ByteBuffer.wrap(blockFromFile);
-        }
-
-        void close(){
-            try {
-                inputFileBuffer.close();
-                closed = true;
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        while ((currMinPair = loserTree.poll()) != RunCursor.EXHAUSTED) {
+            outputBlockWriter.add(currMinPair, loserTree.getPolledFrequency());
         }
     }
 
+    /**
+     * Writes the merged pairs with write-behind: when a buffer is full it is written in the background while
+     * the merge fills a second one. The runs are encoded a block of pairs at a time.
+     */
     static class OutputBlockWriter {
 
-        private final List<TermIdReviewIdPair> termIdReviewIdPairs;
-        public final int BLOCK_SIZE_IN_INT_PAIRS;
+        private ByteBuffer writeBuffer;
+        private ByteBuffer bufferBeingWritten;
+        private Future<Integer> pendingWrite = null;
+        private long writePosition = 0;
 
-        private BufferedOutputStream currentFile;
+        private final long[] pairsOfBlock = new long[RunCodec.PAIRS_PER_BLOCK]; // pairs not yet encoded
+        private final int[] frequenciesOfBlock = new int[RunCodec.PAIRS_PER_BLOCK];
+        private int numOfPairsInBlock = 0;
+
+        private AsynchronousFileChannel currentFile;
         private File mergeFilesDirectory;
         private final int iterationNumber;
         private int sortedFilesCounter = 1;
 
-        public OutputBlockWriter(String indexDirectoryName, int blockSize, int iterationNumber) {
+        public OutputBlockWriter(String indexDirectoryName, int bufferSizeInBytes, int iterationNumber) {
+            assert bufferSizeInBytes >= RunCodec.MAX_ENCODED_BLOCK_SIZE_IN_BYTES;
             this.iterationNumber = iterationNumber;
-            BLOCK_SIZE_IN_INT_PAIRS = blockSize;
-            termIdReviewIdPairs = new ArrayList<>(BLOCK_SIZE_IN_INT_PAIRS);
+            writeBuffer = ByteBuffer.allocateDirect(bufferSizeInBytes);
+            bufferBeingWritten = ByteBuffer.allocateDirect(bufferSizeInBytes);
             createMergeFileDirectory(indexDirectoryName);
         }
 
@@ -240,10 +182,11 @@ public class ExternalMergeIteration {
                     + sortedFilesCounter + BINARY_FILE_SUFFIX;
             countNewFile(); // yes, counting after taking the name
             try {
-                currentFile = new BufferedOutputStream(new FileOutputStream(newFileName),
-                        BLOCK_SIZE_IN_INT_PAIRS* MiscTools.PAIR_OF_INT_SIZE_IN_BYTES);
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
+                currentFile = AsynchronousFileChannel.open(Paths.get(newFileName),
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                writePosition = 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
 
@@ -252,46 +195,87 @@ public class ExternalMergeIteration {
         }
 
         /**
-         * Adds pair of int values to the class inner Vector data members.
-         * Calls Write block to file when reaching block size
+         * Adds a packed (tid, rid) pair and its frequency to the buffer, which is written to the file when full.
          *
-         * @param tid - term ID
-         * @param rid - Review ID
+         * @param packedPair - tid in the high int, rid in the low int.
+         * @param frequency - frequency of the term in the review.
          */
-        public void add(int tid, int rid) {
-            termIdReviewIdPairs.add(new TermIdReviewIdPair(tid, rid));
-            if (isEndOfBlock()) {
-                writeBlockToCurrentFile();
+        public void add(long packedPair, int frequency) {
+            pairsOfBlock[numOfPairsInBlock] = packedPair;
+            frequenciesOfBlock[numOfPairsInBlock++] = frequency;
+            if (numOfPairsInBlock == RunCodec.PAIRS_PER_BLOCK) {
+                encodePairsOfBlock();
             }
         }
 
-        private boolean isEndOfBlock() {
-            return termIdReviewIdPairs.size() == BLOCK_SIZE_IN_INT_PAIRS;
+        private void encodePairsOfBlock() {
+            RunCodec.encodeBlock(pairsOfBlock, frequenciesOfBlock, 0, numOfPairsInBlock, writeBuffer);
+            numOfPairsInBlock = 0;
+            if (writeBuffer.remaining() < RunCodec.MAX_ENCODED_BLOCK_SIZE_IN_BYTES) {
+                writeBlockToCurrentFile();
+            }
         }
 
         private void writeBlockToCurrentFile() {
-            if(!termIdReviewIdPairs.isEmpty()){
-                try {
-                    do {
-                        byte[] pairsAsBytes = TermToReviewBlockWriter.toByteArray(this.termIdReviewIdPairs);
-                        currentFile.write(pairsAsBytes);
-                    } while (!termIdReviewIdPairs.isEmpty()); // if the array is too big
-                } catch (IOException e) {
-                    e.printStackTrace();
+            completePendingWrite(); // the other buffer is free again
+            ByteBuffer fullBuffer = writeBuffer;
+            writeBuffer = bufferBeingWritten;
+            bufferBeingWritten = fullBuffer;
+            bufferBeingWritten.flip();
+            pendingWrite = currentFile.write(bufferBeingWritten, writePosition);
+            writeBuffer.clear();
+        }
+
+        private void completePendingWrite() {
+            if (pendingWrite == null) {
+                return;
+            }
+            try {
+                writePosition += pendingWrite.get();
+                while (bufferBeingWritten.hasRemaining()) { // a write may end before the whole buffer is written
+                    writePosition += currentFile.write(bufferBeingWritten, writePosition).get();
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException("Interrupted while writing a run"));
+            } catch (ExecutionException e) {
+                throw new UncheckedIOException(new IOException("Could not write a run", e.getCause()));
+            } finally {
+                pendingWrite = null;
             }
         }
 
         public void closeSortedFile(){
+            if (numOfPairsInBlock > 0) {
+                encodePairsOfBlock();
+            }
             writeBlockToCurrentFile();
+            completePendingWrite();
             try {
                 currentFile.close();
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new UncheckedIOException(e);
             }
         }
 
-
-
+        /*
+        Closes the file being written after a failed merge, without writing what is left in the buffers.
+         */
+        void abortSortedFile() {
+            numOfPairsInBlock = 0;
+            writeBuffer.clear();
+            try {
+                if (pendingWrite != null) {
+                    pendingWrite.get();
+                }
+                currentFile.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | IOException e) {
+                e.printStackTrace(); // the merge already failed
+            } finally {
+                pendingWrite = null;
+            }
+        }
     }
 }
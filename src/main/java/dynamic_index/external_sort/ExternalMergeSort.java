@@ -4,57 +4,180 @@ import dynamic_index.global_tools.MiscTools;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 
 public class ExternalMergeSort {
 
     private File filesToMergeDirectory;
     private final File indexDirectory;
-    private final int BLOCK_SIZE_IN_INT_PAIRS;
+    private final long memoryBudgetInBytes;
 
 
-    public ExternalMergeSort(File indexDirectory, File mergeFilesDirectory , int blockSizeInPairs) {
+    /**
+     * Sorts the runs, after giving their tids new values, and gives the sorted triples to a consumer as the last
+     * pass merges them, so the whole sorted output is never written.
+     * @param memoryBudgetInBytes - memory for the buffers of the merge. The runs are merged in one pass if the
+     *                            budget allows two buffers of at least MIN_RUN_BUFFER_SIZE_IN_BYTES to each of
+     *                            them, besides the two output buffers.
+     * @param termIdRemapping - the new tid of each tid written in the runs (indexed by the written tid), or null
+     *                        to keep the tids as they are. Each run is small enough to be read whole, so it is
+     *                        sorted again by its new tids before the merging.
+     * @param sortedTripleConsumer - takes the (tid, rid, frequency) triples of all the runs in sorted order.
+     * @throws IOException - if a run could not be read or written again with its new tids, or could not be merged.
+     *                       The runs of the pass that failed are kept.
+     */
+    public ExternalMergeSort(File indexDirectory, File mergeFilesDirectory, long memoryBudgetInBytes,
+                             int[] termIdRemapping, SortedTripleConsumer sortedTripleConsumer) throws IOException {
         assert mergeFilesDirectory != null;
         this.indexDirectory = indexDirectory;
         this.filesToMergeDirectory = mergeFilesDirectory;
-        BLOCK_SIZE_IN_INT_PAIRS = blockSizeInPairs;
-        merge();
+        this.memoryBudgetInBytes = memoryBudgetInBytes;
+        if (termIdRemapping != null) {
+            rewriteRuns(filesToMergeDirectory, termIdRemapping, null, null);
+        }
+        merge(sortedTripleConsumer);
+    }
+
+    /**
+     * Splits the runs by ranges of tids, after giving their tids new values, so that each range can be sorted by an
+     * ExternalMergeSort of its own. The pairs of a run in the range of partition p are written as a run of the same
+     * name to partitionRunsDirectories[p], and the runs and their directory are deleted.
+     * @param mergeFilesDirectory - directory of the runs.
+     * @param termIdRemapping - as in the constructor, may be null.
+     * @param firstTidOfPartitions - the first tid of each range in increasing order, followed by the tid after the
+     *                             last range.
+     * @param partitionRunsDirectories - an existing directory for the runs of each range.
+     * @throws IOException - if a run could not be read or split.
+     */
+    public static void partitionRuns(File mergeFilesDirectory, int[] termIdRemapping,
+                                     int[] firstTidOfPartitions, File[] partitionRunsDirectories) throws IOException {
+        assert firstTidOfPartitions.length == partitionRunsDirectories.length + 1;
+        rewriteRuns(mergeFilesDirectory, termIdRemapping, firstTidOfPartitions, partitionRunsDirectories);
+        Files.delete(mergeFilesDirectory.toPath());
+    }
+
+    /*
+    Reads each run whole, gives its tids new values if there is a remapping (sorting it again by them), and writes it
+    back, or its ranges of tids to the runs of the partitions if there are partitions. A run that could not be
+    rewritten fails the sort, since its pairs would be lost or read with the tids of another vocabulary.
+     */
+    private static void rewriteRuns(File runsDirectory, int[] termIdRemapping,
+                                    int[] firstTidOfPartitions, File[] partitionRunsDirectories) throws IOException {
+        File[] runs = runsDirectory.listFiles();
+        if (runs == null) {
+            return;
+        }
+        long[] packedPairs = new long[0];
+        int[] frequencies = new int[0];
+        long[] radixSortScratch = new long[0];
+        int[] frequenciesScratch = new int[0];
+        ByteBuffer writeBuffer = ByteBuffer.allocate(MiscTools.MAX_RUN_BUFFER_SIZE_IN_BYTES);
+        for (File run : runs) {
+            int numOfPairs = 0;
+            try (RunCursor runCursor = new RunCursor(run, MiscTools.MAX_RUN_BUFFER_SIZE_IN_BYTES)) {
+                long packedPair;
+                while ((packedPair = runCursor.next()) != RunCursor.EXHAUSTED) {
+                    if (numOfPairs == packedPairs.length) {
+                        packedPairs = Arrays.copyOf(packedPairs, Math.max(RunCodec.PAIRS_PER_BLOCK, 2 * numOfPairs));
+                        frequencies = Arrays.copyOf(frequencies, packedPairs.length);
+                    }
+                    if (termIdRemapping != null) {
+                        packedPair = PackedPairs.pack(termIdRemapping[PackedPairs.tid(packedPair)],
+                                PackedPairs.rid(packedPair));
+                    }
+                    packedPairs[numOfPairs] = packedPair;
+                    frequencies[numOfPairs++] = runCursor.getFrequency();
+                }
+            }
+            if (termIdRemapping != null) {
+                if (radixSortScratch.length < numOfPairs) {
+                    radixSortScratch = new long[packedPairs.length];
+                    frequenciesScratch = new int[packedPairs.length];
+                }
+                PackedPairs.radixSort(packedPairs, frequencies, numOfPairs, radixSortScratch, frequenciesScratch);
+            }
+            if (partitionRunsDirectories == null) {
+                RunCodec.writeRun(run, packedPairs, frequencies, numOfPairs, writeBuffer);
+            } else {
+                writeRunOfEachPartition(run, packedPairs, frequencies, numOfPairs,
+                        firstTidOfPartitions, partitionRunsDirectories, writeBuffer);
+            }
+        }
     }
 
+    private static void writeRunOfEachPartition(File run, long[] packedPairs, int[] frequencies, int numOfPairs,
+                                                int[] firstTidOfPartitions, File[] partitionRunsDirectories,
+                                                ByteBuffer writeBuffer) throws IOException {
+        int from = 0;
+        for (int p = 0; p < partitionRunsDirectories.length; p++) {
+            long firstPairAfterPartition = PackedPairs.pack(firstTidOfPartitions[p + 1], 0); // rids are positive
+            int to = from;
+            while (to < numOfPairs && packedPairs[to] < firstPairAfterPartition) {
+                to++;
+            }
+            if (to > from) {
+                RunCodec.writeRun(new File(partitionRunsDirectories[p], run.getName()),
+                        packedPairs, frequencies, from, to, writeBuffer);
+            }
+            from = to;
+        }
+        assert from == numOfPairs : "a tid out of all partitions";
+        Files.delete(run.toPath());
+    }
 
-    private void merge() {
+    private void merge(SortedTripleConsumer sortedTripleConsumer) throws IOException {
+        try {
+            mergeInPasses(sortedTripleConsumer);
+        } catch (UncheckedIOException e) { // a pass failed
+            throw e.getCause();
+        }
+    }
+
+    private void mergeInPasses(SortedTripleConsumer sortedTripleConsumer) {
         int i = 1;
         File[] filesToMerge = this.filesToMergeDirectory.listFiles();
-        while (filesToMerge != null && filesToMerge.length > 1) {
-            ExternalMergeIteration externalMergeIteration =
-                    new ExternalMergeIteration(i, filesToMerge, indexDirectory, BLOCK_SIZE_IN_INT_PAIRS);
+        while (filesToMerge != null && getFanIn(filesToMerge.length) < filesToMerge.length) {
+            int fanIn = getFanIn(filesToMerge.length);
+            ExternalMergeIteration externalMergeIteration = new ExternalMergeIteration(i, filesToMerge,
+                    indexDirectory, fanIn, getBufferSizeInBytes(fanIn));
             this.filesToMergeDirectory = externalMergeIteration.merge();
             i++;
             filesToMerge = this.filesToMergeDirectory.listFiles();
-            System.gc();
         }
-        if (filesToMerge != null && filesToMerge.length == 1) {
-            renameFinalFile(filesToMerge[0]);
-
-        } else {
-            System.err.println("Renaming unsuccessful");
+        if (filesToMerge == null) {
+            System.err.println("Merge files directory is missing");
+        } else if (filesToMerge.length == 0) { // no reviews, nothing to give
+            deleteFilesToMergeDirectory();
+        } else { // the fan-in covers all the runs, so this is the last pass
+            new ExternalMergeIteration(i, filesToMerge, getBufferSizeInBytes(filesToMerge.length),
+                    sortedTripleConsumer).merge();
         }
-
     }
 
-    private void renameFinalFile(File sortedFileToRename) {
-        File parentOfSortedFileToRename = sortedFileToRename.getParentFile();
-        File renamedFile = new File(indexDirectory + File.separator + MiscTools.WORDS_SORTED_FILE_NAME);
+    private void deleteFilesToMergeDirectory() {
         try {
-            Files.move(sortedFileToRename.toPath(), renamedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            Files.delete(parentOfSortedFileToRename.toPath());
+            Files.delete(filesToMergeDirectory.toPath());
         } catch (IOException e) {
             e.printStackTrace();
         }
-
     }
 
+    /*
+    As many runs as the budget gives two minimal buffers to, after the two buffers of the output.
+     */
+    private int getFanIn(int numOfRuns) {
+        long maxFanIn = (memoryBudgetInBytes - 2L * MiscTools.MAX_RUN_BUFFER_SIZE_IN_BYTES)
+                / (2L * MiscTools.MIN_RUN_BUFFER_SIZE_IN_BYTES);
+        return (int) Math.max(2, Math.min(numOfRuns, maxFanIn));
+    }
 
+    private int getBufferSizeInBytes(int fanIn) {
+        long bufferSize = (memoryBudgetInBytes - 2L * MiscTools.MAX_RUN_BUFFER_SIZE_IN_BYTES) / (2L * fanIn);
+        bufferSize = Math.max(MiscTools.MIN_RUN_BUFFER_SIZE_IN_BYTES,
+                Math.min(MiscTools.MAX_RUN_BUFFER_SIZE_IN_BYTES, bufferSize));
+        return MiscTools.roundDownToMultiplicationOf((int) bufferSize, MiscTools.PAIR_OF_INT_SIZE_IN_BYTES);
+    }
 }
-
@@ -0,0 +1,73 @@
+package dynamic_index.external_sort;
+
+import java.io.IOException;
+
+/**
+ * Tournament tree for merging k sorted runs: every inner node keeps the loser of the match under it, and the
+ * overall winner is kept at the root, so taking the smallest pair and replacing it with the next pair of the
+ * same run replays only the log(k) matches on the path of that run.
+ */
+class LoserTree {
+
+    private final RunCursor[] cursors;
+    private final long[] currentPairs; // the current pair of each run, and a sentinel for building the tree
+    private final int[] losers; // losers[0] is the winner
+    private int polledFrequency = 0;
+
+    LoserTree(RunCursor[] cursors) throws IOException {
+        this.cursors = cursors;
+        int k = cursors.length;
+        this.currentPairs = new long[k + 1];
+        this.losers = new int[k];
+        currentPairs[k] = Long.MIN_VALUE; // wins every match, until replaced by the real leaves
+        for (int i = 0; i < k; i++) {
+            currentPairs[i] = cursors[i].next();
+            losers[i] = k;
+        }
+        for (int i = k - 1; i >= 0; i--) {
+            replay(i);
+        }
+    }
+
+    /**
+     * @return the smallest packed pair of all runs, or RunCursor.EXHAUSTED if all runs have ended.
+     */
+    long peek() {
+        return currentPairs[losers[0]];
+    }
+
+    /**
+     * Takes the smallest packed pair and advances its run.
+     * @return the smallest packed pair of all runs, or RunCursor.EXHAUSTED if all runs have ended. Its frequency is
+     * given by getPolledFrequency().
+     */
+    long poll() throws IOException {
+        int winner = losers[0];
+        long smallestPair = currentPairs[winner];
+        if (smallestPair != RunCursor.EXHAUSTED) {
+            polledFrequency = cursors[winner].getFrequency(); // of the current pair, before the run advances
+            currentPairs[winner] = cursors[winner].next();
+            replay(winner);
+        }
+        return smallestPair;
+    }
+
+    /**
+     * @return the frequency of the pair last returned by poll().
+     */
+    int getPolledFrequency() {
+        return polledFrequency;
+    }
+
+    private void replay(int run) {
+        int winner = run;
+        for (int node = (run + cursors.length) >> 1; node > 0; node >>= 1) {
+            if (currentPairs[losers[node]] < currentPairs[winner]) {
+                int previousLoser = losers[node];
+                losers[node] = winner;
+                winner = previousLoser;
+            }
+        }
+        losers[0] = winner;
+    }
+}
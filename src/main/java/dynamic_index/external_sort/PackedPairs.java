@@ -0,0 +1,81 @@
+package dynamic_index.external_sort;
+
+import java.util.Arrays;
+
+/**
+ * (tid, rid) pairs packed in a long each: the tid in the high 32 bits and the rid in the low 32 bits. Both are
+ * positive, so comparing the packed longs is comparing the pairs by tid and then by rid, and the big-endian
+ * bytes of a packed long are the bytes of the tid followed by the bytes of the rid, as in the sorted files.
+ */
+final class PackedPairs {
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    private PackedPairs() {
+    }
+
+    static long pack(int tid, int rid) {
+        return ((long) tid << Integer.SIZE) | rid;
+    }
+
+    static int tid(long packedPair) {
+        return (int) (packedPair >>> Integer.SIZE);
+    }
+
+    static int rid(long packedPair) {
+        return (int) packedPair;
+    }
+
+    /**
+     * Sorts packed pairs with an LSD radix sort, a byte at a time, skipping the bytes that are the same in all
+     * pairs (e.g. the high bytes of the tids), and moves the frequency of each pair along with it.
+     * @param packedPairs - array whose first length values are sorted.
+     * @param frequencies - frequency of each pair, at the same index as the pair.
+     * @param length - number of values to sort.
+     * @param scratch - array of at least length values, its content is overwritten.
+     * @param frequenciesScratch - array of at least length values, its content is overwritten.
+     */
+    static void radixSort(long[] packedPairs, int[] frequencies, int length, long[] scratch, int[] frequenciesScratch) {
+        if (length == 0) {
+            return;
+        }
+        assert scratch.length >= length && frequenciesScratch.length >= length;
+        long[] source = packedPairs;
+        long[] destination = scratch;
+        int[] sourceFrequencies = frequencies;
+        int[] destinationFrequencies = frequenciesScratch;
+        int[] digitCounts = new int[RADIX];
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(digitCounts, 0);
+            for (int i = 0; i < length; i++) {
+                digitCounts[(int) (source[i] >>> shift) & (RADIX - 1)]++;
+            }
+            if (digitCounts[(int) (source[0] >>> shift) & (RADIX - 1)] == length) {
+                continue; // all have the same digit, nothing to move
+            }
+            int digitStart = 0;
+            for (int digit = 0; digit < RADIX; digit++) {
+                int digitCount = digitCounts[digit];
+                digitCounts[digit] = digitStart;
+                digitStart += digitCount;
+            }
+            for (int i = 0; i < length; i++) {
+                long value = source[i];
+                int index = digitCounts[(int) (value >>> shift) & (RADIX - 1)]++;
+                destination[index] = value;
+                destinationFrequencies[index] = sourceFrequencies[i];
+            }
+            long[] sorted = destination;
+            destination = source;
+            source = sorted;
+            int[] sortedFrequencies = destinationFrequencies;
+            destinationFrequencies = sourceFrequencies;
+            sourceFrequencies = sortedFrequencies;
+        }
+        if (source != packedPairs) {
+            System.arraycopy(source, 0, packedPairs, 0, length);
+            System.arraycopy(sourceFrequencies, 0, frequencies, 0, length);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package dynamic_index.external_sort;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compressed format of the runs of the external sort. A run is a sequence of blocks of up to PAIRS_PER_BLOCK
+ * sorted pairs with their frequencies, each encoded with varints (7 bits a byte, low bits first, the high bit set
+ * on all bytes but the last) as: the number of pairs, the tid, rid and frequency of the first pair, and then for
+ * every other pair the gap from the previous tid, followed by the gap from the previous rid if the tid is the
+ * same, or by the rid itself if it is not, and by the frequency. Tids repeat and rids increase within a run, so
+ * most pairs take three or four bytes instead of twelve.
+ *
+ * The last pass does not write a run: it gives the merged triples to the index writer.
+ */
+final class RunCodec {
+
+    static final int PAIRS_PER_BLOCK = 128;
+    private static final int MAX_VAR_INT_SIZE_IN_BYTES = 5;
+    static final int MAX_ENCODED_BLOCK_SIZE_IN_BYTES = MAX_VAR_INT_SIZE_IN_BYTES * (1 + 3 * PAIRS_PER_BLOCK);
+
+    private RunCodec() {
+    }
+
+    /**
+     * Writes sorted packed pairs to a file as a compressed run, through a reused buffer.
+     * @param file - file to (over)write.
+     * @param packedPairs - array whose first numOfPairs values are written, sorted.
+     * @param frequencies - frequency of each pair, at the same index as the pair.
+     * @param writeBuffer - a heap buffer of at least MAX_ENCODED_BLOCK_SIZE_IN_BYTES.
+     */
+    static void writeRun(File file, long[] packedPairs, int[] frequencies, int numOfPairs, ByteBuffer writeBuffer)
+            throws IOException {
+        writeRun(file, packedPairs, frequencies, 0, numOfPairs, writeBuffer);
+    }
+
+    /**
+     * Writes a range of sorted packed pairs to a file as a compressed run, through a reused buffer.
+     * @param file - file to (over)write.
+     * @param packedPairs - array whose values from index from to index to (exclusive) are written, sorted.
+     * @param frequencies - frequency of each pair, at the same index as the pair.
+     * @param from - index of the first pair written.
+     * @param to - index after the last pair written.
+     * @param writeBuffer - a heap buffer of at least MAX_ENCODED_BLOCK_SIZE_IN_BYTES.
+     */
+    static void writeRun(File file, long[] packedPairs, int[] frequencies, int from, int to, ByteBuffer writeBuffer)
+            throws IOException {
+        assert writeBuffer.capacity() >= MAX_ENCODED_BLOCK_SIZE_IN_BYTES;
+        try (FileOutputStream runFOS = new FileOutputStream(file)) {
+            writeBuffer.clear();
+            for (int i = from; i < to; i += PAIRS_PER_BLOCK) {
+                if (writeBuffer.remaining() < MAX_ENCODED_BLOCK_SIZE_IN_BYTES) {
+                    runFOS.write(writeBuffer.array(), 0, writeBuffer.position());
+                    writeBuffer.clear();
+                }
+                encodeBlock(packedPairs, frequencies, i, Math.min(PAIRS_PER_BLOCK, to - i), writeBuffer);
+            }
+            runFOS.write(writeBuffer.array(), 0, writeBuffer.position());
+        }
+    }
+
+    /**
+     * Encodes one block of sorted packed pairs.
+     * @param packedPairs - array of the pairs.
+     * @param frequencies - frequency of each pair, at the same index as the pair.
+     * @param from - index of the first pair of the block.
+     * @param numOfPairs - number of pairs in the block, between 1 and PAIRS_PER_BLOCK.
+     * @param destination - buffer with at least MAX_ENCODED_BLOCK_SIZE_IN_BYTES remaining.
+     */
+    static void encodeBlock(long[] packedPairs, int[] frequencies, int from, int numOfPairs, ByteBuffer destination) {
+        assert numOfPairs > 0 && numOfPairs <= PAIRS_PER_BLOCK;
+        int previousTid = PackedPairs.tid(packedPairs[from]);
+        int previousRid = PackedPairs.rid(packedPairs[from]);
+        putVarInt(destination, numOfPairs);
+        putVarInt(destination, previousTid);
+        putVarInt(destination, previousRid);
+        putVarInt(destination, frequencies[from]);
+        for (int i = from + 1; i < from + numOfPairs; i++) {
+            int tid = PackedPairs.tid(packedPairs[i]);
+            int rid = PackedPairs.rid(packedPairs[i]);
+            assert tid > previousTid || (tid == previousTid && rid >= previousRid);
+            putVarInt(destination, tid - previousTid);
+            putVarInt(destination, tid == previousTid ? rid - previousRid : rid);
+            putVarInt(destination, frequencies[i]);
+            previousTid = tid;
+            previousRid = rid;
+        }
+    }
+
+    private static void putVarInt(ByteBuffer destination, int value) {
+        while ((value & ~0x7F) != 0) {
+            destination.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        destination.put((byte) value);
+    }
+}
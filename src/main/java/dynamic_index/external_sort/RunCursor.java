@@ -0,0 +1,151 @@
+package dynamic_index.external_sort;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a sorted run of (tid, rid) pairs with their frequencies, compressed as by RunCodec, one packed pair at a
+ * time. The run is read a block at a time into two direct buffers: while the pairs of one block are decoded, the
+ * next block is already being read into the other.
+ */
+class RunCursor implements Closeable {
+
+    static final long EXHAUSTED = Long.MAX_VALUE; // larger than any packed pair
+
+    private final AsynchronousFileChannel runChannel;
+    private ByteBuffer currentBlock;
+    private ByteBuffer nextBlock;
+    private Future<Integer> nextBlockRead = null;
+    private long readPosition = 0;
+    private boolean isDoneReadingFile = false;
+
+    private int numOfPairsLeftInEncodedBlock = 0;
+    private int previousTid;
+    private int previousRid;
+    private int frequency;
+
+    /**
+     * @param run - a compressed run of sorted (tid, rid) pairs.
+     * @param bufferSizeInBytes - size of each of the two blocks read.
+     */
+    RunCursor(File run, int bufferSizeInBytes) throws IOException {
+        this.runChannel = AsynchronousFileChannel.open(run.toPath(), StandardOpenOption.READ);
+        this.currentBlock = ByteBuffer.allocateDirect(bufferSizeInBytes);
+        this.nextBlock = ByteBuffer.allocateDirect(bufferSizeInBytes);
+        currentBlock.flip(); // empty, so the first call to next() takes the first block
+        readNextBlock();
+    }
+
+    /**
+     * @return the next packed pair of the run, or EXHAUSTED after the last one. Its frequency is given by
+     * getFrequency().
+     */
+    long next() throws IOException {
+        if (numOfPairsLeftInEncodedBlock == 0) {
+            if (!hasMoreBytes()) {
+                return EXHAUSTED;
+            }
+            numOfPairsLeftInEncodedBlock = readVarInt();
+            previousTid = readVarInt();
+            previousRid = readVarInt();
+            frequency = readVarInt();
+        } else {
+            int tidGap = readVarInt();
+            if (tidGap == 0) {
+                previousRid += readVarInt();
+            } else {
+                previousTid += tidGap;
+                previousRid = readVarInt();
+            }
+            frequency = readVarInt();
+        }
+        numOfPairsLeftInEncodedBlock--;
+        return PackedPairs.pack(previousTid, previousRid);
+    }
+
+    /**
+     * @return the frequency of the pair last returned by next().
+     */
+    int getFrequency() {
+        return frequency;
+    }
+
+    private boolean hasMoreBytes() throws IOException {
+        return currentBlock.hasRemaining() || takeNextBlock();
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte encodedByte;
+        do {
+            if (!hasMoreBytes()) {
+                throw new EOFException("A run ends in the middle of a pair");
+            }
+            encodedByte = currentBlock.get();
+            value |= (encodedByte & 0x7F) << shift;
+            shift += 7;
+        } while (encodedByte < 0); // the high bit is set on all bytes but the last
+        return value;
+    }
+
+    private void readNextBlock() {
+        nextBlock.clear();
+        if (isDoneReadingFile) {
+            nextBlock.flip();
+        } else {
+            nextBlockRead = runChannel.read(nextBlock, readPosition);
+        }
+    }
+
+    /*
+    Waits for the read of the next block, swaps it with the current one and starts reading the one after it.
+     */
+    private boolean takeNextBlock() throws IOException {
+        if (nextBlockRead != null) {
+            completeNextBlockRead();
+        }
+        ByteBuffer consumedBlock = currentBlock;
+        currentBlock = nextBlock;
+        nextBlock = consumedBlock;
+        if (!currentBlock.hasRemaining()) {
+            return false;
+        }
+        readNextBlock();
+        return true;
+    }
+
+    private void completeNextBlockRead() throws IOException {
+        try {
+            int numOfBytesRead = nextBlockRead.get();
+            // a read may end before the buffer is full without being the end of the file
+            while (numOfBytesRead != -1) {
+                readPosition += numOfBytesRead;
+                if (!nextBlock.hasRemaining()) {
+                    break;
+                }
+                numOfBytesRead = runChannel.read(nextBlock, readPosition).get();
+            }
+            isDoneReadingFile = numOfBytesRead == -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading a run", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        nextBlockRead = null;
+        nextBlock.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        runChannel.close(); // a read still in progress is cancelled
+    }
+}
@@ -0,0 +1,18 @@
+package dynamic_index.external_sort;
+
+import java.io.IOException;
+
+/**
+ * Takes the output of the last pass of the external merge: the (tid, rid, frequency) triples of all the runs,
+ * sorted by tid and then by rid. The last pass gives them here as they are merged instead of writing a sorted file.
+ */
+@FunctionalInterface
+public interface SortedTripleConsumer {
+
+    /**
+     * @param tid - term id, not smaller than the tid of the triple before.
+     * @param rid - review ID, not smaller than the rid of the triple before if the tid is the same.
+     * @param frequency - frequency of the term in the review.
+     */
+    void accept(int tid, int rid, int frequency) throws IOException;
+}
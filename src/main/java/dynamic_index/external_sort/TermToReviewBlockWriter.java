@@ -5,30 +5,73 @@ import dynamic_index.global_tools.MiscTools;
 
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static dynamic_index.global_tools.MiscTools.createDirectory;
 import static dynamic_index.global_tools.MiscTools.estimateBestSizeOfWordsBlocks;
 
 public class TermToReviewBlockWriter {
 
-    public static final int BYTE_ARRAY_MAX_SIZE = 100000;
-    private final List<TermIdReviewIdPair> termIdReviewIdPairs;
+    private static final int WRITE_BUFFER_SIZE_IN_PAIRS = 1 << 16;
+
+    // the block being filled: pairs packed as (tid << 32 | rid) and the frequency of each, sorted in place when full
+    private long[] packedPairs;
+    private int[] frequencies;
+    private int numOfPairsInBlock = 0;
+    private final long[] radixSortScratch;
+    private final int[] frequenciesScratch;
+    private final ByteBuffer writeBuffer;
+
+    // while a full block is sorted and written in the background, the other one is filled
+    private final ExecutorService spillExecutor;
+    private long[] spilledPackedPairs;
+    private int[] spilledFrequencies;
+    private Future<?> spill = null;
+
     public final int BLOCK_SIZE_IN_INT_PAIRS;
-    public final int BLOCK_SIZE_IN_BYTES;
+    public final long BLOCK_SIZE_IN_BYTES;
 
     int numOfFilesCreated = 0;
-    private BufferedOutputStream currentFileBOF;
     File mergeFilesDirectory;
 
-    public TermToReviewBlockWriter(String indexDirectory, int numOfTokens) {
-        BLOCK_SIZE_IN_INT_PAIRS = estimateBestSizeOfWordsBlocks(numOfTokens, false);
-        BLOCK_SIZE_IN_BYTES = BLOCK_SIZE_IN_INT_PAIRS * MiscTools.PAIR_OF_INT_SIZE_IN_BYTES;
-        termIdReviewIdPairs = new ArrayList<>(BLOCK_SIZE_IN_INT_PAIRS);
+    public TermToReviewBlockWriter(String indexDirectory, long numOfTokens, long memoryBudgetInBytes) {
+        this(indexDirectory, numOfTokens, memoryBudgetInBytes, null);
+    }
+
+    /**
+     * @param indexDirectory - directory of the index, where the runs directory is created.
+     * @param numOfTokens - (estimated) number of tokens to add. A pair is added for each term of a review, so
+     *                    there are usually fewer pairs than tokens, and a block never needs more pairs than this.
+     * @param memoryBudgetInBytes - memory for the blocks, which sets their size when the input does not fit in it.
+     * @param spillExecutor - threads to sort and write full blocks on, while the next block is filled, or null
+     *                      to sort and write them on the adding thread. Takes more memory for the second block.
+     */
+    public TermToReviewBlockWriter(String indexDirectory, long numOfTokens, long memoryBudgetInBytes,
+                                   ExecutorService spillExecutor) {
+        BLOCK_SIZE_IN_INT_PAIRS = estimateBestSizeOfWordsBlocks(numOfTokens, memoryBudgetInBytes,
+                getBytesPerPairInMemory(spillExecutor != null));
+        BLOCK_SIZE_IN_BYTES = (long) BLOCK_SIZE_IN_INT_PAIRS * MiscTools.PAIR_OF_INT_SIZE_IN_BYTES;
+        this.spillExecutor = spillExecutor;
+        packedPairs = new long[BLOCK_SIZE_IN_INT_PAIRS];
+        frequencies = new int[BLOCK_SIZE_IN_INT_PAIRS];
+        spilledPackedPairs = spillExecutor == null ? null : new long[BLOCK_SIZE_IN_INT_PAIRS];
+        spilledFrequencies = spillExecutor == null ? null : new int[BLOCK_SIZE_IN_INT_PAIRS];
+        radixSortScratch = new long[BLOCK_SIZE_IN_INT_PAIRS];
+        frequenciesScratch = new int[BLOCK_SIZE_IN_INT_PAIRS];
+        writeBuffer = ByteBuffer.allocate(Math.max(RunCodec.MAX_ENCODED_BLOCK_SIZE_IN_BYTES,
+                Math.min(BLOCK_SIZE_IN_INT_PAIRS, WRITE_BUFFER_SIZE_IN_PAIRS) * MiscTools.PAIR_OF_INT_SIZE_IN_BYTES));
         createMergeFilesDirectory(indexDirectory);
-        createNewFile();
+    }
+
+    /*
+    A packed pair, its frequency and their scratch space for the radix sort, and another pair and frequency for
+    the block being filled while the full one is spilled.
+     */
+    private static int getBytesPerPairInMemory(boolean isSpillingInBackground) {
+        int bytesPerPair = 2 * (Long.BYTES + Integer.BYTES);
+        return isSpillingInBackground ? bytesPerPair + Long.BYTES + Integer.BYTES : bytesPerPair;
     }
 
     public File getMergeFilesDirectory() {
@@ -45,99 +88,97 @@ public class TermToReviewBlockWriter {
         this.mergeFilesDirectory = createDirectory(TEMP_FILE_STORE);
     }
 
-    private void createNewFile() {
+    private File createNewFile() {
         numOfFilesCreated++;
         String FILE_NAME_PATTERN = "sortedBlock";
         String BINARY_FILE_SUFFIX = ".bin";
-        String newFileName = mergeFilesDirectory.getPath() + File.separator
-                + FILE_NAME_PATTERN + numOfFilesCreated + BINARY_FILE_SUFFIX;
-        try {
-            currentFileBOF = new BufferedOutputStream(new FileOutputStream(newFileName), BLOCK_SIZE_IN_BYTES);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
+        return new File(mergeFilesDirectory.getPath() + File.separator
+                + FILE_NAME_PATTERN + numOfFilesCreated + BINARY_FILE_SUFFIX);
     }
 
     /**
-     * Adds pair of int values to the class inner List data members.
+     * Adds pair of int values to the block, with the number of times the term is in the review.
      * Calls Write block to file when reaching block size
      *
      * @param tid - term ID
      * @param rid - Review ID
+     * @param frequency - the frequency of the term in the review, all of it, as a pair is added once per review.
+     * @throws UncheckedIOException - if a full block, or the one spilled before it, could not be written. Pairs
+     *                              are added from the consumers of the input, so the failure is unchecked here.
      */
-    public void add(int tid, int rid) {
-        termIdReviewIdPairs.add(new TermIdReviewIdPair(tid, rid));
+    public void add(int tid, int rid, int frequency) {
+        packedPairs[numOfPairsInBlock] = PackedPairs.pack(tid, rid);
+        frequencies[numOfPairsInBlock++] = frequency;
         if (isEndOfBlock()) {
-            writeBlockToCurrentFile();
-            createNewFile();
+            try {
+                if (spillExecutor == null) {
+                    writeBlockToNewFile();
+                } else {
+                    spillBlockInBackground();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
     }
 
     private boolean isEndOfBlock() {
-        return termIdReviewIdPairs.size() == BLOCK_SIZE_IN_INT_PAIRS;
+        return numOfPairsInBlock == BLOCK_SIZE_IN_INT_PAIRS;
     }
 
-    private void writeBlockToCurrentFile() {
-        Collections.sort(termIdReviewIdPairs);
-        try {
-            do {
-                byte[] pairsAsBytes = toByteArray(this.termIdReviewIdPairs);
-                currentFileBOF.write(pairsAsBytes);
-            } while (!termIdReviewIdPairs.isEmpty()); // if the array is too big
-            currentFileBOF.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private void writeBlockToNewFile() throws IOException {
+        sortAndWrite(createNewFile(), packedPairs, frequencies, numOfPairsInBlock);
+        numOfPairsInBlock = 0;
     }
 
-    public void closeWriter() {
-        writeBlockToCurrentFile();
+    private void spillBlockInBackground() throws IOException {
+        waitForSpill(); // the other block is free again
+        long[] fullBlock = packedPairs;
+        packedPairs = spilledPackedPairs;
+        spilledPackedPairs = fullBlock;
+        int[] frequenciesOfFullBlock = frequencies;
+        frequencies = spilledFrequencies;
+        spilledFrequencies = frequenciesOfFullBlock;
+        File runFile = createNewFile();
+        int numOfPairsInFullBlock = numOfPairsInBlock;
+        spill = spillExecutor.submit(() -> {
+            sortAndWrite(runFile, fullBlock, frequenciesOfFullBlock, numOfPairsInFullBlock);
+            return null;
+        });
+        numOfPairsInBlock = 0;
     }
 
-    public static byte[] toByteArray(List<TermIdReviewIdPair> termIdReviewIdPairs) {
-        int numOfPairs = termIdReviewIdPairs.size();
-        byte[] listInBytes;
-        if (numOfPairs <= BYTE_ARRAY_MAX_SIZE) {
-            listInBytes = new byte[MiscTools.PAIR_OF_INT_SIZE_IN_BYTES * numOfPairs];
-            int writeToByteArrayOffset = 0;
-            for (TermIdReviewIdPair termIdReviewIdPair : termIdReviewIdPairs) {
-                insertPairToByteArray(listInBytes, writeToByteArrayOffset, termIdReviewIdPair);
-                writeToByteArrayOffset += MiscTools.PAIR_OF_INT_SIZE_IN_BYTES;
-            }
-            termIdReviewIdPairs.clear(); // for the while loop in the calling function
-        } else {
-            int batchSize = getBatchSize(termIdReviewIdPairs.size()); // in pairs
-            int listInBytesSize = MiscTools.PAIR_OF_INT_SIZE_IN_BYTES * batchSize;
-            listInBytes = new byte[listInBytesSize];
-            int writeToByteArrayOffset = 0;
-            for (TermIdReviewIdPair termIdReviewIdPair : termIdReviewIdPairs) {
-                if (writeToByteArrayOffset == listInBytesSize) {
-                    break;
-                }
-                insertPairToByteArray(listInBytes, writeToByteArrayOffset, termIdReviewIdPair);
-                writeToByteArrayOffset += MiscTools.PAIR_OF_INT_SIZE_IN_BYTES;
-            }
-            if (batchSize > 0) {
-                termIdReviewIdPairs.subList(0, batchSize).clear();
+    /*
+    The spill is forgotten only once it is done, so if it failed or the wait was interrupted, its block is never
+    filled again and every later wait fails as well.
+     */
+    private void waitForSpill() throws IOException {
+        if (spill != null) {
+            try {
+                spill.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a run to be written");
+            } catch (ExecutionException e) {
+                throw new IOException("Writing a run failed", e.getCause());
             }
+            spill = null;
         }
-        return listInBytes;
     }
 
-    private static int getBatchSize(int listSize) {
-        int splitFactor = 2;
-        while (listSize / splitFactor > BYTE_ARRAY_MAX_SIZE) {
-            splitFactor++;
-        }
-        return listSize / splitFactor;
+    private void sortAndWrite(File runFile, long[] block, int[] frequenciesOfBlock, int numOfPairs)
+            throws IOException {
+        PackedPairs.radixSort(block, frequenciesOfBlock, numOfPairs, radixSortScratch, frequenciesScratch);
+        RunCodec.writeRun(runFile, block, frequenciesOfBlock, numOfPairs, writeBuffer);
     }
 
-    private static void insertPairToByteArray(byte[] insertTo, int offset, TermIdReviewIdPair termIdReviewIdPair) {
-        final int INTEGER_SIZE = MiscTools.INTEGER_SIZE;
-        byte[] tidArray = ByteBuffer.allocate(4).putInt(termIdReviewIdPair.tid).array();
-        byte[] ridArray = ByteBuffer.allocate(4).putInt(termIdReviewIdPair.rid).array();
-        System.arraycopy(tidArray, 0, insertTo, offset, INTEGER_SIZE);
-        System.arraycopy(ridArray, 0, insertTo, offset + INTEGER_SIZE, INTEGER_SIZE);
+    /**
+     * Writes the last block, after the block spilled before it.
+     * @throws IOException - if a run could not be written, so the runs are missing pairs.
+     */
+    public void closeWriter() throws IOException {
+        waitForSpill();
+        writeBlockToNewFile(); // the last block, even if empty, so there is always a sorted file
     }
 
 }
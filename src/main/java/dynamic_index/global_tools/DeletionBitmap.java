@@ -0,0 +1,250 @@
+package dynamic_index.global_tools;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed bitmap of deleted review IDs, in the spirit of Roaring bitmaps: the rid space is cut into
+ * chunks of 2^16 rids by the 16 high bits of a rid, and each non-empty chunk holds a container of the
+ * 16 low bits. A sparse chunk is a sorted array of low bits and a dense chunk (more than
+ * ARRAY_CONTAINER_MAX_SIZE rids) is a plain bitmap of 2^16 bits.
+ *
+ * Since rids are non-negative and bounded by 2^30 (see LengthPrecodedVarintCodec), chunks are directly
+ * indexed by their high bits, so a probe is one array access and one container lookup.
+ *
+ * Every change increments the generation counter, so holders of data filtered by the bitmap can tell
+ * whether they are still up to date.
+ */
+public class DeletionBitmap {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int LOW_BITS_MASK = (1 << CHUNK_BITS) - 1;
+    private static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+    private static final int BITMAP_CONTAINER_SIZE_IN_LONGS = (1 << CHUNK_BITS) / Long.SIZE;
+
+    private Container[] containers = new Container[0];
+    private int cardinality = 0;
+    private long generation = 0;
+
+    /**
+     * Marks a rid as deleted.
+     * @param rid - review ID, non-negative.
+     * @return true if the rid was not already deleted.
+     */
+    public boolean add(int rid) {
+        int chunk = rid >>> CHUNK_BITS;
+        ensureChunkCapacity(chunk);
+        Container container = containers[chunk];
+        if (container == null) {
+            container = new ArrayContainer();
+            containers[chunk] = container;
+        }
+        boolean isAdded = container.add((char) (rid & LOW_BITS_MASK));
+        if (isAdded) {
+            if (container.shouldConvertToBitmap()) {
+                containers[chunk] = container.toBitmapContainer();
+            }
+            cardinality++;
+            generation++;
+        }
+        return isAdded;
+    }
+
+    /**
+     * Marks all given rids as deleted.
+     * @param rids - review IDs, non-negative.
+     */
+    public void addAll(Iterable<Integer> rids) {
+        for (int rid : rids) {
+            add(rid);
+        }
+    }
+
+    /**
+     * @param rid - review ID.
+     * @return true if the rid has been deleted.
+     */
+    public boolean contains(int rid) {
+        int chunk = rid >>> CHUNK_BITS;
+        if (chunk >= containers.length || containers[chunk] == null) {
+            return false;
+        }
+        return containers[chunk].contains((char) (rid & LOW_BITS_MASK));
+    }
+
+    /**
+     * @param minRid - lowest rid of the range, inclusive.
+     * @param maxRid - highest rid of the range, inclusive.
+     * @return a new bitmap with only the deleted rids in the given range.
+     */
+    public DeletionBitmap copyOfRange(int minRid, int maxRid) {
+        DeletionBitmap rangeCopy = new DeletionBitmap();
+        forEach(rid -> {
+            if (rid >= minRid && rid <= maxRid) {
+                rangeCopy.add(rid);
+            }
+        });
+        return rangeCopy;
+    }
+
+    /**
+     * Calls the action on every deleted rid, in ascending order.
+     * @param action - called with each rid.
+     */
+    public void forEach(IntConsumer action) {
+        for (int chunk = 0; chunk < containers.length; chunk++) {
+            if (containers[chunk] != null) {
+                containers[chunk].forEach(chunk << CHUNK_BITS, action);
+            }
+        }
+    }
+
+    /**
+     * @return all deleted rids, in ascending order.
+     */
+    public int[] toSortedArray() {
+        int[] rids = new int[cardinality];
+        int[] numOfRidsCopied = {0};
+        forEach(rid -> rids[numOfRidsCopied[0]++] = rid);
+        return rids;
+    }
+
+    /**
+     * Removes all rids from the bitmap.
+     */
+    public void clear() {
+        if (cardinality > 0) {
+            containers = new Container[0];
+            cardinality = 0;
+            generation++;
+        }
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * @return number of deleted rids.
+     */
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @return a counter that changes whenever the set of deleted rids changes.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    private void ensureChunkCapacity(int chunk) {
+        if (chunk >= containers.length) {
+            containers = Arrays.copyOf(containers, Math.max(chunk + 1, containers.length * 2));
+        }
+    }
+
+    //=========================  Containers  =====================================//
+
+    private interface Container {
+
+        boolean add(char lowBits);
+
+        boolean contains(char lowBits);
+
+        boolean shouldConvertToBitmap();
+
+        Container toBitmapContainer();
+
+        void forEach(int highBits, IntConsumer action);
+    }
+
+    private static class ArrayContainer implements Container {
+
+        private char[] values = new char[4];
+        private int size = 0;
+
+        @Override
+        public boolean add(char lowBits) {
+            int position = Arrays.binarySearch(values, 0, size, lowBits);
+            if (position >= 0) {
+                return false;
+            }
+            int insertAt = -(position + 1);
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            System.arraycopy(values, insertAt, values, insertAt + 1, size - insertAt);
+            values[insertAt] = lowBits;
+            size++;
+            return true;
+        }
+
+        @Override
+        public boolean contains(char lowBits) {
+            return Arrays.binarySearch(values, 0, size, lowBits) >= 0;
+        }
+
+        @Override
+        public boolean shouldConvertToBitmap() {
+            return size > ARRAY_CONTAINER_MAX_SIZE;
+        }
+
+        @Override
+        public Container toBitmapContainer() {
+            BitmapContainer bitmapContainer = new BitmapContainer();
+            for (int i = 0; i < size; i++) {
+                bitmapContainer.add(values[i]);
+            }
+            return bitmapContainer;
+        }
+
+        @Override
+        public void forEach(int highBits, IntConsumer action) {
+            for (int i = 0; i < size; i++) {
+                action.accept(highBits | values[i]);
+            }
+        }
+    }
+
+    private static class BitmapContainer implements Container {
+
+        private final long[] words = new long[BITMAP_CONTAINER_SIZE_IN_LONGS];
+
+        @Override
+        public boolean add(char lowBits) {
+            int wordIndex = lowBits >>> 6;
+            long mask = 1L << lowBits;
+            boolean isNew = (words[wordIndex] & mask) == 0;
+            words[wordIndex] |= mask;
+            return isNew;
+        }
+
+        @Override
+        public boolean contains(char lowBits) {
+            return (words[lowBits >>> 6] & (1L << lowBits)) != 0;
+        }
+
+        @Override
+        public boolean shouldConvertToBitmap() {
+            return false;
+        }
+
+        @Override
+        public Container toBitmapContainer() {
+            return this;
+        }
+
+        @Override
+        public void forEach(int highBits, IntConsumer action) {
+            for (int wordIndex = 0; wordIndex < words.length; wordIndex++) {
+                long word = words[wordIndex];
+                while (word != 0) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    action.accept(highBits | (wordIndex << 6) | bit);
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package dynamic_index.global_tools;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a gzip-compressed file as a channel of its decompressed bytes. A dedicated thread decompresses ahead of
+ * the reading into a ring of buffers, so decompressing and parsing the input overlap, and nothing decompressed
+ * is written to disk.
+ */
+public class GzipInputChannel implements ReadableByteChannel {
+
+    private static final ByteBuffer END_OF_INPUT = ByteBuffer.allocate(0);
+
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final BlockingQueue<ByteBuffer> filledBuffers;
+    private final Thread decompressingThread;
+    private volatile IOException decompressingException = null;
+    private ByteBuffer currentBuffer = null;
+    private boolean isOpen = true;
+
+    /**
+     * @param gzipFile - path of the compressed file.
+     * @param numOfBuffers - number of buffers in the ring, at least 2.
+     * @param bufferSizeInBytes - size of each buffer.
+     */
+    public GzipInputChannel(String gzipFile, int numOfBuffers, int bufferSizeInBytes) throws IOException {
+        assert numOfBuffers >= 2;
+        InputStream gzipInputStream = new GZIPInputStream(new BufferedInputStream(new FileInputStream(gzipFile)),
+                bufferSizeInBytes);
+        freeBuffers = new ArrayBlockingQueue<>(numOfBuffers);
+        filledBuffers = new ArrayBlockingQueue<>(numOfBuffers + 1); // and the end
+        for (int i = 0; i < numOfBuffers; i++) {
+            freeBuffers.add(ByteBuffer.allocate(bufferSizeInBytes));
+        }
+        decompressingThread = new Thread(() -> decompress(gzipInputStream), "gzip-decompressor");
+        decompressingThread.setDaemon(true);
+        decompressingThread.start();
+    }
+
+    /*
+    Runs on the decompressing thread, filling every free buffer completely unless the input ended.
+     */
+    private void decompress(InputStream gzipInputStream) {
+        try (InputStream inputStream = gzipInputStream) {
+            int numOfBytesRead = 0;
+            while (numOfBytesRead != -1) {
+                ByteBuffer buffer = freeBuffers.take();
+                buffer.clear();
+                while (buffer.hasRemaining()
+                        && (numOfBytesRead = inputStream.read(buffer.array(), buffer.position(), buffer.remaining())) != -1) {
+                    buffer.position(buffer.position() + numOfBytesRead);
+                }
+                buffer.flip();
+                filledBuffers.put(buffer);
+            }
+        } catch (IOException e) {
+            decompressingException = e;
+        } catch (InterruptedException e) {
+            return; // the channel was closed
+        }
+        filledBuffers.add(END_OF_INPUT); // there is always room for it
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+        if (!isOpen) {
+            throw new ClosedChannelException();
+        }
+        while (currentBuffer == null || !currentBuffer.hasRemaining()) {
+            if (currentBuffer == END_OF_INPUT) {
+                if (decompressingException != null) {
+                    throw decompressingException;
+                }
+                return -1;
+            }
+            if (currentBuffer != null) {
+                freeBuffers.add(currentBuffer);
+            }
+            try {
+                currentBuffer = filledBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decompressing", e);
+            }
+        }
+        int numOfBytesToCopy = Math.min(destination.remaining(), currentBuffer.remaining());
+        ByteBuffer bytesToCopy = currentBuffer.duplicate();
+        bytesToCopy.limit(bytesToCopy.position() + numOfBytesToCopy);
+        destination.put(bytesToCopy);
+        currentBuffer.position(currentBuffer.position() + numOfBytesToCopy);
+        return numOfBytesToCopy;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isOpen;
+    }
+
+    @Override
+    public void close() {
+        isOpen = false;
+        decompressingThread.interrupt(); // stops it if it waits for a free buffer
+    }
+}
@@ -6,88 +6,76 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.*;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Handles index invalidating file and filtering.
+ * Handles index invalidating file and filtering. The deletions in memory are kept in the state of each index.
  */
 public class IndexInvalidationTool {
 
-    private static boolean invalidationDirty = false;
-
 
     //=========================  invalidation method  =====================================//
 
-    /**
-     * Whether there has been writing of rids to delete in the invalidation file.
-     * This performance a little - not reading a file when it's empty.
-     * @return - true, if there are rids written in the invalidation file, false otherwise.
-     */
-    public static boolean isInvalidationDirty() {
-        return invalidationDirty;
-    }
-
-    /**
-     * When there are rids that have been added to the invalidation file should be set to true.
-     * When there has been a merging of ALL index files, should be set to false.
-     * @param setTo - boolean value according to above.
-     */
-    public static void setInvalidationDirty(boolean setTo) {
-        invalidationDirty = setTo;
-    }
-
-
     /**
      * Add an array of rids to the invalidation file, which makes those reviews now considered deleted from
      * the index. The rids are encoded with Length-Precoded Varint (no gaps so no need for order).
-     * @param allIndexDirectory - the directory where all the index directories and files are.
+     * @param indexState - state of the index, whose directory holds the invalidation file.
      * @param ridsToDelete - rids that would be written to the invalidation file.
      */
-    public static void addToInvalidationFile(String allIndexDirectory, List<Integer> ridsToDelete) {
-        // encoding, appending
-        try {
-            File invalidationFile= getInvalidationFile(allIndexDirectory);
-            BufferedOutputStream invalidationBOS = new BufferedOutputStream(new FileOutputStream(invalidationFile, true));
-            for (int rid : ridsToDelete) {
-                byte[] varintedRid = LengthPrecodedVarintCodec.intToCompressedByteArray(rid);
-                invalidationBOS.write(varintedRid);
+    public static void addToInvalidationFile(IndexState indexState, List<Integer> ridsToDelete) {
+        synchronized (indexState) {
+            // encoding, appending
+            try {
+                File invalidationFile = getInvalidationFile(indexState.getAllIndexesDirectory());
+                DeletionBitmap deletionBitmap = getInvalidationBitmap(indexState); // loads before appending
+                BufferedOutputStream invalidationBOS = new BufferedOutputStream(new FileOutputStream(invalidationFile, true));
+                for (int rid : ridsToDelete) {
+                    byte[] varintedRid = LengthPrecodedVarintCodec.intToCompressedByteArray(rid);
+                    invalidationBOS.write(varintedRid);
+                }
+                invalidationBOS.close();
+                deletionBitmap.addAll(ridsToDelete);
+                indexState.setInvalidationDirty(true);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-            setInvalidationDirty(true);
-            invalidationBOS.close();
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
     /**
      * Clears the invalidation file from data, if it exists.
-     * @param allIndexesDirectory - the directory where all the index directories and files are.
+     * When there has been a merging of ALL index files, should be called.
+     * @param indexState - state of the index, whose directory holds the invalidation file.
      */
-    public static void emptyInvalidationFile(String allIndexesDirectory){
-        try {
-            Path invalidationFilePath = getInvalidationFile(allIndexesDirectory).toPath();
-            if(Files.exists(invalidationFilePath)){
-                Files.delete(invalidationFilePath);
-                Files.createFile(invalidationFilePath);
-                setInvalidationDirty(false);
+    public static void emptyInvalidationFile(IndexState indexState){
+        synchronized (indexState) {
+            try {
+                Path invalidationFilePath = getInvalidationFile(indexState.getAllIndexesDirectory()).toPath();
+                if (Files.exists(invalidationFilePath)) {
+                    Files.delete(invalidationFilePath);
+                    Files.createFile(invalidationFilePath);
+                    getInvalidationBitmap(indexState).clear();
+                    indexState.setInvalidationDirty(false);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
     /**
-     * Filters rids from unfilteredResults by the rids in the invalidation file found in allIndexesDirectories.
-     * @param allIndexesDirectory - the directory where all the index directories and files are.
+     * Filters rids from unfilteredResults by the rids in the invalidation file of the index.
+     * @param indexState - state of the index, whose directory holds the invalidation file.
      * @param unfilteredResults - rids to frequency, to filter out the entries with deleted rids.
      */
-    public static void filterResults(String allIndexesDirectory, Map<Integer, Integer> unfilteredResults) {
-        Set<Integer> invalidationSet = getInvalidationSet(allIndexesDirectory);
-        for (Iterator<Map.Entry<Integer, Integer>> it = unfilteredResults.entrySet().iterator(); it.hasNext(); ) {
-            Map.Entry<Integer, Integer> entry = it.next();
-            int rid = entry.getKey();
-            if (invalidationSet.contains(rid))
-                it.remove();
+    public static void filterResults(IndexState indexState, Map<Integer, Integer> unfilteredResults) {
+        synchronized (indexState) {
+            if (!indexState.isInvalidationDirty()) {
+                return;
+            }
+            DeletionBitmap deletionBitmap = getInvalidationBitmap(indexState);
+            unfilteredResults.keySet().removeIf(deletionBitmap::contains);
         }
     }
 
@@ -97,24 +85,33 @@ public class IndexInvalidationTool {
     }
 
     /**
-     * Returns all rids that has been deleted (invalidated)
-     * @param allIndexDirectory - the directory where all the index directories and files are.
-     * @return - a set of all rids that has been deleted (invalidated)
+     * Returns all rids that has been deleted (invalidated). The invalidation file is decoded only the first time
+     * this is called for an index, afterwards the bitmap is updated along with the file.
+     * Should be used while holding the lock of the index state.
+     * @param indexState - state of the index, whose directory holds the invalidation file.
+     * @return - a bitmap of all rids that has been deleted (invalidated)
      */
-    public static Set<Integer> getInvalidationSet(String allIndexDirectory) {
-        if(!invalidationDirty){
-            return new HashSet<>();
+    public static DeletionBitmap getInvalidationBitmap(IndexState indexState) {
+        synchronized (indexState) {
+            if (indexState.getInvalidationBitmap() == null) {
+                indexState.setInvalidationBitmap(loadInvalidationBitmap(indexState.getAllIndexesDirectory()));
+            }
+            return indexState.getInvalidationBitmap();
         }
-        Set<Integer> orderedSetOfRids = new HashSet<>();
-        try {
-            File invalidationFile = getInvalidationFile(allIndexDirectory);
-            byte[] rids = Files.readAllBytes(invalidationFile.toPath());
-            List<Integer> integerList = LengthPrecodedVarintCodec.decodeBytesToIntegers(rids);
-            orderedSetOfRids.addAll(integerList);
-        } catch (IOException e) {
-            e.printStackTrace();
+    }
+
+    private static DeletionBitmap loadInvalidationBitmap(String allIndexDirectory) {
+        DeletionBitmap deletionBitmap = new DeletionBitmap();
+        File invalidationFile = getInvalidationFile(allIndexDirectory);
+        if (invalidationFile.exists()) {
+            try {
+                byte[] rids = Files.readAllBytes(invalidationFile.toPath());
+                deletionBitmap.addAll(LengthPrecodedVarintCodec.decodeBytesToIntegers(rids));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
-        return orderedSetOfRids;
+        return deletionBitmap;
     }
 
 }
@@ -0,0 +1,302 @@
+package dynamic_index.global_tools;
+
+import dynamic_index.index_structure.SegmentInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resources shared by all indexes of the JVM: the state of each index, a thread pool, a cache of index files
+ * and a memory budget. Hosting many indexes in one JVM then costs one set of threads and one bounded cache,
+ * instead of one per index.
+ *
+ * Writers and readers use the shared manager, unless they are given another one.
+ */
+public class IndexResourceManager {
+
+    private static final double DEFAULT_MEMORY_BUDGET_FRACTION_OF_HEAP = 0.25;
+    private static final int CACHE_FRACTION_OF_MEMORY_BUDGET = 2; // the cache takes at most half the budget
+    private static final int MIN_FRACTION_OF_BUILD_MEMORY = 4; // a build waits for at least a quarter of its bytes
+
+    private static final IndexResourceManager SHARED_RESOURCE_MANAGER = new IndexResourceManager(
+            Runtime.getRuntime().availableProcessors(),
+            getMemoryBudgetOfHeap(DEFAULT_MEMORY_BUDGET_FRACTION_OF_HEAP));
+
+    private final Map<String, IndexState> directoryToIndexState = new ConcurrentHashMap<>();
+
+    // thread pool
+    private final int numOfThreads;
+    private ExecutorService executorService = null;
+
+    // memory budget
+    private final long memoryBudget;
+    private long memoryInUse = 0;
+
+    // index files cache, least recently used first
+    private final LinkedHashMap<String, CachedIndexFile> pathToCachedIndexFile =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxCacheSize;
+    private long cacheSize = 0;
+
+    /**
+     * Creates a manager for indexes that should not share resources with the rest of the JVM.
+     * @param numOfThreads - number of threads in the thread pool.
+     * @param memoryBudget - bytes that all users of this manager may hold together, index files cache included.
+     */
+    public IndexResourceManager(int numOfThreads, long memoryBudget) {
+        assert numOfThreads > 0 && memoryBudget > 0;
+        this.numOfThreads = numOfThreads;
+        this.memoryBudget = memoryBudget;
+        this.maxCacheSize = memoryBudget / CACHE_FRACTION_OF_MEMORY_BUDGET;
+    }
+
+    /**
+     * @return the manager shared by all indexes that were not given a manager.
+     */
+    public static IndexResourceManager getShared() {
+        return SHARED_RESOURCE_MANAGER;
+    }
+
+    //=========================  Index state  =====================================//
+
+    /**
+     * @param allIndexesDirectory - the directory where all the index directories and files are.
+     * @return the state of this index, loaded from its files if it was not used yet.
+     */
+    public IndexState getIndexState(String allIndexesDirectory) {
+        String absoluteDirectory = new File(allIndexesDirectory).getAbsolutePath();
+        return directoryToIndexState.computeIfAbsent(absoluteDirectory, IndexState::loadFromDirectory);
+    }
+
+    /**
+     * Starts a new state for an index, when a writer starts writing it: nothing is considered deleted
+     * until the writer deletes.
+     * @param allIndexesDirectory - the directory where all the index directories and files are.
+     * @return the new state of this index.
+     */
+    public IndexState resetIndexState(String allIndexesDirectory) {
+        String absoluteDirectory = new File(allIndexesDirectory).getAbsolutePath();
+        IndexState indexState = new IndexState(absoluteDirectory, false);
+        directoryToIndexState.put(absoluteDirectory, indexState);
+        return indexState;
+    }
+
+    /**
+     * Forgets the state of an index that no reader or writer uses anymore, e.g. of a staged index once it was
+     * published under another directory or removed, so the manager does not keep one state for each of them.
+     * @param allIndexesDirectory - the directory where all the index directories and files are.
+     */
+    public void releaseIndexState(String allIndexesDirectory) {
+        directoryToIndexState.remove(new File(allIndexesDirectory).getAbsolutePath());
+    }
+
+    //=========================  Thread pool  =====================================//
+
+    /**
+     * @return the thread pool of this manager. Its threads do not keep the JVM alive.
+     */
+    public synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            AtomicInteger threadCounter = new AtomicInteger(0);
+            executorService = Executors.newFixedThreadPool(numOfThreads, runnable -> {
+                Thread thread = new Thread(runnable, "index-worker-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executorService;
+    }
+
+    public int getNumOfThreads() {
+        return numOfThreads;
+    }
+
+    /**
+     * Stops the thread pool, after the tasks already given to it. A later call to getExecutorService()
+     * starts a new pool.
+     */
+    public synchronized void shutdown() {
+        if (executorService != null) {
+            executorService.shutdown();
+            executorService = null;
+        }
+    }
+
+    //=========================  Memory budget  =====================================//
+
+    /**
+     * Takes bytes from the memory budget, if there are enough left.
+     * @param numOfBytes - bytes to take.
+     * @return true if the bytes were taken, and should be released later with releaseMemory().
+     */
+    public synchronized boolean tryAcquireMemory(long numOfBytes) {
+        if (memoryInUse + numOfBytes > memoryBudget) {
+            return false;
+        }
+        memoryInUse += numOfBytes;
+        return true;
+    }
+
+    /**
+     * Takes bytes from the memory budget for the buffers of a build, so that the builds of all indexes of this
+     * manager, and its cache, never take more than the budget together. A build takes what is left, up to the bytes
+     * it asks for, and waits for other builds to release theirs while less than a part of them is left.
+     * @param numOfBytes - bytes the build would take, at most the build memory budget is taken.
+     * @return bytes taken, more than zero, which should be released later with releaseMemory().
+     * @throws InterruptedIOException - if interrupted while waiting for other builds.
+     */
+    public synchronized long acquireBuildMemory(long numOfBytes) throws InterruptedIOException {
+        assert numOfBytes > 0;
+        long maxNumOfBytes = Math.min(numOfBytes, getBuildMemoryBudget());
+        long minNumOfBytes = Math.max(1, maxNumOfBytes / MIN_FRACTION_OF_BUILD_MEMORY);
+        while (getAvailableMemory() < minNumOfBytes) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for build memory");
+            }
+        }
+        long numOfBytesTaken = Math.min(maxNumOfBytes, getAvailableMemory());
+        memoryInUse += numOfBytesTaken;
+        return numOfBytesTaken;
+    }
+
+    /**
+     * Gives back bytes that were taken with tryAcquireMemory() or acquireBuildMemory().
+     * @param numOfBytes - bytes to give back.
+     */
+    public synchronized void releaseMemory(long numOfBytes) {
+        memoryInUse -= numOfBytes;
+        assert memoryInUse >= 0;
+        notifyAll(); // builds waiting for memory
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return bytes a single build may take for its buffers: the part of the budget that the cache never takes.
+     * Concurrent builds share it through acquireBuildMemory().
+     */
+    public long getBuildMemoryBudget() {
+        return memoryBudget - maxCacheSize;
+    }
+
+    /**
+     * @param fractionOfHeap - part of the maximal heap of the JVM, between 0 and 1.
+     * @return a memory budget of that part of the heap, e.g. for the constructor.
+     */
+    public static long getMemoryBudgetOfHeap(double fractionOfHeap) {
+        assert fractionOfHeap > 0 && fractionOfHeap <= 1;
+        return (long) (Runtime.getRuntime().maxMemory() * fractionOfHeap);
+    }
+
+    public synchronized long getAvailableMemory() {
+        return memoryBudget - memoryInUse;
+    }
+
+    //=========================  Index files cache  =====================================//
+
+    /**
+     * Reads a whole file of a segment, e.g. its dictionary, through the cache: as long as the segment is the
+     * same (by its id), the file is read from disk once for all readers of all indexes.
+     * The returned bytes are shared and should not be changed.
+     * @param indexFile - a file of the segment.
+     * @param segmentInfo - data of the segment the file belongs to. If null, the file is not cached.
+     * @return all bytes of the file.
+     */
+    public byte[] readIndexFile(File indexFile, SegmentInfo segmentInfo) throws IOException {
+        if (segmentInfo == null) {
+            return Files.readAllBytes(indexFile.toPath());
+        }
+        String indexFilePath = indexFile.getAbsolutePath();
+        synchronized (this) {
+            CachedIndexFile cachedIndexFile = pathToCachedIndexFile.get(indexFilePath);
+            if (cachedIndexFile != null && cachedIndexFile.segmentId == segmentInfo.getSegmentId()) {
+                return cachedIndexFile.bytes;
+            }
+        }
+        byte[] indexFileBytes = Files.readAllBytes(indexFile.toPath());
+        cacheIndexFile(indexFilePath, new CachedIndexFile(segmentInfo.getSegmentId(), indexFileBytes));
+        return indexFileBytes;
+    }
+
+    /**
+     * Drops the cached files of a segment directory whose segment is removed or rewritten, so they do not hold
+     * the budget until they are evicted as least recently used.
+     * @param segmentDirectory - directory of the segment.
+     */
+    public synchronized void evictSegmentFiles(File segmentDirectory) {
+        File absoluteSegmentDirectory = segmentDirectory.getAbsoluteFile();
+        Iterator<Map.Entry<String, CachedIndexFile>> cachedIndexFiles = pathToCachedIndexFile.entrySet().iterator();
+        while (cachedIndexFiles.hasNext()) {
+            Map.Entry<String, CachedIndexFile> cachedIndexFile = cachedIndexFiles.next();
+            if (absoluteSegmentDirectory.equals(new File(cachedIndexFile.getKey()).getParentFile())) {
+                long evictedSize = cachedIndexFile.getValue().bytes.length;
+                cachedIndexFiles.remove();
+                cacheSize -= evictedSize;
+                releaseMemory(evictedSize);
+            }
+        }
+    }
+
+    private synchronized void cacheIndexFile(String indexFilePath, CachedIndexFile cachedIndexFile) {
+        removeFromCache(indexFilePath); // an older version of the file, if any
+        long fileSize = cachedIndexFile.bytes.length;
+        if (fileSize > maxCacheSize) {
+            return;
+        }
+        Iterator<CachedIndexFile> leastRecentlyUsed = pathToCachedIndexFile.values().iterator();
+        while (cacheSize + fileSize > maxCacheSize) {
+            evictNext(leastRecentlyUsed);
+        }
+        while (!tryAcquireMemory(fileSize)) {
+            if (!leastRecentlyUsed.hasNext()) {
+                return; // the rest of the budget is held by others
+            }
+            evictNext(leastRecentlyUsed);
+        }
+        pathToCachedIndexFile.put(indexFilePath, cachedIndexFile);
+        cacheSize += fileSize;
+    }
+
+    private void evictNext(Iterator<CachedIndexFile> leastRecentlyUsed) {
+        long evictedSize = leastRecentlyUsed.next().bytes.length;
+        leastRecentlyUsed.remove();
+        cacheSize -= evictedSize;
+        releaseMemory(evictedSize);
+    }
+
+    private void removeFromCache(String indexFilePath) {
+        CachedIndexFile removed = pathToCachedIndexFile.remove(indexFilePath);
+        if (removed != null) {
+            cacheSize -= removed.bytes.length;
+            releaseMemory(removed.bytes.length);
+        }
+    }
+
+    /**
+     * Bytes of a cached file, together with the segment they were read from.
+     */
+    private static class CachedIndexFile {
+
+        final long segmentId;
+        final byte[] bytes;
+
+        CachedIndexFile(long segmentId, byte[] bytes) {
+            this.segmentId = segmentId;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package dynamic_index.global_tools;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The in-memory state of a single index (one directory of all index directories and files): its deletions
+ * and caches of its files. Each index has its own state, kept by the IndexResourceManager, so any number of
+ * indexes can live in the same JVM without touching each other's state.
+ *
+ * Changes to a state are made while holding the state's lock, by the tools that handle it.
+ */
+public class IndexState {
+
+    private final String allIndexesDirectory;
+
+    // whether there are rids in the invalidation file
+    private boolean invalidationDirty;
+
+    // deletions of the invalidation file, loaded once and then kept up to date with it
+    private DeletionBitmap invalidationBitmap = null;
+
+    // latest loaded version of each segment's deletions, by segment directory
+    private final Map<String, LiveDocsTool.SegmentDeletions> segmentPathToDeletions = new HashMap<>();
+
+    // changes that should be seen all at once (e.g. an update) are made under the write lock,
+    // and readers take the read lock for a consistent view of the segments and deletions
+    private final ReentrantReadWriteLock visibilityLock = new ReentrantReadWriteLock();
+    private volatile long segmentsGeneration = 0; // changes whenever segments or meta data are added for open readers
+
+    /**
+     * @param allIndexesDirectory - absolute path of the directory where all the index directories and files are.
+     * @param invalidationDirty - whether the invalidation file already has rids in it.
+     */
+    IndexState(String allIndexesDirectory, boolean invalidationDirty) {
+        this.allIndexesDirectory = allIndexesDirectory;
+        this.invalidationDirty = invalidationDirty;
+    }
+
+    /**
+     * @param allIndexesDirectory - the directory where all the index directories and files are.
+     * @return the state of an index that was not used yet in this JVM, according to its files.
+     */
+    static IndexState loadFromDirectory(String allIndexesDirectory) {
+        File invalidationFile = new File(allIndexesDirectory + File.separator + MiscTools.INVALIDATION_FILENAME);
+        return new IndexState(allIndexesDirectory, invalidationFile.length() > 0);
+    }
+
+    public String getAllIndexesDirectory() {
+        return allIndexesDirectory;
+    }
+
+    /**
+     * Whether there has been writing of rids to delete in the invalidation file.
+     * @return - true, if there are rids written in the invalidation file, false otherwise.
+     */
+    public synchronized boolean isInvalidationDirty() {
+        return invalidationDirty;
+    }
+
+    synchronized void setInvalidationDirty(boolean setTo) {
+        invalidationDirty = setTo;
+    }
+
+    DeletionBitmap getInvalidationBitmap() {
+        return invalidationBitmap;
+    }
+
+    void setInvalidationBitmap(DeletionBitmap invalidationBitmap) {
+        this.invalidationBitmap = invalidationBitmap;
+    }
+
+    public ReentrantReadWriteLock getVisibilityLock() {
+        return visibilityLock;
+    }
+
+    /**
+     * @return a counter that changes whenever segments or review meta data are published to readers that are
+     * already open.
+     */
+    public long getSegmentsGeneration() {
+        return segmentsGeneration;
+    }
+
+    /**
+     * Tells open readers that the segments or the review meta data have changed, should be called under the
+     * write lock.
+     */
+    public void incrementSegmentsGeneration() {
+        assert visibilityLock.isWriteLockedByCurrentThread();
+        segmentsGeneration++;
+    }
+
+    Map<String, LiveDocsTool.SegmentDeletions> getSegmentPathToDeletions() {
+        return segmentPathToDeletions;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexState{" +
+                "allIndexesDirectory='" + allIndexesDirectory + '\'' +
+                ", invalidationDirty=" + invalidationDirty +
+                '}';
+    }
+}
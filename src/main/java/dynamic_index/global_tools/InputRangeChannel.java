@@ -0,0 +1,59 @@
+package dynamic_index.global_tools;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads a range of bytes of an uncompressed file as a channel of its own, so that a part of an input file can be
+ * parsed as if it were the whole input, without copying it to a file of its own.
+ */
+class InputRangeChannel implements ReadableByteChannel {
+
+    private final FileChannel fileChannel;
+    private long numOfBytesLeft;
+
+    /**
+     * @param inputFile - path of the file.
+     * @param firstByte - offset of the first byte of the range.
+     * @param endByte - offset after the last byte of the range, at most the size of the file.
+     */
+    InputRangeChannel(String inputFile, long firstByte, long endByte) throws IOException {
+        assert firstByte <= endByte;
+        this.fileChannel = new FileInputStream(inputFile).getChannel();
+        this.fileChannel.position(firstByte);
+        this.numOfBytesLeft = endByte - firstByte;
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+        if (numOfBytesLeft == 0) {
+            return -1;
+        }
+        int limit = destination.limit();
+        if (destination.remaining() > numOfBytesLeft) {
+            destination.limit(destination.position() + (int) numOfBytesLeft);
+        }
+        try {
+            int numOfBytesRead = fileChannel.read(destination);
+            if (numOfBytesRead > 0) {
+                numOfBytesLeft -= numOfBytesRead;
+            }
+            return numOfBytesRead;
+        } finally {
+            destination.limit(limit);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return fileChannel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+}
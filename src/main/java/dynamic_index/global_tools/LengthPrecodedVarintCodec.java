@@ -19,6 +19,7 @@ public class LengthPrecodedVarintCodec {
             {63, 16383, 4194303, 1073741823};// 2^6-1, 2^14-1, 2^22-1, 2^30-1
     private static final int[] BITWISE_OR_OPERAND_TO_ENCODE_LENGTH_PRECODED_VARINT =
             {0, 16384, 8388608, -1073741824}; // 00|zeros, 2^14, 2^23, 2^31+2^30
+    public static final int MAX_COMPRESSED_INT_SIZE = Integer.BYTES;
 
     /**
      * Given an integer in the range [0...2^30-1], returns the length-precoded byte array of the integer.
@@ -45,6 +46,32 @@ public class LengthPrecodedVarintCodec {
         return ret;
     }
 
+    /**
+     * Encodes an integer as intToCompressedByteArray does, into a given array instead of a new one.
+     * @param value - an integer value in the range [0...2^30-1].
+     * @param destination - array to write the encoded bytes to, with at least MAX_COMPRESSED_INT_SIZE bytes
+     *                    from the offset.
+     * @param offset - index of the first byte to write.
+     * @return the number of bytes written.
+     */
+    public static int putCompressedInt(int value, byte[] destination, int offset) {
+        int numberOfBytes = 0;
+        while (numberOfBytes < LENGTH_PRECODED_MAXIMA.length && value > LENGTH_PRECODED_MAXIMA[numberOfBytes]) {
+            numberOfBytes++;
+        }
+        if (numberOfBytes == LENGTH_PRECODED_MAXIMA.length) {
+            System.err.println("Value too large to be represented in Length Precoded Varint");
+            System.exit(8);
+        }
+        int encoded = value | BITWISE_OR_OPERAND_TO_ENCODE_LENGTH_PRECODED_VARINT[numberOfBytes];
+        numberOfBytes++;
+        for (int i = numberOfBytes - 1; i >= 0; i--) { // big-endian, as the arrays above
+            destination[offset + i] = (byte) encoded;
+            encoded >>>= Byte.SIZE;
+        }
+        return numberOfBytes;
+    }
+
     private static byte[] toLengthPrecodedVarint(int input, int numberOfBytes) {
         byte[] resultLenPrecodeVarint;
         if (numberOfBytes == 1) {
@@ -0,0 +1,249 @@
+package dynamic_index.global_tools;
+
+import dynamic_index.index_structure.SegmentInfo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Handles the live-docs files of segments. The live docs of a segment are its rid range minus the rids
+ * deleted in this range, so the file of a segment holds only these deleted rids, encoded as gaps with
+ * Length-Precoded Varint.
+ *
+ * Live-docs files are never changed: a deletion that touches a segment writes a new version of the
+ * segment's file and removes the previous one. A segment without a live-docs file has no deletions at
+ * all, and is read without any filtering. The loaded versions are kept in the state of the index.
+ */
+public class LiveDocsTool {
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    /**
+     * Adds rids to the live-docs files of all segments whose rid range they are in.
+     * @param indexState - state of the index, whose directory holds all the index directories and files.
+     * @param ridsToDelete - rids to delete, not necessarily in any segment.
+     */
+    public static void addToLiveDocs(IndexState indexState, List<Integer> ridsToDelete) {
+        synchronized (indexState) {
+            for (File segmentDirectory : getSegmentDirectories(indexState.getAllIndexesDirectory())) {
+                SegmentInfo segmentInfo = SegmentInfo.read(segmentDirectory);
+                if (segmentInfo != null) {
+                    addToSegmentLiveDocs(indexState, segmentDirectory, segmentInfo, ridsToDelete);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the live-docs file of a newly written segment, with the deletions of the invalidation file
+     * already made in its rid range.
+     * Should not be called for a merged segment, whose sources' deletions were applied while merging.
+     * @param indexState - state of the index the segment belongs to.
+     * @param segmentDirectory - directory of the new segment.
+     */
+    public static void seedLiveDocs(IndexState indexState, File segmentDirectory) {
+        synchronized (indexState) {
+            SegmentInfo segmentInfo = SegmentInfo.read(segmentDirectory);
+            if (indexState.isInvalidationDirty() && segmentInfo != null && !segmentInfo.isEmpty()) {
+                List<Integer> ridsInSegment = new ArrayList<>();
+                IndexInvalidationTool.getInvalidationBitmap(indexState).forEach(rid -> {
+                    if (segmentInfo.containsRid(rid)) {
+                        ridsInSegment.add(rid);
+                    }
+                });
+                addToSegmentLiveDocs(indexState, segmentDirectory, segmentInfo, ridsInSegment);
+            }
+        }
+    }
+
+    /**
+     * Returns the deletions of a single segment. The live-docs file is read only when the segment is first
+     * asked for, later versions are kept as they are written.
+     * A segment written before segments had data and live-docs files has no rid range, so all the rids of the
+     * invalidation file are its deletions.
+     * @param indexState - state of the index the segment belongs to.
+     * @param segmentDirectory - directory of the segment.
+     * @param segmentInfo - data of the segment in this directory, or null if it has none.
+     * @return the deleted rids of the segment, or null if the segment has no deletions.
+     */
+    public static DeletionBitmap getSegmentDeletions(IndexState indexState,
+                                                     File segmentDirectory,
+                                                     SegmentInfo segmentInfo) {
+        synchronized (indexState) {
+            if (segmentInfo == null) {
+                return getInvalidationDeletions(indexState);
+            }
+            return getLatestSegmentDeletions(indexState, segmentDirectory, segmentInfo).deletionBitmap;
+        }
+    }
+
+    /*
+    A copy, since the bitmap of the invalidation file keeps changing while the returned deletions may still be read.
+     */
+    private static DeletionBitmap getInvalidationDeletions(IndexState indexState) {
+        if (!indexState.isInvalidationDirty()) {
+            return null;
+        }
+        return IndexInvalidationTool.getInvalidationBitmap(indexState).copyOfRange(1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param allIndexesDirectory - the directory where all the index directories and files are.
+     * @return all directories of segments: the main directory itself if it holds a segment, and its sub-directories
+     * that hold segments.
+     */
+    public static List<File> getSegmentDirectories(String allIndexesDirectory) {
+        List<File> segmentDirectories = new ArrayList<>();
+        File mainDirectory = new File(allIndexesDirectory);
+        if (SegmentInfo.isSegmentDirectory(mainDirectory)) {
+            segmentDirectories.add(mainDirectory);
+        }
+        File[] subDirectories = mainDirectory.listFiles(File::isDirectory);
+        if (subDirectories != null) {
+            for (File subDirectory : subDirectories) {
+                if (SegmentInfo.isSegmentDirectory(subDirectory) && !MiscTools.isStagingDirectory(subDirectory)) {
+                    segmentDirectories.add(subDirectory);
+                }
+            }
+        }
+        return segmentDirectories;
+    }
+
+    private static void addToSegmentLiveDocs(IndexState indexState,
+                                             File segmentDirectory,
+                                             SegmentInfo segmentInfo,
+                                             List<Integer> ridsToDelete) {
+        SegmentDeletions currentDeletions = getLatestSegmentDeletions(indexState, segmentDirectory, segmentInfo);
+        DeletionBitmap newDeletionBitmap = null;
+        for (int rid : ridsToDelete) {
+            if (segmentInfo.containsRid(rid)
+                    && (currentDeletions.deletionBitmap == null || !currentDeletions.deletionBitmap.contains(rid))) {
+                if (newDeletionBitmap == null) { // copying, since the current version may still be read
+                    newDeletionBitmap = currentDeletions.deletionBitmap == null ? new DeletionBitmap()
+                            : currentDeletions.deletionBitmap.copyOfRange(segmentInfo.getMinRid(), segmentInfo.getMaxRid());
+                }
+                newDeletionBitmap.add(rid);
+            }
+        }
+        if (newDeletionBitmap != null) { // otherwise no rid is in this segment
+            int newVersion = currentDeletions.version + 1;
+            writeLiveDocsFile(segmentDirectory, newVersion, newDeletionBitmap);
+            deleteLiveDocsFile(segmentDirectory, currentDeletions.version);
+            indexState.getSegmentPathToDeletions().put(segmentDirectory.getAbsolutePath(),
+                    new SegmentDeletions(segmentInfo.getSegmentId(), newVersion, newDeletionBitmap));
+        }
+    }
+
+    private static SegmentDeletions getLatestSegmentDeletions(IndexState indexState,
+                                                              File segmentDirectory,
+                                                              SegmentInfo segmentInfo) {
+        Map<String, SegmentDeletions> segmentPathToDeletions = indexState.getSegmentPathToDeletions();
+        String segmentPath = segmentDirectory.getAbsolutePath();
+        SegmentDeletions segmentDeletions = segmentPathToDeletions.get(segmentPath);
+        // the same directory may hold another segment by now, e.g. after a log-merge
+        if (segmentDeletions == null || segmentDeletions.segmentId != segmentInfo.getSegmentId()) {
+            segmentDeletions = loadLatestSegmentDeletions(segmentDirectory, segmentInfo);
+            segmentPathToDeletions.put(segmentPath, segmentDeletions);
+        }
+        return segmentDeletions;
+    }
+
+    //=========================  Live-docs files  =====================================//
+
+    private static SegmentDeletions loadLatestSegmentDeletions(File segmentDirectory, SegmentInfo segmentInfo) {
+        int latestVersion = getLatestVersion(segmentDirectory);
+        DeletionBitmap deletionBitmap = null;
+        if (latestVersion > 0) {
+            deletionBitmap = readLiveDocsFile(getLiveDocsFile(segmentDirectory, latestVersion));
+        }
+        return new SegmentDeletions(segmentInfo.getSegmentId(), latestVersion, deletionBitmap);
+    }
+
+    private static int getLatestVersion(File segmentDirectory) {
+        int latestVersion = 0;
+        File[] liveDocsFiles = segmentDirectory.listFiles((directory, name) ->
+                name.startsWith(MiscTools.LIVE_DOCS_FILENAME_PREFIX) && name.endsWith(MiscTools.BINARY_FILE_SUFFIX));
+        if (liveDocsFiles != null) {
+            for (File liveDocsFile : liveDocsFiles) {
+                String fileName = liveDocsFile.getName();
+                String version = fileName.substring(MiscTools.LIVE_DOCS_FILENAME_PREFIX.length(),
+                        fileName.length() - MiscTools.BINARY_FILE_SUFFIX.length());
+                latestVersion = Math.max(latestVersion, Integer.parseInt(version));
+            }
+        }
+        return latestVersion;
+    }
+
+    private static DeletionBitmap readLiveDocsFile(File liveDocsFile) {
+        DeletionBitmap deletionBitmap = new DeletionBitmap();
+        try {
+            byte[] liveDocsBytes = Files.readAllBytes(liveDocsFile.toPath());
+            int numOfDeletedRids = ByteBuffer.wrap(liveDocsBytes).getInt();
+            List<Integer> gaps = LengthPrecodedVarintCodec.decodeBytesToIntegers(
+                    Arrays.copyOfRange(liveDocsBytes, Integer.BYTES, liveDocsBytes.length));
+            assert gaps.size() == numOfDeletedRids;
+            int gapCumSum = 0;
+            for (int gap : gaps) {
+                gapCumSum += gap;
+                deletionBitmap.add(gapCumSum);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return deletionBitmap;
+    }
+
+    private static void writeLiveDocsFile(File segmentDirectory, int version, DeletionBitmap deletionBitmap) {
+        File liveDocsFile = getLiveDocsFile(segmentDirectory, version);
+        File tempLiveDocsFile = new File(liveDocsFile.getPath() + TEMP_FILE_SUFFIX);
+        try {
+            try (DataOutputStream liveDocsDOS = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempLiveDocsFile)))) {
+                liveDocsDOS.writeInt(deletionBitmap.getCardinality());
+                int previousRid = 0;
+                for (int rid : deletionBitmap.toSortedArray()) {
+                    liveDocsDOS.write(LengthPrecodedVarintCodec.intToCompressedByteArray(rid - previousRid));
+                    previousRid = rid;
+                }
+            }
+            // the version becomes visible only when it is complete
+            Files.move(tempLiveDocsFile.toPath(), liveDocsFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void deleteLiveDocsFile(File segmentDirectory, int version) {
+        if (version > 0) {
+            try {
+                Files.deleteIfExists(getLiveDocsFile(segmentDirectory, version).toPath());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static File getLiveDocsFile(File segmentDirectory, int version) {
+        return new File(segmentDirectory.getPath() + File.separator
+                + MiscTools.LIVE_DOCS_FILENAME_PREFIX + version + MiscTools.BINARY_FILE_SUFFIX);
+    }
+
+    /**
+     * A version of the deletions of a single segment.
+     */
+    static class SegmentDeletions {
+
+        final long segmentId;
+        final int version; // 0 when the segment has no live-docs file
+        final DeletionBitmap deletionBitmap; // null when the segment has no live-docs file
+
+        SegmentDeletions(long segmentId, int version, DeletionBitmap deletionBitmap) {
+            this.segmentId = segmentId;
+            this.version = version;
+            this.deletionBitmap = deletionBitmap;
+        }
+    }
+}
@@ -2,7 +2,7 @@ package dynamic_index.global_tools;
 
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.nio.file.Files;
+import java.nio.channels.ReadableByteChannel;
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
@@ -11,9 +11,17 @@ import java.util.stream.Collectors;
 public class MiscTools {
 
     public static final int BASE_NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK = 8;
-    public static final int WORDS_DEFAULT_MAX_TEMP_FILES = 1024;
     public static final int STRING_BUILDER_DEFAULT_CAPACITY = 32;
     public static final int WORD_MAX_SIZE = 127;
+    public static final int UPDATE_BUFFER_SIZE_IN_REVIEWS = 1024;
+    public static final int INGESTION_CHUNK_SIZE_IN_REVIEWS = 256;
+    public static final int INPUT_BUFFER_SIZE_IN_BYTES = 1 << 20;
+    public static final int GZIP_NUM_OF_BUFFERS = 4;
+    public static final int MIN_WORDS_BLOCK_SIZE_IN_PAIRS = 1 << 10; // of a block sorted in memory into a run
+    public static final int MIN_RUN_BUFFER_SIZE_IN_BYTES = 1 << 16; // of a run in an external merge
+    public static final int MAX_RUN_BUFFER_SIZE_IN_BYTES = 1 << 20;
+    public static final int ESTIMATED_GZIP_COMPRESSION_RATIO = 4;
+    public static final int ESTIMATED_INPUT_BYTES_PER_TOKEN = 8; // of the raw input, including the fields that are not text
 
     public static final int INTEGER_SIZE = Integer.BYTES;
     public static final int PAIR_OF_INT_SIZE_IN_BYTES = Integer.BYTES * 2;
@@ -30,14 +38,23 @@ public class MiscTools {
     public static final String REVIEW_META_DATA_FILENAME = "reviewMetaData.bin";
     public static final String REVIEW_META_DATA_TEMP_FILENAME = "ridToMetaDataTemp.bin";
     public static final String INVALIDATION_FILENAME = "invalidation.bin";
+    public static final String SEGMENT_INFO_FILENAME = "segmentInfo.bin";
+    public static final String LIVE_DOCS_FILENAME_PREFIX = "liveDocs_";
 
     public static final String MERGE_FILES_DIRECTORY_NAME = "mergeFilesDirectory";
-    public static final String WORDS_SORTED_FILE_NAME = "WORDS_SORTED.bin";
     public static final String BINARY_FILE_SUFFIX = ".bin";
+    public static final String GZIP_FILE_SUFFIX = ".gz";
 
     public static final String TERM_MAP_FILE_DEBUG = "wordsTermToTermID.txt";
 
     public static final String MERGED_INDEX_DIRECTORY = "mergedIndex";
+    public static final String STAGING_DIRECTORY_PREFIX = "staging_";
+    public static final String UPDATE_DIRECTORY_PREFIX = "update_";
+    public static final String INSERTION_DIRECTORY_PREFIX = "insertion_"; // of insertAll(), followed by the first rid
+    public static final String SPIMI_DIRECTORY_NAME = "partialIndexes"; // staging, followed by the first rid
+    public static final String BULK_CHUNKS_DIRECTORY_NAME = "bulkChunks"; // staging
+    public static final String RECLAIMED_SEGMENT_DIRECTORY_NAME = "reclaimedSegment"; // staging
+    public static final String TERM_PARTITION_DIRECTORY_NAME = "termPartition"; // followed by the partition number
     public static final String INDEXES_DIR_NAME = "indexes";
     public static final String LOG_MERGE_INDEXES_DIR_NAME = "logMergeIndexes";
 
@@ -54,26 +71,20 @@ public class MiscTools {
         return (roundItDown / multiplicationOf) * multiplicationOf;
     }
 
-    public static int estimateBestSizeOfWordsBlocks(final long numOfTokens, final boolean withFreeMemory) {
-        long estimatedSizeOfFile = numOfTokens * MiscTools.PAIR_OF_INT_SIZE_IN_BYTES;
-        long blockSize = calculateSizeOfBlock(estimatedSizeOfFile); // IN BYTES
-        long blockSizeInPairs = blockSize / 8;
-        assert blockSizeInPairs <= Integer.MAX_VALUE;
-        return (int) blockSizeInPairs;
-    }
-
-    private static long calculateSizeOfBlock(final long sizeOfFile) {
-        long baseSizeOfBlock = (long) Math.ceil((double) sizeOfFile / MiscTools.WORDS_DEFAULT_MAX_TEMP_FILES);
-        return MiscTools.roundUpToProductOfPairSize(baseSizeOfBlock);
-    }
-
-    public static int roundUpToProductOfPairSize(long blockSize) {
-        if (blockSize % PAIR_OF_INT_SIZE_IN_BYTES != 0) {
-            blockSize += PAIR_OF_INT_SIZE_IN_BYTES - (blockSize % PAIR_OF_INT_SIZE_IN_BYTES);
-        } else if (blockSize == 0) {
-            blockSize = (int) Math.pow(PAIR_OF_INT_SIZE_IN_BYTES, 3);
-        } // else it's already a non-zero mult of pair-size
-        return (int) blockSize;
+    /**
+     * Size of the blocks of pairs that are sorted in memory into runs: all the pairs in one block if the memory
+     * budget allows it, and otherwise as many as the budget allows, so there are as few runs as possible.
+     * @param numOfPairs - (estimated) number of pairs to sort.
+     * @param memoryBudgetInBytes - memory for the blocks.
+     * @param bytesPerPairInMemory - memory a pair takes in the blocks, with everything kept alongside it.
+     * @return number of pairs in a block, at least MIN_WORDS_BLOCK_SIZE_IN_PAIRS.
+     */
+    public static int estimateBestSizeOfWordsBlocks(final long numOfPairs,
+                                                    final long memoryBudgetInBytes,
+                                                    final int bytesPerPairInMemory) {
+        long blockSizeInPairs = Math.min(numOfPairs, memoryBudgetInBytes / bytesPerPairInMemory);
+        blockSizeInPairs = Math.max(blockSizeInPairs, MIN_WORDS_BLOCK_SIZE_IN_PAIRS);
+        return (int) Math.min(blockSizeInPairs, Integer.MAX_VALUE - Byte.SIZE); // the largest array length
     }
 
     public static byte[] intToByteArray(int intToConvert) {
@@ -84,6 +95,15 @@ public class MiscTools {
 
     //=========================  External Sort  =====================================//
 
+    /**
+     * @param memoryBudgetInBytes - memory for the merge of the runs and the writing of the words files.
+     * @return size of the buffer of each of the three words files written by the last merge pass.
+     */
+    public static int getWordsWriteBufferSizeInBytes(long memoryBudgetInBytes) {
+        return (int) Math.max(MIN_RUN_BUFFER_SIZE_IN_BYTES,
+                Math.min(MAX_RUN_BUFFER_SIZE_IN_BYTES, memoryBudgetInBytes / 8));
+    }
+
     public static Map<Integer, String> swapHashMapDirections(Map<String, Integer> termToTermID) {
         Map<Integer, String> swapped = termToTermID.entrySet().stream().collect(
                 Collectors.toMap(Map.Entry::getValue, Map.Entry::getKey));
@@ -91,12 +111,6 @@ public class MiscTools {
         return swapped;
     }
 
-    public static void deleteSortedFile(File indexDirectory) throws IOException {
-        File wordsSortedFile = new File(indexDirectory + File.separator
-                + MiscTools.WORDS_SORTED_FILE_NAME);
-        Files.delete(wordsSortedFile.toPath());
-    }
-
     //===============================  Misc  =====================================//
 
 
@@ -108,6 +122,54 @@ public class MiscTools {
         return directory;
     }
 
+    /**
+     * Opens an input file of reviews for reading, decompressing it on the fly if it is gzip-compressed.
+     * @param inputFile - path of the raw data file, or of its compressed version if it ends with ".gz".
+     * @return a channel of the raw data.
+     */
+    public static ReadableByteChannel openInputFile(String inputFile) throws IOException {
+        if (isGzipFile(inputFile)) {
+            return new GzipInputChannel(inputFile, GZIP_NUM_OF_BUFFERS, INPUT_BUFFER_SIZE_IN_BYTES);
+        }
+        return new FileInputStream(inputFile).getChannel();
+    }
+
+    /**
+     * Opens a range of an uncompressed input file of reviews for reading, as if it were the whole input.
+     * @param inputFile - path of the raw data file, or of its compressed version if the range is the whole file.
+     * @param firstByte - offset of the first byte of the range.
+     * @param endByte - offset after the last byte of the range, or Long.MAX_VALUE for the rest of the file.
+     * @return a channel of the raw data in the range.
+     */
+    public static ReadableByteChannel openInputFile(String inputFile, long firstByte, long endByte)
+            throws IOException {
+        if (firstByte == 0 && endByte == Long.MAX_VALUE) {
+            return openInputFile(inputFile);
+        }
+        assert !isGzipFile(inputFile);
+        return new InputRangeChannel(inputFile, firstByte, Math.min(endByte, new File(inputFile).length()));
+    }
+
+    public static boolean isGzipFile(String inputFile) {
+        return inputFile.endsWith(GZIP_FILE_SUFFIX);
+    }
+
+    /**
+     * @return estimated size of the raw data in an input file, which is larger than the file if it is compressed.
+     */
+    public static long estimateRawInputSize(String inputFile) {
+        long inputFileSize = new File(inputFile).length();
+        return isGzipFile(inputFile) ? inputFileSize * ESTIMATED_GZIP_COMPRESSION_RATIO : inputFileSize;
+    }
+
+    /**
+     * @param directory - a sub-directory of the index directory.
+     * @return true if the directory holds an index that is still written, and should not be read yet.
+     */
+    public static boolean isStagingDirectory(File directory) {
+        return directory.getName().startsWith(STAGING_DIRECTORY_PREFIX);
+    }
+
     public static int getRandomNumber(int lowerBound, int upperBound){
         return ThreadLocalRandom.current().nextInt(lowerBound - 1, upperBound);
     }
@@ -0,0 +1,253 @@
+package dynamic_index.global_tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static dynamic_index.global_tools.MiscTools.*;
+
+/**
+ * Parses a raw data file of reviews at the level of bytes, without a String per line or per field.
+ *
+ * The input, decompressed if it is a gzip file, is read into a large direct buffer and cut into lines in a reused
+ * line buffer. Only the fields the index uses are recognized: product/productId, review/helpfulness, review/score
+ * and review/text, and their values are kept as numbers or as bytes in a reused ParsedReview, which is passed on
+ * at the text of each review.
+ */
+public class ReviewInputParser {
+
+    private static final byte[] PID_FIELD_BYTES = PID_FIELD.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HELPFULNESS_FIELD_BYTES = HELPFULNESS_FIELD.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SCORE_FIELD_BYTES = SCORE_FIELD.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] REVIEW_TEXT_FIELD_BYTES = REVIEW_TEXT_FIELD.getBytes(StandardCharsets.US_ASCII);
+
+    private final String inputFile;
+    private final long firstByte;
+    private final long endByte;
+    private final ParsedReview parsedReview = new ParsedReview();
+    private byte[] lineBuffer = new byte[8192]; // grows for longer lines
+    private int lineLength = 0;
+    private long lineEndOffset = 0; // in the raw input, after the line separator of the line in the line buffer
+
+    /**
+     * @param inputFile - the raw data file to parse, possibly gzip-compressed (ending with ".gz").
+     */
+    public ReviewInputParser(String inputFile) {
+        this(inputFile, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param inputFile - the raw data file to parse, uncompressed unless the range is the whole file.
+     * @param firstByte - offset of the first byte to parse, the start of a line.
+     * @param endByte - offset after the last byte to parse, or Long.MAX_VALUE for the rest of the file.
+     */
+    public ReviewInputParser(String inputFile, long firstByte, long endByte) {
+        this.inputFile = inputFile;
+        this.firstByte = firstByte;
+        this.endByte = endByte;
+    }
+
+    /**
+     * Parses the whole input, passing each review to the consumer when its text is reached.
+     * @param reviewConsumer - gets the same ParsedReview every time, valid only during the call.
+     * @throws IOException - if the input could not be read.
+     */
+    public void forEachReview(Consumer<ParsedReview> reviewConsumer) throws IOException {
+        try (ReadableByteChannel inputChannel = openInputFile(inputFile, firstByte, endByte)) {
+            ByteBuffer inputBuffer = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE_IN_BYTES);
+            boolean isAfterCarriageReturn = false;
+            long bufferOffset = firstByte;
+            while (inputChannel.read(inputBuffer) != -1) {
+                inputBuffer.flip();
+                while (inputBuffer.hasRemaining()) {
+                    byte b = inputBuffer.get();
+                    if (b == '\n' || b == '\r') {
+                        if (!(b == '\n' && isAfterCarriageReturn)) { // a "\r\n" ends one line
+                            lineEndOffset = bufferOffset + inputBuffer.position();
+                            handleLine(reviewConsumer);
+                        }
+                        isAfterCarriageReturn = b == '\r';
+                    } else {
+                        appendToLine(b);
+                        isAfterCarriageReturn = false;
+                    }
+                }
+                bufferOffset += inputBuffer.limit();
+                inputBuffer.clear();
+            }
+            lineEndOffset = bufferOffset;
+            handleLine(reviewConsumer); // a last line without a line separator
+        }
+    }
+
+    private void appendToLine(byte b) {
+        if (lineLength == lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, lineLength * 2);
+        }
+        lineBuffer[lineLength++] = b;
+    }
+
+    private void handleLine(Consumer<ParsedReview> reviewConsumer) {
+        int colonIndex = indexOfColon();
+        if (colonIndex > 0) {
+            int valueOffset = colonIndex + 1;
+            if (isField(PID_FIELD_BYTES, colonIndex)) {
+                parsedReview.setPid(lineBuffer, valueOffset, lineLength);
+            } else if (isField(HELPFULNESS_FIELD_BYTES, colonIndex)) {
+                int slashIndex = valueOffset;
+                while (slashIndex < lineLength && lineBuffer[slashIndex] != '/') {
+                    slashIndex++;
+                }
+                parsedReview.helpfulnessNumerator = parseInt(valueOffset, slashIndex);
+                parsedReview.helpfulnessDenominator = parseInt(slashIndex + 1, lineLength);
+            } else if (isField(SCORE_FIELD_BYTES, colonIndex)) {
+                parsedReview.score = parseInt(valueOffset, lineLength); // stops at the decimal point
+            } else if (isField(REVIEW_TEXT_FIELD_BYTES, colonIndex)) {
+                parsedReview.text = lineBuffer;
+                parsedReview.textOffset = valueOffset;
+                parsedReview.textLength = lineLength - valueOffset;
+                parsedReview.endOffset = lineEndOffset;
+                reviewConsumer.accept(parsedReview);
+                parsedReview.clear();
+            }
+        }
+        lineLength = 0;
+    }
+
+    private int indexOfColon() {
+        for (int i = 0; i < lineLength; i++) {
+            if (lineBuffer[i] == ':') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isField(byte[] fieldBytes, int colonIndex) {
+        if (colonIndex != fieldBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < colonIndex; i++) {
+            if (lineBuffer[i] != fieldBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+    Parses the first number in the range, skipping the spaces before it.
+     */
+    private int parseInt(int from, int to) {
+        int i = from;
+        while (i < to && lineBuffer[i] == ' ') {
+            i++;
+        }
+        int number = 0;
+        while (i < to && lineBuffer[i] >= '0' && lineBuffer[i] <= '9') {
+            number = number * 10 + (lineBuffer[i] - '0');
+            i++;
+        }
+        return number;
+    }
+
+    /**
+     * The fields of one review, as the index uses them.
+     */
+    public static class ParsedReview {
+
+        private final byte[] pid = new byte[WORD_MAX_SIZE];
+        private int pidLength = 0;
+        private int helpfulnessNumerator = 0;
+        private int helpfulnessDenominator = 0;
+        private int score = 0;
+        private byte[] text;
+        private int textOffset;
+        private int textLength;
+        private long endOffset;
+
+        private ParsedReview() {
+        }
+
+        private void setPid(byte[] line, int valueOffset, int lineLength) {
+            int pidOffset = valueOffset;
+            while (pidOffset < lineLength && line[pidOffset] == ' ') {
+                pidOffset++;
+            }
+            pidLength = Math.min(lineLength - pidOffset, pid.length);
+            System.arraycopy(line, pidOffset, pid, 0, pidLength);
+        }
+
+        /*
+        So that no field of a review is left from the review before it, the pid included.
+         */
+        private void clear() {
+            Arrays.fill(pid, 0, pidLength, (byte) 0);
+            pidLength = 0;
+            helpfulnessNumerator = 0;
+            helpfulnessDenominator = 0;
+            score = 0;
+            text = null;
+            textOffset = 0;
+            textLength = 0;
+            endOffset = 0;
+        }
+
+        /**
+         * @return array whose first getPidLength() bytes are the product id.
+         */
+        public byte[] getPid() {
+            return pid;
+        }
+
+        public int getPidLength() {
+            return pidLength;
+        }
+
+        public int getHelpfulnessNumerator() {
+            return helpfulnessNumerator;
+        }
+
+        public int getHelpfulnessDenominator() {
+            return helpfulnessDenominator;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * @return array holding the review text, from getTextOffset() and for getTextLength() bytes.
+         */
+        public byte[] getText() {
+            return text;
+        }
+
+        public int getTextOffset() {
+            return textOffset;
+        }
+
+        public int getTextLength() {
+            return textLength;
+        }
+
+        /**
+         * @return offset in the raw input after the end of the line of the review text, where a part of the input
+         * that ends with this review can end.
+         */
+        public long getEndOffset() {
+            return endOffset;
+        }
+
+        /**
+         * @return the review text decoded as the input files are read, for where a String is needed.
+         */
+        public String getTextAsString() {
+            return new String(text, textOffset, textLength, Charset.defaultCharset());
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package dynamic_index.global_tools;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static dynamic_index.global_tools.MiscTools.WORD_MAX_SIZE;
+
+/**
+ * Tokenizes review texts into term ids, with the same tokens as ParsingTool.textToNormalizedTokens().
+ *
+ * A text of ASCII characters only, given as a String or as bytes, is scanned once into a reused buffer, lower
+ * cased in place, and each token is looked up in a hash table of the terms seen so far, so a token of a known
+ * term allocates nothing. A text with other characters goes through ParsingTool, for its Unicode letters and
+ * lower casing.
+ *
+ * The frequencies of the terms in the last text tokenized are counted by term id, in the order of their first
+ * occurrence in the text (not sorted). Term ids are given from 1 in the order the terms are first seen.
+ * Not thread-safe, each thread should have its own.
+ */
+public class TermTokenizer {
+
+    private static final int INITIAL_TABLE_SIZE = 1 << 12; // a power of 2
+
+    private final char[] tokenBuffer = new char[WORD_MAX_SIZE];
+    private final List<String> termIdToTerm = new ArrayList<>();
+    private int[] termHashes = new int[INITIAL_TABLE_SIZE / 2];
+    private int[] hashTable = new int[INITIAL_TABLE_SIZE]; // term ids, 0 for an empty slot
+
+    // the last text tokenized
+    private int[] termIdToFrequencyInText = new int[INITIAL_TABLE_SIZE / 2];
+    private int[] termIdsInText = new int[WORD_MAX_SIZE];
+    private int numOfTermsInText = 0;
+    private int numOfTokensInText = 0;
+    private int numOfIndexedTokensInText = 0;
+
+    // the token being scanned
+    private int tokenLength = 0;
+    private int tokenHash = 0;
+
+    public TermTokenizer() {
+        termIdToTerm.add(null); // so term ids are always non-zero.
+    }
+
+    /**
+     * Tokenizes a text, forgetting the frequencies of the previous one.
+     * @param reviewTextLine - line of text to tokenize.
+     * @return number of tokens of the text that are not longer than WORD_MAX_SIZE, which are the ones counted.
+     */
+    public int tokenize(String reviewTextLine) {
+        clearText();
+        if (isAscii(reviewTextLine)) {
+            return tokenizeAscii(reviewTextLine);
+        }
+        for (String token : ParsingTool.textToNormalizedTokens(reviewTextLine)) {
+            numOfTokensInText++;
+            if (token.length() <= WORD_MAX_SIZE) {
+                countInText(internTerm(token));
+                numOfIndexedTokensInText++;
+            }
+        }
+        return numOfIndexedTokensInText;
+    }
+
+    /**
+     * Tokenizes a text given as bytes of the default charset, as the input files are read, forgetting the
+     * frequencies of the previous one. Only a text that is not all ASCII is decoded to a String.
+     * @param text - array holding the text.
+     * @param offset - index of the first byte of the text.
+     * @param length - number of bytes of the text.
+     * @return number of tokens of the text that are not longer than WORD_MAX_SIZE, which are the ones counted.
+     */
+    public int tokenize(byte[] text, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (text[i] < 0) { // not ASCII
+                return tokenize(new String(text, offset, length, Charset.defaultCharset()));
+            }
+        }
+        clearText();
+        for (int i = offset; i < offset + length; i++) {
+            scanAsciiChar((char) text[i]);
+        }
+        endToken();
+        return numOfIndexedTokensInText;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int tokenizeAscii(String reviewTextLine) {
+        for (int i = 0; i < reviewTextLine.length(); i++) {
+            scanAsciiChar(reviewTextLine.charAt(i));
+        }
+        endToken();
+        return numOfIndexedTokensInText;
+    }
+
+    private void scanAsciiChar(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            c += 'a' - 'A';
+        } else if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9')) {
+            endToken();
+            return;
+        }
+        if (tokenLength < WORD_MAX_SIZE) {
+            tokenBuffer[tokenLength] = c;
+            tokenHash = 31 * tokenHash + c;
+        }
+        tokenLength++; // a long token is still scanned to its end, only to be counted
+    }
+
+    private void endToken() {
+        if (tokenLength > 0) {
+            numOfTokensInText++;
+            if (tokenLength <= WORD_MAX_SIZE) {
+                countInText(internTerm(tokenBuffer, tokenLength, tokenHash));
+                numOfIndexedTokensInText++;
+            }
+            tokenLength = 0;
+            tokenHash = 0;
+        }
+    }
+
+    /**
+     * @param term - a normalized term.
+     * @return the id of the term, given now if it was not seen before.
+     */
+    public int internTerm(String term) {
+        assert term.length() <= WORD_MAX_SIZE;
+        term.getChars(0, term.length(), tokenBuffer, 0);
+        return internTerm(tokenBuffer, term.length(), term.hashCode());
+    }
+
+    private int internTerm(char[] termChars, int termLength, int termHash) {
+        int mask = hashTable.length - 1;
+        int slot = mix(termHash) & mask;
+        int termId;
+        while ((termId = hashTable[slot]) != 0) {
+            if (termHashes[termId] == termHash && isSameTerm(termIdToTerm.get(termId), termChars, termLength)) {
+                return termId;
+            }
+            slot = (slot + 1) & mask;
+        }
+        termId = termIdToTerm.size();
+        termIdToTerm.add(new String(termChars, 0, termLength));
+        if (termId == termHashes.length) {
+            termHashes = Arrays.copyOf(termHashes, termId * 2);
+            termIdToFrequencyInText = Arrays.copyOf(termIdToFrequencyInText, termId * 2);
+        }
+        termHashes[termId] = termHash;
+        hashTable[slot] = termId;
+        if (termId * 2 > hashTable.length) { // keeping at most half of the table full
+            rehash();
+        }
+        return termId;
+    }
+
+    private static boolean isSameTerm(String term, char[] termChars, int termLength) {
+        if (term.length() != termLength) {
+            return false;
+        }
+        for (int i = 0; i < termLength; i++) {
+            if (term.charAt(i) != termChars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private void rehash() {
+        hashTable = new int[hashTable.length * 2];
+        int mask = hashTable.length - 1;
+        for (int termId = 1; termId < termIdToTerm.size(); termId++) {
+            int slot = mix(termHashes[termId]) & mask;
+            while (hashTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashTable[slot] = termId;
+        }
+    }
+
+    private void countInText(int termId) {
+        if (termIdToFrequencyInText[termId] == 0) {
+            if (numOfTermsInText == termIdsInText.length) {
+                termIdsInText = Arrays.copyOf(termIdsInText, numOfTermsInText * 2);
+            }
+            termIdsInText[numOfTermsInText++] = termId;
+        }
+        termIdToFrequencyInText[termId]++;
+    }
+
+    private void clearText() {
+        for (int i = 0; i < numOfTermsInText; i++) {
+            termIdToFrequencyInText[termIdsInText[i]] = 0;
+        }
+        numOfTermsInText = 0;
+        numOfTokensInText = 0;
+        numOfIndexedTokensInText = 0;
+    }
+
+    /**
+     * @return number of tokens in the last text, including the ones longer than WORD_MAX_SIZE.
+     */
+    public int getNumOfTokens() {
+        return numOfTokensInText;
+    }
+
+    /**
+     * @return number of distinct terms in the last text.
+     */
+    public int getNumOfTermsInText() {
+        return numOfTermsInText;
+    }
+
+    /**
+     * @param i - index of a distinct term of the last text, by first occurrence.
+     * @return term id of the term.
+     */
+    public int getTermIdInText(int i) {
+        return termIdsInText[i];
+    }
+
+    /**
+     * @param i - index of a distinct term of the last text, by first occurrence.
+     * @return number of occurrences of the term in the last text.
+     */
+    public int getFrequencyInText(int i) {
+        return termIdToFrequencyInText[termIdsInText[i]];
+    }
+
+    public String getTerm(int termId) {
+        return termIdToTerm.get(termId);
+    }
+
+    /**
+     * @return number of terms seen, which is also the largest term id.
+     */
+    public int getNumOfTerms() {
+        return termIdToTerm.size() - 1;
+    }
+}
@@ -0,0 +1,77 @@
+package dynamic_index.index_experiments;
+
+import dynamic_index.IndexReader;
+import dynamic_index.SimpleMergeIndexWriter;
+import dynamic_index.global_tools.MiscTools;
+import dynamic_index.global_tools.PrintingTool;
+import dynamic_index.index_structure.DictionaryRowFormat;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Front coding block size experiment. The main index is built from the first build file once for every block
+ * size and dictionary row format, and the size of its dictionary (the rows and the concatenated strings) and the
+ * average time of a word lookup are logged, to tune the block size for the vocabulary of the input.
+ */
+public class FrontCodeBlockSizeExperiment extends Experiment {
+
+    private static final int[] BLOCK_SIZES = {4, 8, 16, 32, 64};
+    private static final int NUMBER_OF_LOOKUPS = 1000;
+
+    public FrontCodeBlockSizeExperiment(String localDir) {
+        super(localDir,
+                localDir + File.separatorChar + MiscTools.INDEXES_DIR_NAME);
+    }
+
+    @Override
+    public void runExperiment() {
+        printDateAndTime();
+        createTestLog("Front Code Block Size ");
+
+        // the same words are looked up with every block size
+        List<String> wordsToLookUp = wordsRandomizer.getRandomWords(NUMBER_OF_LOOKUPS);
+        for (int blockSize : BLOCK_SIZES) {
+            for (DictionaryRowFormat rowFormat : DictionaryRowFormat.values()) {
+                SimpleMergeIndexWriter simpleMergeIndexWriter = buildIndex(blockSize, rowFormat);
+                IndexReader indexReader = new IndexReader(allIndexesDirectory);
+                lookUpWords(indexReader, simpleMergeIndexWriter, wordsToLookUp); // warm-up, not logged
+                long averageLookupTimeInNanos = lookUpWords(indexReader, simpleMergeIndexWriter, wordsToLookUp)
+                        / wordsToLookUp.size();
+                tlog.println("Block size: " + blockSize
+                        + "\tRow format: " + rowFormat
+                        + "\tDictionary size in bytes: " + getDictionarySize()
+                        + "\tAverage lookup time in microseconds: " + averageLookupTimeInNanos / 1000.0);
+                removeIndex();
+            }
+        }
+
+        tlog.close();
+    }
+
+    private SimpleMergeIndexWriter buildIndex(int blockSize, DictionaryRowFormat rowFormat) {
+        long startTime = System.currentTimeMillis();
+        SimpleMergeIndexWriter simpleMergeIndexWriter = new SimpleMergeIndexWriter(allIndexesDirectory);
+        simpleMergeIndexWriter.setNumOfTokensInFrontCodeBlock(blockSize);
+        simpleMergeIndexWriter.setDictionaryRowFormat(rowFormat);
+        simpleMergeIndexWriter.construct(scalingCases.getInputFilename());
+        PrintingTool.printElapsedTimeToLog(tlog, startTime,
+                "Building with block size " + blockSize + " and " + rowFormat + " rows");
+        return simpleMergeIndexWriter;
+    }
+
+    private long lookUpWords(IndexReader indexReader,
+                             SimpleMergeIndexWriter simpleMergeIndexWriter,
+                             List<String> wordsToLookUp) {
+        long startTime = System.nanoTime();
+        for (String word : wordsToLookUp) {
+            indexReader.getReviewsWithToken(word, simpleMergeIndexWriter);
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private long getDictionarySize() {
+        return new File(allIndexesDirectory + File.separator + MiscTools.WORDS_FRONT_CODED_FILENAME).length()
+                + new File(allIndexesDirectory + File.separator + MiscTools.WORDS_CONCAT_FILENAME).length();
+    }
+}
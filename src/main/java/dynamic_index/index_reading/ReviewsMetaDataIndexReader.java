@@ -1,6 +1,8 @@
 package dynamic_index.index_reading;
 
+import dynamic_index.global_tools.DeletionBitmap;
 import dynamic_index.global_tools.IndexInvalidationTool;
+import dynamic_index.global_tools.IndexState;
 import dynamic_index.global_tools.MiscTools;
 import dynamic_index.index_structure.ReviewMetaData;
 
@@ -8,28 +10,47 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
-import java.util.Set;
 
 import static dynamic_index.global_tools.MiscTools.REVIEW_META_DATA_FILENAME;
 import static dynamic_index.global_tools.MiscTools.REVIEW_META_DATA_TEMP_FILENAME;
 
 /**
  * Created with each IndexReader object. This means, that this class can assume no change in index data
- * while this object is alive.
+ * while this object is alive, except for deletions: these are followed by the generation of the deletion bitmap.
  */
 public class ReviewsMetaDataIndexReader {
 
     private File reviewMetaDataFile;
+    private final IndexState indexState;
     private final HashMap<Integer, ReviewMetaData> ridToMetaDataMap = new HashMap<>();
     private int totalNumberOfTokens = 0;
 
-    public ReviewsMetaDataIndexReader(File allIndexDirectory) {
+    // the deletions already removed from the map
+    private DeletionBitmap filteredDeletionBitmap = null;
+    private long filteredDeletionGeneration = -1;
+
+    public ReviewsMetaDataIndexReader(File allIndexDirectory, IndexState indexState) {
+        this.indexState = indexState;
         reviewMetaDataFile = new File(allIndexDirectory.getPath()
                 + File.separator + MiscTools.REVIEW_META_DATA_FILENAME);
         loadFileToMap();
-        Set<Integer> invalidatedRids = IndexInvalidationTool.getInvalidationSet(this.reviewMetaDataFile.getParent());
-        ridToMetaDataMap.keySet().removeAll(invalidatedRids);
+        removeInvalidatedRids();
+    }
 
+    private void removeInvalidatedRids() {
+        synchronized (indexState) {
+            if (!indexState.isInvalidationDirty()) {
+                return;
+            }
+            DeletionBitmap deletionBitmap = IndexInvalidationTool.getInvalidationBitmap(indexState);
+            if (deletionBitmap != filteredDeletionBitmap
+                    || deletionBitmap.getGeneration() != filteredDeletionGeneration) {
+                ridToMetaDataMap.keySet().removeIf(deletionBitmap::contains);
+                totalNumberOfTokens = 0; // recalculated on demand
+                filteredDeletionBitmap = deletionBitmap;
+                filteredDeletionGeneration = deletionBitmap.getGeneration();
+            }
+        }
     }
 
     private void loadFileToMap() {
@@ -54,6 +75,7 @@ public class ReviewsMetaDataIndexReader {
     }
 
     private ReviewMetaData getReviewMetaData(int rid) {
+        removeInvalidatedRids();
         if (rid <= 0) {
             return null;
         } else return ridToMetaDataMap.getOrDefault(rid, null);
@@ -148,6 +170,7 @@ public class ReviewsMetaDataIndexReader {
      * @return the number of reviews in the index minus the deleted ones
      */
     public int getTotalNumberOfReviews() {
+        removeInvalidatedRids();
         return ridToMetaDataMap.size();
     }
 
@@ -156,6 +179,7 @@ public class ReviewsMetaDataIndexReader {
      * in the constructor)
      */
     public int getTotalNumberOfTokens(){
+        removeInvalidatedRids();
         if(totalNumberOfTokens == 0){
             int tokenSum = 0;
             for(ReviewMetaData reviewMetaData: ridToMetaDataMap.values()){
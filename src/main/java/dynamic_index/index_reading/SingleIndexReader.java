@@ -1,8 +1,9 @@
 package dynamic_index.index_reading;
 
 
-import dynamic_index.global_tools.IndexInvalidationTool;
+import dynamic_index.global_tools.DeletionBitmap;
 import dynamic_index.global_tools.MiscTools;
+import dynamic_index.index_structure.DictionaryRowFormat;
 import dynamic_index.index_structure.FrontCodeBlock;
 
 import java.io.*;
@@ -23,7 +24,8 @@ public class SingleIndexReader {
     private static final int TWO_BYTES_READ = 2;
     private final int NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK;
     private final int FRONT_CODE_WITHOUT_STRING_POINTER_ROW_SIZE;
-    private final int FRONT_CODE_ROW_SIZE_IN_BYTES;
+    private final DictionaryRowFormat dictionaryRowFormat;
+    private final int numOfRows;
 
     private String tokenToFind;
 
@@ -34,21 +36,25 @@ public class SingleIndexReader {
 
     private byte[] indexDictionary;
     private byte[] concatString;
+    private final DeletionBitmap segmentDeletionBitmap; // null when nothing was deleted from this index
 
     public SingleIndexReader(byte[] mainIndexDictionary,
                              byte[] mainConcatString,
                              File invertedIndexFile,
                              int numOfTokensPerBlock,
-                             File mainIndexDirectory) {
+                             DictionaryRowFormat dictionaryRowFormat,
+                             File mainIndexDirectory,
+                             DeletionBitmap segmentDeletionBitmap) {
         this.invertedIndexFile = invertedIndexFile;
+        this.segmentDeletionBitmap = segmentDeletionBitmap;
         this.mainIndexDirectory = mainIndexDirectory;
         this.currentIndexDirectory = invertedIndexFile.getParentFile();
         assignArrays(mainIndexDictionary, mainConcatString);
         this.NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK = numOfTokensPerBlock;
         FRONT_CODE_WITHOUT_STRING_POINTER_ROW_SIZE =
                 (FrontCodeBlock.BYTES_IN_WORD_BLOCK * NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK);
-        FRONT_CODE_ROW_SIZE_IN_BYTES =
-                MiscTools.INTEGER_SIZE + FRONT_CODE_WITHOUT_STRING_POINTER_ROW_SIZE;
+        this.dictionaryRowFormat = dictionaryRowFormat;
+        this.numOfRows = dictionaryRowFormat.getNumOfRows(indexDictionary, NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK);
     }
 
 
@@ -75,7 +81,7 @@ public class SingleIndexReader {
         TreeMap<Integer,Integer> ridToFrequencyMap;
         TokenMetaData tokenMetaData = binarySearch(word,
                 0,
-                (indexDictionary.length / FRONT_CODE_ROW_SIZE_IN_BYTES) - 1);
+                numOfRows - 1);
         if (tokenMetaData == null) {
             ridToFrequencyMap = new TreeMap<>();
         } else {
@@ -90,19 +96,27 @@ public class SingleIndexReader {
         if (rowsLowerBound > rowsUpperBound || rowsUpperBound < 0)
             return null;
         int middleInRows = (rowsLowerBound + (rowsUpperBound - rowsLowerBound) / 2);
-        int middleInBytes = FRONT_CODE_ROW_SIZE_IN_BYTES * middleInRows;
 
-        TreeMap<String, TokenMetaData> wordToMetaData = getWordsFromRowOfBytes(middleInBytes, middleInRows);
+        TreeMap<String, TokenMetaData> wordToMetaData = getWordsOfRow(middleInRows);
         assert !wordToMetaData.isEmpty();
         return jumpTo(wordToMetaData, word,
                 rowsLowerBound, rowsUpperBound, middleInRows);
     }
 
-    TreeMap<String, TokenMetaData> getWordsFromRowOfBytes(int middleInBytes, int middleInRows) {
+    TreeMap<String, TokenMetaData> getWordsOfRow(int row) {
         /* In each stage in the binary search, we have to read all the words
            in the block of a string, since it is possible that the first letter
            is not a prefix of some word in the block.
         */
+        int rowOffset = dictionaryRowFormat.getRowOffset(indexDictionary, row, NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK);
+        if (dictionaryRowFormat == DictionaryRowFormat.COMPACT) {
+            return getWordsOfCompactRow(rowOffset,
+                    dictionaryRowFormat.getRowEnd(indexDictionary, row, NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK));
+        }
+        return getWordsFromRowOfBytes(rowOffset, row);
+    }
+
+    private TreeMap<String, TokenMetaData> getWordsFromRowOfBytes(int middleInBytes, int middleInRows) {
         final int intSize = MiscTools.INTEGER_SIZE;
         int pointerToBlockInString = ByteBuffer.wrap(indexDictionary, middleInBytes, intSize).getInt();
         byte[] blockData = new byte[FRONT_CODE_WITHOUT_STRING_POINTER_ROW_SIZE];
@@ -151,6 +165,38 @@ public class SingleIndexReader {
         return wordToPointerAndLength;
     }
 
+    /*
+    The pointer of each word is the pointer of the first word plus the postings lengths of the words before it.
+     */
+    private TreeMap<String, TokenMetaData> getWordsOfCompactRow(int rowOffset, int rowEnd) {
+        TreeMap<String, TokenMetaData> wordToPointerAndLength = new TreeMap<>();
+        int totalCharReadInString = DictionaryRowFormat.getVarInt(indexDictionary, rowOffset);
+        rowOffset += DictionaryRowFormat.getVarIntSize(totalCharReadInString);
+        int freqPointer = DictionaryRowFormat.getVarInt(indexDictionary, rowOffset);
+        rowOffset += DictionaryRowFormat.getVarIntSize(freqPointer);
+        StringBuilder firstWord = new StringBuilder();
+        while (rowOffset < rowEnd) {
+            byte length = indexDictionary[rowOffset];
+            byte prefixLength = indexDictionary[rowOffset + 1];
+            int freqLength = DictionaryRowFormat.getVarInt(indexDictionary, rowOffset + TWO_BYTES_READ);
+            rowOffset += TWO_BYTES_READ + DictionaryRowFormat.getVarIntSize(freqLength);
+            assert length >= prefixLength: "token: " + tokenToFind;
+            if (firstWord.length() == 0) {  // first word in block
+                readWordToStringBuilder(totalCharReadInString, length, firstWord);
+                wordToPointerAndLength.put(firstWord.toString(), new TokenMetaData(freqPointer, freqLength));
+                totalCharReadInString += length;
+            } else {
+                byte suffixLength = (byte) (length - prefixLength);
+                StringBuilder currentWord = new StringBuilder(firstWord.substring(0, prefixLength));
+                readWordToStringBuilder(totalCharReadInString, suffixLength, currentWord);
+                wordToPointerAndLength.put(currentWord.toString(), new TokenMetaData(freqPointer, freqLength));
+                totalCharReadInString += suffixLength;
+            }
+            freqPointer += freqLength;
+        }
+        return wordToPointerAndLength;
+    }
+
     private void readWordToStringBuilder(int readOffset, int readLength, StringBuilder stringBuilder) {
         for (int j = 0; j < readLength; j++) {
             int posToRead = readOffset + j;
@@ -186,20 +232,12 @@ public class SingleIndexReader {
             throws IOException {
         byte[] rowToReadInto = getBytesOfInvertedIndexRAF(pointerAndLength);
         List<Integer> integersInBytesRow = decodeBytesToIntegers(rowToReadInto);
-        TreeMap<Integer, Integer> results =  getMapFromListOfIntegers(integersInBytesRow);
-        if(IndexInvalidationTool.isInvalidationDirty()){ // no querying when there has been no deletion
-            IndexInvalidationTool.filterResults(mainIndexDirectory.getAbsolutePath(), results);
-        }
-        return results;
+        return getMapFromListOfIntegers(integersInBytesRow, segmentDeletionBitmap);
     }
 
     TreeMap<Integer, Integer> getRidToFreqMapFromRawInvertedIndex(byte[] rowToReadInto) {
         List<Integer> integersInBytesRow = decodeBytesToIntegers(rowToReadInto);
-        TreeMap<Integer, Integer> results =  getMapFromListOfIntegers(integersInBytesRow);
-        if(IndexInvalidationTool.isInvalidationDirty()){ // no querying when there has been no deletion
-            IndexInvalidationTool.filterResults(mainIndexDirectory.getAbsolutePath(), results);
-        }
-        return results;
+        return getMapFromListOfIntegers(integersInBytesRow, segmentDeletionBitmap);
     }
 
 
@@ -212,7 +250,8 @@ public class SingleIndexReader {
         return rowToReadInto;
     }
 
-    private TreeMap<Integer,Integer> getMapFromListOfIntegers(List<Integer> integersInBytesRow) {
+    private TreeMap<Integer,Integer> getMapFromListOfIntegers(List<Integer> integersInBytesRow,
+                                                             DeletionBitmap deletionBitmap) {
         int size = integersInBytesRow.size();
         assert size % 2 == 0 : "Bad read of bytes line";
 
@@ -225,8 +264,10 @@ public class SingleIndexReader {
         for (int i = 0; i < gaps.size(); i++) {
             int gap = gaps.get(i);
             gapCumSum += gap;
-            int frequency = frequencies.get(i);
-            finalMap.put(gapCumSum, frequency);
+            if (deletionBitmap == null || !deletionBitmap.contains(gapCumSum)) {
+                int frequency = frequencies.get(i);
+                finalMap.put(gapCumSum, frequency);
+            }
 
         }
         return finalMap;
@@ -236,12 +277,8 @@ public class SingleIndexReader {
         return invertedIndexFile;
     }
 
-    public int getFRONT_CODE_ROW_SIZE_IN_BYTES() {
-        return FRONT_CODE_ROW_SIZE_IN_BYTES;
-    }
-
-    public int getIndexDictionaryLength() {
-        return indexDictionary.length;
+    public int getNumOfRows() {
+        return numOfRows;
     }
 
     public File getCurrentIndexDirectory() {
@@ -22,7 +22,6 @@ class SingleIndexReaderQueue{
 
     // words reading
     private final SingleIndexReader singleIndexReader;
-    private int bytesPointer = 0;
     private int rowsPointer = 0;
 
     // inverted index reading
@@ -68,11 +67,11 @@ class SingleIndexReaderQueue{
     }
 
     private boolean areThereStillMoreWordsToLoad(){
-        return bytesPointer < singleIndexReader.getIndexDictionaryLength();
+        return rowsPointer < singleIndexReader.getNumOfRows();
     }
 
     private void loadQueue() throws IOException {
-        Map<String, TokenMetaData> wordToTokenMetaData = singleIndexReader.getWordsFromRowOfBytes(bytesPointer, rowsPointer);
+        Map<String, TokenMetaData> wordToTokenMetaData = singleIndexReader.getWordsOfRow(rowsPointer);
         for(Map.Entry<String, TokenMetaData> entry: wordToTokenMetaData.entrySet()){
             InvertedIndex invertedIndex = getInvertedIndex(entry);
             if(invertedIndex != null){ // might get no inverted index because of deletion, FILTERED IN THE LINE ABOVE
@@ -81,8 +80,7 @@ class SingleIndexReaderQueue{
             }
         }
         rowsPointer++;
-        bytesPointer += singleIndexReader.getFRONT_CODE_ROW_SIZE_IN_BYTES();
-        if(bytesPointer >= singleIndexReader.getIndexDictionaryLength()){
+        if(rowsPointer >= singleIndexReader.getNumOfRows()){
             setQueueDoneLoading();
         }
     }
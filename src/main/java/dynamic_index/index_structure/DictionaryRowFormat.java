@@ -0,0 +1,117 @@
+package dynamic_index.index_structure;
+
+import java.nio.ByteBuffer;
+
+/**
+ * How the rows of a dictionary file (one front code block each) are laid out, recorded in the segment data.
+ * FIXED_WIDTH - every row is the string pointer and (length, prefix length, postings pointer, postings length) of
+ * every word, the pointers and lengths as 4-byte ints, and a short last row is padded with zeros, so row r starts
+ * at r times the row size.
+ * COMPACT - a row is the string pointer and the postings pointer of its first word as varints, and
+ * (length, prefix length, postings length as a varint) of each of its words; the postings pointer of a word is the
+ * pointer of the word before it plus its postings length. The rows have no padding, and are followed by the offset
+ * of every row as an int and the number of rows as an int, for the binary search.
+ */
+public enum DictionaryRowFormat {
+    FIXED_WIDTH, COMPACT;
+
+    /**
+     * The format of the indexes written, unless another format is given, as all indexes were written before the
+     * format was recorded.
+     */
+    public static final DictionaryRowFormat BASE_ROW_FORMAT = FIXED_WIDTH;
+
+    private static final int VAR_INT_PAYLOAD_BITS = 7;
+    private static final int VAR_INT_CONTINUATION_BIT = 0x80;
+    public static final int MAX_VAR_INT_SIZE_IN_BYTES = 5;
+
+    /**
+     * @param dictionary - the bytes of a dictionary file of this format.
+     * @param numOfTokensInFrontCodeBlock - number of words in a row of the dictionary.
+     * @return number of rows in the dictionary.
+     */
+    public int getNumOfRows(byte[] dictionary, int numOfTokensInFrontCodeBlock) {
+        if (this == FIXED_WIDTH) {
+            return dictionary.length / getFixedRowSize(numOfTokensInFrontCodeBlock);
+        }
+        return ByteBuffer.wrap(dictionary).getInt(dictionary.length - Integer.BYTES);
+    }
+
+    /**
+     * @param dictionary - the bytes of a dictionary file of this format.
+     * @param row - number of a row, from 0.
+     * @param numOfTokensInFrontCodeBlock - number of words in a row of the dictionary.
+     * @return the offset of the first byte of the row.
+     */
+    public int getRowOffset(byte[] dictionary, int row, int numOfTokensInFrontCodeBlock) {
+        if (this == FIXED_WIDTH) {
+            return row * getFixedRowSize(numOfTokensInFrontCodeBlock);
+        }
+        return ByteBuffer.wrap(dictionary).getInt(getOffsetTableStart(dictionary) + Integer.BYTES * row);
+    }
+
+    /**
+     * @return the offset after the last byte of the row.
+     */
+    public int getRowEnd(byte[] dictionary, int row, int numOfTokensInFrontCodeBlock) {
+        if (this == FIXED_WIDTH || row + 1 < getNumOfRows(dictionary, numOfTokensInFrontCodeBlock)) {
+            return getRowOffset(dictionary, row + 1, numOfTokensInFrontCodeBlock);
+        }
+        return getOffsetTableStart(dictionary);
+    }
+
+    /**
+     * @param numOfTokensInFrontCodeBlock - number of words in a row.
+     * @return the size of every row of a FIXED_WIDTH dictionary.
+     */
+    public static int getFixedRowSize(int numOfTokensInFrontCodeBlock) {
+        return Integer.BYTES + FrontCodeBlock.BYTES_IN_WORD_BLOCK * numOfTokensInFrontCodeBlock;
+    }
+
+    private static int getOffsetTableStart(byte[] dictionary) {
+        int numOfRows = ByteBuffer.wrap(dictionary).getInt(dictionary.length - Integer.BYTES);
+        return dictionary.length - Integer.BYTES - Integer.BYTES * numOfRows;
+    }
+
+    //=========================  Varints of COMPACT rows  =====================================//
+
+    /**
+     * Writes a non-negative int in 7-bit groups, low group first, the high bit set on every byte but the last.
+     * @return the offset after the written bytes.
+     */
+    public static int putVarInt(int value, byte[] destination, int offset) {
+        while ((value & ~(VAR_INT_CONTINUATION_BIT - 1)) != 0) {
+            destination[offset++] = (byte) ((value & (VAR_INT_CONTINUATION_BIT - 1)) | VAR_INT_CONTINUATION_BIT);
+            value >>>= VAR_INT_PAYLOAD_BITS;
+        }
+        destination[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * @return the int written by putVarInt at the offset.
+     */
+    public static int getVarInt(byte[] source, int offset) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = source[offset++];
+            value |= (b & (VAR_INT_CONTINUATION_BIT - 1)) << shift;
+            shift += VAR_INT_PAYLOAD_BITS;
+        } while ((b & VAR_INT_CONTINUATION_BIT) != 0);
+        return value;
+    }
+
+    /**
+     * @return number of bytes putVarInt writes for the value.
+     */
+    public static int getVarIntSize(int value) {
+        int size = 1;
+        while ((value & ~(VAR_INT_CONTINUATION_BIT - 1)) != 0) {
+            value >>>= VAR_INT_PAYLOAD_BITS;
+            size++;
+        }
+        return size;
+    }
+}
@@ -1,7 +1,7 @@
 package dynamic_index.index_structure;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Map;
 import java.util.TreeMap;
 
 import static dynamic_index.global_tools.MiscTools.intToByteArray;
@@ -28,8 +28,22 @@ public class FrontCodeBlock {
 
     public FrontCodeBlock(TreeMap<String,? extends WritingMeasurable> blockOfWordsAndData,
                    int blocksReadInBytesSoFar, int numOfTokensInFrontCodeBlock) {
+        this(blockOfWordsAndData.keySet().toArray(new String[0]), getSizesOfInverted(blockOfWordsAndData),
+                blockOfWordsAndData.size(), blocksReadInBytesSoFar, numOfTokensInFrontCodeBlock);
+    }
+
+    /**
+     * Creates a block from words already in order, without a map.
+     * @param wordsOfBlock - the words of the block in lexicographic order, from index 0.
+     * @param sizesOfInverted - number of bytes of each word in the inverted index file, at the word's index.
+     * @param numOfWordsInBlock - number of words used from the arrays, at most numOfTokensInFrontCodeBlock.
+     * @param blocksReadInBytesSoFar - bytes of the inverted index file before the first word of the block.
+     * @param numOfTokensInFrontCodeBlock - capacity of a block, the length of every row.
+     */
+    public FrontCodeBlock(String[] wordsOfBlock, int[] sizesOfInverted, int numOfWordsInBlock,
+                          int blocksReadInBytesSoFar, int numOfTokensInFrontCodeBlock) {
         this.frontCodeBlockTokenCapacity = numOfTokensInFrontCodeBlock;
-        this.blockSize = blockOfWordsAndData.size(); // might be lower than capacity in the end of index
+        this.blockSize = numOfWordsInBlock; // might be lower than capacity in the end of index
         assert this.blockSize > 0 : "empty words block";
         this.stringPointer = new byte[Integer.BYTES];
         this.lengthsInBlock = new byte[blockSize];
@@ -39,17 +53,22 @@ public class FrontCodeBlock {
 
         this.bytesOfInvertedIndexWrittenSoFar = blocksReadInBytesSoFar;
 
-        createCompression(blockOfWordsAndData);
+        createCompression(wordsOfBlock, sizesOfInverted);
     }
 
-
-    private void createCompression(TreeMap<String, ? extends WritingMeasurable> blockOfWordsAndData) {
-        String firstWord = blockOfWordsAndData.firstKey();
+    private static int[] getSizesOfInverted(TreeMap<String, ? extends WritingMeasurable> blockOfWordsAndData) {
+        int[] sizesOfInverted = new int[blockOfWordsAndData.size()];
         int i = 0;
-        for (Map.Entry<String, ? extends WritingMeasurable> entry: blockOfWordsAndData.entrySet()) {
-            int sizeOfInvertedOfWord = entry.getValue().getNumberOfBytesWrittenToOutput();
-            compressWord(firstWord, entry.getKey(), sizeOfInvertedOfWord, i);
-            i++;
+        for (WritingMeasurable data : blockOfWordsAndData.values()) {
+            sizesOfInverted[i++] = data.getNumberOfBytesWrittenToOutput();
+        }
+        return sizesOfInverted;
+    }
+
+    private void createCompression(String[] wordsOfBlock, int[] sizesOfInverted) {
+        String firstWord = wordsOfBlock[0];
+        for (int i = 0; i < blockSize; i++) {
+            compressWord(firstWord, wordsOfBlock[i], sizesOfInverted[i], i);
         }
     }
 
@@ -102,6 +121,27 @@ public class FrontCodeBlock {
         return blockRow;
     }
 
+    /**
+     * The row of the block in the COMPACT format of DictionaryRowFormat: only the bytes of the words of the block,
+     * without padding.
+     * @param lengthOfStringSoFar - characters of the concatenated string before the block.
+     * @return the bytes of the row.
+     */
+    public byte[] getCompactBlockRow(int lengthOfStringSoFar) {
+        byte[] blockRow = new byte[DictionaryRowFormat.MAX_VAR_INT_SIZE_IN_BYTES * 2
+                + (2 + DictionaryRowFormat.MAX_VAR_INT_SIZE_IN_BYTES) * blockSize];
+        ByteBuffer pointers = ByteBuffer.wrap(pointersInBlock);
+        ByteBuffer pointersLengths = ByteBuffer.wrap(pointersLengthsInBlock);
+        int rowLength = DictionaryRowFormat.putVarInt(lengthOfStringSoFar, blockRow, 0);
+        rowLength = DictionaryRowFormat.putVarInt(pointers.getInt(0), blockRow, rowLength);
+        for (int i = 0; i < blockSize; i++) {
+            blockRow[rowLength++] = lengthsInBlock[i];
+            blockRow[rowLength++] = prefixLengthsInBlock[i];
+            rowLength = DictionaryRowFormat.putVarInt(pointersLengths.getInt(Integer.BYTES * i), blockRow, rowLength);
+        }
+        return Arrays.copyOf(blockRow, rowLength);
+    }
+
     public int getBytesOfInvertedIndexWrittenSoFar() {
         return this.bytesOfInvertedIndexWrittenSoFar;
     }
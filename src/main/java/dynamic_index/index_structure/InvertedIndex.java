@@ -2,7 +2,9 @@ package dynamic_index.index_structure;
 
 
 import java.io.*;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import static dynamic_index.global_tools.LengthPrecodedVarintCodec.intToCompressedByteArray;
@@ -179,6 +181,14 @@ public class InvertedIndex implements WritingMeasurable, Comparable<InvertedInde
         return ridToFrequencyMap.firstKey();
     }
 
+    int getLastRid(){
+        return ridToFrequencyMap.lastKey();
+    }
+
+    Set<Integer> getRids(){
+        return Collections.unmodifiableSet(ridToFrequencyMap.keySet());
+    }
+
     /**
      * @return - the name of the directory in which the inverted index is
      */
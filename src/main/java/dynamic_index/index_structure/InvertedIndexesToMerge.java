@@ -52,6 +52,16 @@ public class InvertedIndexesToMerge implements WritingMeasurable{
         }
     }
 
+    /**
+     * Extends the rid range of the segment that this word is written to by the rids of all the inverted indexes.
+     * @param segmentInfo - data of the segment being written.
+     */
+    public void addRidsTo(SegmentInfo segmentInfo) {
+        for(InvertedIndex invertedIndex: firstRidToInvertedIndex.values()){
+            segmentInfo.include(invertedIndex);
+        }
+    }
+
     @Override
     public int getNumberOfBytesWrittenToOutput() {
         return amountOfBytesWrittenExternalOutput;
@@ -0,0 +1,77 @@
+package dynamic_index.index_structure;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static dynamic_index.global_tools.LengthPrecodedVarintCodec.MAX_COMPRESSED_INT_SIZE;
+import static dynamic_index.global_tools.LengthPrecodedVarintCodec.putCompressedInt;
+
+/**
+ * The rids and frequencies of a word, kept compressed as they are written to the inverted index file: the rid
+ * gaps and the frequencies, each encoded by length-precoded varint into a growing byte array. Takes a few bytes
+ * per review instead of the map entry of an InvertedIndex, so many reviews can be inverted in memory.
+ *
+ * ASSUMPTION - rids are added in increasing order.
+ */
+public class PostingsList implements WritingMeasurable {
+
+    private static final int INITIAL_CAPACITY_IN_BYTES = 2 * MAX_COMPRESSED_INT_SIZE;
+
+    private byte[] encodedRidGaps = new byte[INITIAL_CAPACITY_IN_BYTES];
+    private int numOfRidGapBytes = 0;
+    private byte[] encodedFrequencies = new byte[INITIAL_CAPACITY_IN_BYTES];
+    private int numOfFrequencyBytes = 0;
+    private int lastRid = 0;
+
+    /**
+     * Adds a review to the end of the postings.
+     * @param rid - review ID, larger than all rids added before.
+     * @param frequency - the word's frequency in the review of rid.
+     * @return the number of bytes the arrays of this postings list grew by.
+     */
+    public int add(int rid, int frequency) {
+        assert rid > lastRid;
+        int capacityBefore = getCapacityInBytes();
+        if (numOfRidGapBytes + MAX_COMPRESSED_INT_SIZE > encodedRidGaps.length) {
+            encodedRidGaps = Arrays.copyOf(encodedRidGaps, 2 * encodedRidGaps.length);
+        }
+        if (numOfFrequencyBytes + MAX_COMPRESSED_INT_SIZE > encodedFrequencies.length) {
+            encodedFrequencies = Arrays.copyOf(encodedFrequencies, 2 * encodedFrequencies.length);
+        }
+        numOfRidGapBytes += putCompressedInt(rid - lastRid, encodedRidGaps, numOfRidGapBytes);
+        numOfFrequencyBytes += putCompressedInt(frequency, encodedFrequencies, numOfFrequencyBytes);
+        lastRid = rid;
+        return getCapacityInBytes() - capacityBefore;
+    }
+
+    /**
+     * Empties the postings list for another word, keeping its arrays.
+     */
+    public void clear() {
+        numOfRidGapBytes = 0;
+        numOfFrequencyBytes = 0;
+        lastRid = 0;
+    }
+
+    /**
+     * @return the bytes taken by the arrays of this postings list, not only the bytes used.
+     */
+    public int getCapacityInBytes() {
+        return encodedRidGaps.length + encodedFrequencies.length;
+    }
+
+    /**
+     * Writes the rid gaps and then the frequencies, as an InvertedIndex writes them.
+     * @param bosOfAllInverted - output stream to the whole index inverted file.
+     */
+    public void writeTo(BufferedOutputStream bosOfAllInverted) throws IOException {
+        bosOfAllInverted.write(encodedRidGaps, 0, numOfRidGapBytes);
+        bosOfAllInverted.write(encodedFrequencies, 0, numOfFrequencyBytes);
+    }
+
+    @Override
+    public int getNumberOfBytesWrittenToOutput() {
+        return numOfRidGapBytes + numOfFrequencyBytes;
+    }
+}
@@ -77,13 +77,22 @@ public class ReviewMetaData implements Comparable<ReviewMetaData>{
 
         public byte[] asByteArray(){
             ByteBuffer rowBuffer = ByteBuffer.allocate(sizeOfBytesArray);
+            putRow(rowBuffer, rid, pid.getBytes(), score, helpN, helpD, reviewLength);
+            return rowBuffer.array();
+        }
+
+        /**
+         * Puts the row of a review meta data in a buffer, as asByteArray() does, without creating the review meta data.
+         * @param pidBytes - LENGTH_OF_PID bytes of the pid, the rest of the array is ignored.
+         */
+        public static void putRow(ByteBuffer rowBuffer, int rid, byte[] pidBytes,
+                                  byte score, short helpN, short helpD, short reviewLength){
             rowBuffer.putInt(rid);
-            rowBuffer.put(pid.getBytes());
+            rowBuffer.put(pidBytes, 0, LENGTH_OF_PID);
             rowBuffer.put(score);
             rowBuffer.putShort(helpN);
             rowBuffer.putShort(helpD);
             rowBuffer.putShort(reviewLength);
-            return rowBuffer.array();
         }
 
 
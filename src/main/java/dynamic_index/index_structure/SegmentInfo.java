@@ -0,0 +1,229 @@
+package dynamic_index.index_structure;
+
+import dynamic_index.global_tools.DeletionBitmap;
+import dynamic_index.global_tools.MiscTools;
+
+import java.io.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Data about a single index (a segment): the main index, an auxiliary index or a log-merge index.
+ * Written to the segment's directory together with its words files and never changed afterwards, so
+ * anything that changes later (e.g. deletions) is kept in other files and refers to the segment by its id.
+ */
+public class SegmentInfo {
+
+    // the first byte of a segment data file, to be changed whenever its layout changes
+    private static final byte SEGMENT_INFO_FORMAT = 1;
+
+    private final long segmentId;
+    private int minRid = Integer.MAX_VALUE;
+    private int maxRid = 0;
+    private int numOfReviews = 0;
+    private int numOfTokensInFrontCodeBlock = MiscTools.BASE_NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK;
+    private DictionaryRowFormat dictionaryRowFormat = DictionaryRowFormat.BASE_ROW_FORMAT;
+
+    // rids written so far, only while the segment is written. The bitmap is used here just as a compact set of rids.
+    private DeletionBitmap writtenRids = new DeletionBitmap();
+
+    /**
+     * Creates the data of a new segment, with a new unique id and an empty rid range.
+     */
+    public SegmentInfo() {
+        this.segmentId = ThreadLocalRandom.current().nextLong();
+    }
+
+    private SegmentInfo(long segmentId, int minRid, int maxRid, int numOfReviews, int numOfTokensInFrontCodeBlock,
+                        DictionaryRowFormat dictionaryRowFormat) {
+        this.segmentId = segmentId;
+        this.minRid = minRid;
+        this.maxRid = maxRid;
+        this.numOfReviews = numOfReviews;
+        this.numOfTokensInFrontCodeBlock = numOfTokensInFrontCodeBlock;
+        this.dictionaryRowFormat = dictionaryRowFormat;
+        this.writtenRids = null;
+    }
+
+    /**
+     * Sets the number of words in a row of the dictionary of the segment, before the segment is written.
+     * @param numOfTokensInFrontCodeBlock - the block size the words files of the segment are written with.
+     */
+    public void setNumOfTokensInFrontCodeBlock(int numOfTokensInFrontCodeBlock) {
+        assert writtenRids != null : "the segment is already written";
+        this.numOfTokensInFrontCodeBlock = numOfTokensInFrontCodeBlock;
+    }
+
+    /**
+     * Sets the format of the rows of the dictionary of the segment, before the segment is written.
+     * @param dictionaryRowFormat - the format the dictionary file of the segment is written in.
+     */
+    public void setDictionaryRowFormat(DictionaryRowFormat dictionaryRowFormat) {
+        assert writtenRids != null : "the segment is already written";
+        this.dictionaryRowFormat = dictionaryRowFormat;
+    }
+
+    /**
+     * Extends the rid range of the segment by a single rid, and counts it if it was not written before.
+     * @param rid - a review ID written to the segment.
+     */
+    public void includeRid(int rid) {
+        minRid = Math.min(minRid, rid);
+        maxRid = Math.max(maxRid, rid);
+        if (writtenRids.add(rid)) {
+            numOfReviews++;
+        }
+    }
+
+    /**
+     * Extends the rid range of the segment by all rids of an inverted index written to it.
+     * @param invertedIndex - inverted index written to the segment.
+     */
+    public void include(InvertedIndex invertedIndex) {
+        for (int rid : invertedIndex.getRids()) {
+            includeRid(rid);
+        }
+    }
+
+    /**
+     * Extends the rid range of the segment by all rids of another segment being written, e.g. a part of it
+     * written on another thread.
+     * @param writtenPart - data of a segment that was not written to a directory.
+     */
+    public void includeAll(SegmentInfo writtenPart) {
+        writtenPart.writtenRids.forEach(this::includeRid);
+    }
+
+    /**
+     * @param rid - review ID.
+     * @return true if the rid is in the rid range of the segment.
+     */
+    public boolean containsRid(int rid) {
+        return rid >= minRid && rid <= maxRid;
+    }
+
+    public boolean isEmpty() {
+        return minRid > maxRid;
+    }
+
+    public long getSegmentId() {
+        return segmentId;
+    }
+
+    public int getMinRid() {
+        return minRid;
+    }
+
+    public int getMaxRid() {
+        return maxRid;
+    }
+
+    /**
+     * @return number of words in a row of the dictionary of the segment, that readers of it must use.
+     */
+    public int getNumOfTokensInFrontCodeBlock() {
+        return numOfTokensInFrontCodeBlock;
+    }
+
+    /**
+     * @return format of the rows of the dictionary of the segment, that readers of it must use.
+     */
+    public DictionaryRowFormat getDictionaryRowFormat() {
+        return dictionaryRowFormat;
+    }
+
+    /**
+     * @return number of reviews that have at least one posting in the segment.
+     */
+    public int getNumOfReviews() {
+        return numOfReviews;
+    }
+
+    /**
+     * @param segmentDeletions - deletions of this segment, may be null.
+     * @return the fraction of the reviews of the segment that are deleted, used as the fraction of dead postings.
+     */
+    public double getDeletedRatio(DeletionBitmap segmentDeletions) {
+        if (segmentDeletions == null || numOfReviews == 0) {
+            return 0;
+        }
+        return Math.min(1.0, (double) segmentDeletions.getCardinality() / numOfReviews);
+    }
+
+    //=========================  Persistence  =====================================//
+
+    /**
+     * Writes the segment data into the segment directory: the format, the id, the rid range and the number of
+     * reviews, the number of words in a dictionary row and the format of the rows.
+     * @param segmentDirectory - directory of the segment's words files.
+     */
+    public void write(File segmentDirectory) {
+        File segmentInfoFile = getSegmentInfoFile(segmentDirectory);
+        try (DataOutputStream segmentInfoDOS = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(segmentInfoFile)))) {
+            segmentInfoDOS.writeByte(SEGMENT_INFO_FORMAT);
+            segmentInfoDOS.writeLong(segmentId);
+            segmentInfoDOS.writeInt(minRid);
+            segmentInfoDOS.writeInt(maxRid);
+            segmentInfoDOS.writeInt(numOfReviews);
+            segmentInfoDOS.writeInt(numOfTokensInFrontCodeBlock);
+            segmentInfoDOS.writeInt(dictionaryRowFormat.ordinal());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        writtenRids = null; // the segment is complete
+    }
+
+    /**
+     * Reads the segment data of a segment directory.
+     * @param segmentDirectory - directory of the segment's words files.
+     * @return the segment data, or null if the directory has no segment data, or data of another format.
+     */
+    public static SegmentInfo read(File segmentDirectory) {
+        File segmentInfoFile = getSegmentInfoFile(segmentDirectory);
+        if (!segmentInfoFile.exists()) {
+            return null;
+        }
+        try (DataInputStream segmentInfoDIS = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(segmentInfoFile)))) {
+            byte format = segmentInfoDIS.readByte();
+            if (format != SEGMENT_INFO_FORMAT) {
+                throw new IOException("Unknown format " + format + " of the segment data in " + segmentDirectory);
+            }
+            long segmentId = segmentInfoDIS.readLong();
+            int minRid = segmentInfoDIS.readInt();
+            int maxRid = segmentInfoDIS.readInt();
+            int numOfReviews = segmentInfoDIS.readInt();
+            int numOfTokensInFrontCodeBlock = segmentInfoDIS.readInt();
+            DictionaryRowFormat dictionaryRowFormat = DictionaryRowFormat.values()[segmentInfoDIS.readInt()];
+            return new SegmentInfo(segmentId, minRid, maxRid, numOfReviews, numOfTokensInFrontCodeBlock,
+                    dictionaryRowFormat);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @param directory - some directory.
+     * @return true if the directory holds a segment.
+     */
+    public static boolean isSegmentDirectory(File directory) {
+        return getSegmentInfoFile(directory).exists();
+    }
+
+    private static File getSegmentInfoFile(File segmentDirectory) {
+        return new File(segmentDirectory.getPath() + File.separator + MiscTools.SEGMENT_INFO_FILENAME);
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentInfo{" +
+                "segmentId=" + segmentId +
+                ", minRid=" + minRid +
+                ", maxRid=" + maxRid +
+                ", numOfReviews=" + numOfReviews +
+                ", numOfTokensInFrontCodeBlock=" + numOfTokensInFrontCodeBlock +
+                ", dictionaryRowFormat=" + dictionaryRowFormat +
+                '}';
+    }
+}
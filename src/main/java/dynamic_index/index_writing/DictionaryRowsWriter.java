@@ -0,0 +1,75 @@
+package dynamic_index.index_writing;
+
+import dynamic_index.index_structure.DictionaryRowFormat;
+import dynamic_index.index_structure.FrontCodeBlock;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes the rows of a dictionary file in a DictionaryRowFormat. The offsets of COMPACT rows are kept while they
+ * are written, and written after the last row when the writer is closed.
+ */
+class DictionaryRowsWriter implements Closeable {
+
+    private static final int INITIAL_NUM_OF_ROW_OFFSETS = 1024;
+
+    private final DataOutputStream frontCodeDOS;
+    private final DictionaryRowFormat rowFormat;
+    private int[] rowOffsets;
+    private int numOfRows = 0;
+    private int numOfBytesWritten = 0;
+
+    /**
+     * @param frontCodeOutputStream - stream of the dictionary file, closed with this writer.
+     * @param rowFormat - format of the rows.
+     */
+    DictionaryRowsWriter(OutputStream frontCodeOutputStream, DictionaryRowFormat rowFormat) {
+        this.frontCodeDOS = new DataOutputStream(frontCodeOutputStream);
+        this.rowFormat = rowFormat;
+        this.rowOffsets = rowFormat == DictionaryRowFormat.COMPACT ? new int[INITIAL_NUM_OF_ROW_OFFSETS] : null;
+    }
+
+    /**
+     * @param frontCodeBlock - the next block of the dictionary.
+     * @param lengthOfStringSoFar - characters of the concatenated string before the block.
+     */
+    void writeRow(FrontCodeBlock frontCodeBlock, int lengthOfStringSoFar) throws IOException {
+        writeRow(rowFormat == DictionaryRowFormat.COMPACT
+                ? frontCodeBlock.getCompactBlockRow(lengthOfStringSoFar)
+                : frontCodeBlock.getBlockRow(lengthOfStringSoFar));
+    }
+
+    /**
+     * @param blockRow - the bytes of the next row, in the format of this writer.
+     */
+    void writeRow(byte[] blockRow) throws IOException {
+        if (rowOffsets != null) {
+            if (numOfRows == rowOffsets.length) {
+                rowOffsets = Arrays.copyOf(rowOffsets, numOfRows * 2);
+            }
+            rowOffsets[numOfRows] = numOfBytesWritten;
+        }
+        numOfRows++;
+        frontCodeDOS.write(blockRow);
+        numOfBytesWritten += blockRow.length;
+    }
+
+    DictionaryRowFormat getRowFormat() {
+        return rowFormat;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (rowOffsets != null) {
+            for (int i = 0; i < numOfRows; i++) {
+                frontCodeDOS.writeInt(rowOffsets[i]);
+            }
+            frontCodeDOS.writeInt(numOfRows);
+        }
+        frontCodeDOS.close();
+    }
+}
@@ -7,6 +7,7 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import static dynamic_index.global_tools.MiscTools.WHITE_SPACE_SEPARATOR;
 
@@ -18,6 +19,7 @@ public class ReviewsMetaDataIndexWriter {
 
     public static final int NUM_OF_REVIEW_META_DATA_FIELDS = 6;
     private BufferedOutputStream bosMetaWriter;
+    private final ByteBuffer rowBuffer = ByteBuffer.allocate(ReviewMetaData.sizeOfBytesArray);
 
     public ReviewsMetaDataIndexWriter(String allIndexDirectory) {
         initializeFiles(allIndexDirectory);
@@ -54,6 +56,31 @@ public class ReviewsMetaDataIndexWriter {
     }
 
 
+    /**
+     * Writes the review meta data as bytes into the inner output stream, from values that are already parsed.
+     * A review whose pid is missing or not of ReviewMetaData.LENGTH_OF_PID bytes is not written, as a review meta
+     * data string without 6 values is not.
+     * @param pid - array whose first pidLength bytes are the pid.
+     */
+    public void writeData(int rid, byte[] pid, int pidLength,
+                          int helpfulnessNumerator, int helpfulnessDenominator, int score, int reviewLength) {
+        if (pidLength != ReviewMetaData.LENGTH_OF_PID) {
+            System.err.format("review meta data of rid %s has a pid of %s bytes, not %s%s",
+                    rid, pidLength, ReviewMetaData.LENGTH_OF_PID, System.lineSeparator());
+            return;
+        }
+        assert helpfulnessNumerator <= Short.MAX_VALUE && helpfulnessDenominator <= Short.MAX_VALUE;
+        assert score <= Byte.MAX_VALUE && reviewLength <= Short.MAX_VALUE;
+        rowBuffer.clear();
+        ReviewMetaData.putRow(rowBuffer, rid, pid, (byte) score,
+                (short) helpfulnessNumerator, (short) helpfulnessDenominator, (short) reviewLength);
+        try {
+            bosMetaWriter.write(rowBuffer.array());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public void closeWriter() {
         try {
             bosMetaWriter.close();
@@ -1,42 +1,52 @@
 package dynamic_index.index_writing;
 
 import dynamic_index.global_tools.MiscTools;
+import dynamic_index.index_structure.DictionaryRowFormat;
 import dynamic_index.index_structure.FrontCodeBlock;
-import dynamic_index.index_structure.InvertedIndex;
+import dynamic_index.index_structure.PostingsList;
+import dynamic_index.index_structure.SegmentInfo;
 
 import java.io.*;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 
 /**
- * Holds the token to review and frequency mapping, and write it to a designated index
- * files. The source of data for this index is a huge file of pairs of (tid,rid) sorted by tid and
- * then by rid.
+ * Writes a words index from a huge stream of triples of (tid,rid,frequency) sorted by tid and then by rid, as the
+ * last pass of the external sort merges them, in constant memory: the postings of a word are written the moment its
+ * tid changes, and a dictionary row every numOfTokensInFrontCodeBlock words. Tids are given to the words in
+ * lexicographic order, so the words come out sorted.
  */
 public class WordsExternalIndexWriter {
 
     private final File indexDirectory;
-    private StringBuilder allWordsSuffixConcatInBlock = new StringBuilder(MiscTools.STRING_BUILDER_DEFAULT_CAPACITY);
     private int numOfCharactersWrittenInSuffixFile = 0;
     private int numOfBytesWrittenInInvertedIndexFile = 0;
 
-    private BufferedOutputStream frontCodeOutputStream;
+    private DictionaryRowsWriter dictionaryRowsWriter;
     private BufferedOutputStream invertedOutputStream;
     private BufferedWriter bufferedStringConcatWriter;
-    private boolean isInLastWriteIteration = false;
-    private int numOfTokensInFrontCodeBlock = 8;
+    private int numOfTokensInFrontCodeBlock = MiscTools.BASE_NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK;
+    private Map<Integer, String> termIdToTerm;
 
-    private final Map<String, InvertedIndex> wordToInvertedIndex = new TreeMap<>();
+    // the word being read: its rids are added one review behind, so the frequencies of a repeated rid are summed
+    private int currentTid = 0;
+    private int pendingRid = 0;
+    private int pendingFrequency = 0;
+    private final PostingsList postingsOfCurrentWord = new PostingsList();
+
+    // the words of the dictionary row being filled, whose postings are already written
+    private String[] wordsOfBlock;
+    private int[] sizesOfInvertedOfBlock;
+    private int numOfWordsInBlock = 0;
+    private int numOfWordsWritten = 0;
+
+    private final SegmentInfo segmentInfo = new SegmentInfo();
 
     public WordsExternalIndexWriter(File directoryPath) {
         this.indexDirectory = directoryPath;
     }
 
-    private void instantiateIndexFiles(int readingBlockSize) {
+    private void instantiateIndexFiles(int writeBufferSize, DictionaryRowFormat dictionaryRowFormat) {
         File frontCodedFile = new File(indexDirectory + File.separator + MiscTools.WORDS_FRONT_CODED_FILENAME);
         File invIndexFile = new File(indexDirectory + File.separator + MiscTools.WORDS_INVERTED_INDEX_FILENAME);
         File stringConcatFile = new File(indexDirectory + File.separator + MiscTools.WORDS_CONCAT_FILENAME);
@@ -44,9 +54,11 @@ public class WordsExternalIndexWriter {
             if (frontCodedFile.createNewFile()
                     && invIndexFile.createNewFile()
                     && stringConcatFile.createNewFile()) {
-                frontCodeOutputStream = new BufferedOutputStream(new FileOutputStream(frontCodedFile), readingBlockSize);
-                invertedOutputStream = new BufferedOutputStream(new FileOutputStream(invIndexFile), readingBlockSize);
-                bufferedStringConcatWriter = new BufferedWriter(new FileWriter(stringConcatFile), readingBlockSize);
+                dictionaryRowsWriter = new DictionaryRowsWriter(
+                        new BufferedOutputStream(new FileOutputStream(frontCodedFile), writeBufferSize),
+                        dictionaryRowFormat);
+                invertedOutputStream = new BufferedOutputStream(new FileOutputStream(invIndexFile), writeBufferSize);
+                bufferedStringConcatWriter = new BufferedWriter(new FileWriter(stringConcatFile), writeBufferSize);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -55,201 +67,137 @@ public class WordsExternalIndexWriter {
     }
 
     /**
-     * Writes an index from a sorted file of tids and rids.
+     * Creates the index files, before the triples are added.
      * @param numOfTokensInFrontCodeBlock - will be used when building the dictionary
-     * @param readBlockSizeInPairs - the size of a block to read from  the sorted file.
+     * @param dictionaryRowFormat - format of the rows of the dictionary.
+     * @param writeBufferSizeInBytes - size of the buffer of each of the index files.
      * @param termIdToTerm - mapping of termId to term so we can know what words are represented in the sorted
-     *                     file by a tid
+     *                     triples by a tid
      */
-    public void writeFromSortedFileByBlocks(int numOfTokensInFrontCodeBlock,
-                                            int readBlockSizeInPairs,
-                                            Map<Integer, String> termIdToTerm) {
+    public void startWriting(int numOfTokensInFrontCodeBlock,
+                             DictionaryRowFormat dictionaryRowFormat,
+                             int writeBufferSizeInBytes,
+                             Map<Integer, String> termIdToTerm) {
         this.numOfTokensInFrontCodeBlock = numOfTokensInFrontCodeBlock;
-
-        int readingBlockSizeInBytes = readBlockSizeInPairs * MiscTools.PAIR_OF_INT_SIZE_IN_BYTES;
-        instantiateIndexFiles(readingBlockSizeInBytes);
-        File sortedFile = new File(indexDirectory + File.separator
-                + MiscTools.WORDS_SORTED_FILE_NAME);
-
-        writeFromSortedFileByBlocks(sortedFile, readingBlockSizeInBytes, termIdToTerm);
+        this.wordsOfBlock = new String[numOfTokensInFrontCodeBlock];
+        this.sizesOfInvertedOfBlock = new int[numOfTokensInFrontCodeBlock];
+        segmentInfo.setNumOfTokensInFrontCodeBlock(numOfTokensInFrontCodeBlock);
+        segmentInfo.setDictionaryRowFormat(dictionaryRowFormat);
+        this.termIdToTerm = termIdToTerm;
+        instantiateIndexFiles(writeBufferSizeInBytes, dictionaryRowFormat);
     }
 
-
-    private void writeFromSortedFileByBlocks(File sortedFile,
-                                             int readingBlockSizeInBytes,
-                                             Map<Integer, String> termIdToTerm) {
-        try (BufferedInputStream sortedFileBIS = new BufferedInputStream(new FileInputStream(sortedFile))) {
-            byte[] blockAsBytes = new byte[readingBlockSizeInBytes];
-            int amountOfBytesRead = sortedFileBIS.read(blockAsBytes);
-            while (amountOfBytesRead != -1) {
-                loadBlockToMap(blockAsBytes, amountOfBytesRead, termIdToTerm);
-                writeMapToFiles();
-                amountOfBytesRead = sortedFileBIS.read(blockAsBytes);
-            }
-            setInLastWriteIteration();
-            writeRemainderAndClose();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Adds the next triple of the sorted stream.
+     * @param tid - term id, not smaller than the tid added before.
+     * @param rid - review ID, not smaller than the rid added before if the tid is the same.
+     * @param frequency - frequency of the term in the review.
+     */
+    public void add(int tid, int rid, int frequency) throws IOException {
+        if (tid != currentTid) {
+            writeCurrentWord();
+            currentTid = tid;
+        } else if (rid == pendingRid) {
+            pendingFrequency += frequency;
+            return;
+        } else {
+            addPendingRid();
         }
+        pendingRid = rid;
+        pendingFrequency = frequency;
     }
 
+    private void addPendingRid() {
+        postingsOfCurrentWord.add(pendingRid, pendingFrequency);
+        segmentInfo.includeRid(pendingRid);
+    }
 
-    private void loadBlockToMap(byte[] blockAsBytes,
-                                int amountOfBytesRead,
-                                Map<Integer, String> termIdToTerm) {
-        ByteBuffer blockByteBuffer = ByteBuffer.wrap(blockAsBytes, 0, amountOfBytesRead);
-        List<Integer> ridsOfATid = new ArrayList<>(); // should result in ordered list
-
-        int previousTid = blockByteBuffer.getInt(0);
-        for (int i = 0; i < amountOfBytesRead; i += MiscTools.PAIR_OF_INT_SIZE_IN_BYTES) {
-            if (blockByteBuffer.getInt(i) == 0) {
-                break; // possibly hides other reasons for zeros...
-            }
-            int tid = blockByteBuffer.getInt();
-            int rid = blockByteBuffer.getInt();
-            if (tid != previousTid) {
-                insertHistogramToMap(previousTid, ridsOfATid, termIdToTerm);
-            }
-            ridsOfATid.add(rid);
-            previousTid = tid;
+    /*
+    Writes the postings of the current word to the inverted index file, and its dictionary row when the row is full.
+     */
+    private void writeCurrentWord() throws IOException {
+        if (currentTid == 0) {
+            return; // nothing read yet
         }
-        if (!ridsOfATid.isEmpty()) {
-            insertHistogramToMap(previousTid, ridsOfATid, termIdToTerm);
+        addPendingRid();
+        postingsOfCurrentWord.writeTo(invertedOutputStream);
+        wordsOfBlock[numOfWordsInBlock] = termIdToTerm.get(currentTid);
+        sizesOfInvertedOfBlock[numOfWordsInBlock] = postingsOfCurrentWord.getNumberOfBytesWrittenToOutput();
+        numOfWordsInBlock++;
+        numOfWordsWritten++;
+        postingsOfCurrentWord.clear();
+        if (numOfWordsInBlock == numOfTokensInFrontCodeBlock) {
+            writeFrontCodeBlock();
         }
-
     }
 
-    void writeMapToFiles() throws IOException {
-        int stopReadingFromMapAt = getStopReadingFromMapAt();
-        writeBlockOfInvertedIndexToFile(stopReadingFromMapAt); // first because byte calculation
-        writeFrontCodeFile(stopReadingFromMapAt);
-        writeStringConcatFile(); // has to be last, after the front code writing
-        resetIteration(stopReadingFromMapAt);
-    }
+    private void writeFrontCodeBlock() throws IOException {
+        FrontCodeBlock frontCodeBlock = new FrontCodeBlock(wordsOfBlock, sizesOfInvertedOfBlock, numOfWordsInBlock,
+                numOfBytesWrittenInInvertedIndexFile,
+                numOfTokensInFrontCodeBlock);
+        numOfBytesWrittenInInvertedIndexFile = frontCodeBlock.getBytesOfInvertedIndexWrittenSoFar();
 
-    private Map<Integer, Integer> getRidToFrequencyHistogram(List<Integer> rids) {
-        Map<Integer, Integer> histogram = new TreeMap<>();
-        for (Integer rid : rids) {
-            if (!histogram.containsKey(rid)) { //new token
-                histogram.put(rid, 1);
-            } else {
-                int newValueForToken = (histogram.get(rid) + 1);
-                histogram.put(rid, newValueForToken);
-            }
-        }
-        return histogram;
+        dictionaryRowsWriter.writeRow(frontCodeBlock, numOfCharactersWrittenInSuffixFile);
+        String compressedStringForBlock = frontCodeBlock.getCompressedString();
+        bufferedStringConcatWriter.write(compressedStringForBlock);
+        numOfCharactersWrittenInSuffixFile += compressedStringForBlock.length();
+        numOfWordsInBlock = 0;
     }
 
-    void insertHistogramToMap(int tid, List<Integer> ridsOfATid, Map<Integer, String> termIdToTerm) {
-        Map<Integer, Integer> ridToFrequencyHistogram = getRidToFrequencyHistogram(ridsOfATid);
-        String word = termIdToTerm.get(tid);
-        if (wordToInvertedIndex.containsKey(word)) { // word already in.. can this happen? how to prevent it
-            wordToInvertedIndex.get(word).putAll(ridToFrequencyHistogram);
-        } else { // new word
-            InvertedIndex invertedIndexOfWord = new InvertedIndex(word, ridToFrequencyHistogram, indexDirectory);
-            wordToInvertedIndex.put(word, invertedIndexOfWord);
-        }
-        ridsOfATid.clear();
-    }
-
-    int getStopReadingFromMapAt() {
-        int stopAt = wordToInvertedIndex.size(); // by default, read all words from map
-        if (!isInLastWriteIteration) {
-            if (wordToInvertedIndex.size() % numOfTokensInFrontCodeBlock != 0) {
-                // can't write less than a front block number of tokens
-                // guarantees to reduce the number of words written by at least 1, possibly all
-                stopAt = MiscTools.roundDownToMultiplicationOf(wordToInvertedIndex.size(),
-                        numOfTokensInFrontCodeBlock);
-            } else {
-                /* can't write all the words since the last word in a block might have more data for it.
-                 * So, we need to reduce one BLOCK of words */
-                stopAt -= numOfTokensInFrontCodeBlock;
-            }
-        }
-        return stopAt;
+    private void closeAllFiles() throws IOException {
+        dictionaryRowsWriter.close();
+        invertedOutputStream.close();
+        bufferedStringConcatWriter.close();
     }
 
-    void writeBlockOfInvertedIndexToFile(int stopWritingWordsAt) {
-        int i = 0; // i here is for stopping
-        for (InvertedIndex invertedIndexOfWord : wordToInvertedIndex.values()) {
-            if (!isInLastWriteIteration && i == stopWritingWordsAt) {
-                break;
-            }
-            // handles the writing with dump files if they exist
-            invertedIndexOfWord.writeCompressedRidsTo(invertedOutputStream, 0); // ignoring last rid here
-            invertedIndexOfWord.writeCompressedFrequenciesTo(invertedOutputStream);
-            i++;
-        }
+    /**
+     * Writes the last word and dictionary row, after the last triple was added, and closes the index files.
+     */
+    public void closeWriter() {
+        closeIndexFiles();
+        segmentInfo.write(indexDirectory);
     }
 
-    void writeFrontCodeFile(int stopWritingWordsAt) throws IOException {
-        TreeMap<String, InvertedIndex> blockOfWordsToInvertedIndex = new TreeMap<>();
-        int i = 0;
-        for (Map.Entry<String, InvertedIndex> wordAndInvertedIndex : wordToInvertedIndex.entrySet()) {
-            if (!isInLastWriteIteration && i == stopWritingWordsAt) {
-                break;
-            }
-            blockOfWordsToInvertedIndex.put(wordAndInvertedIndex.getKey(), wordAndInvertedIndex.getValue());
-            if (i % numOfTokensInFrontCodeBlock == numOfTokensInFrontCodeBlock - 1) {
-                writeFrontCodeBlock(blockOfWordsToInvertedIndex, numOfTokensInFrontCodeBlock);
-                blockOfWordsToInvertedIndex.clear();
+    /**
+     * As closeWriter(), but without writing the segment data, for an index that is a part of another one.
+     */
+    public void closeIndexFiles() {
+        try {
+            writeCurrentWord();
+            if (numOfWordsInBlock > 0) { // when: mod(number of words, 8) != 0
+                writeFrontCodeBlock();
             }
-            i++;
-        }
-        if (isInLastWriteIteration && !blockOfWordsToInvertedIndex.isEmpty()) { // when: mod(number of words, 8) != 0
-            writeFrontCodeBlock(blockOfWordsToInvertedIndex, numOfTokensInFrontCodeBlock);
+            closeAllFiles();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-
     }
 
-    void resetIteration(int stopWritingWordsAt) {
-        /* deleting from map all words that have been written */
-        Map<String, InvertedIndex> iterationRemainder = new TreeMap<>();
-        int i = 0;
-        for (Map.Entry<String, InvertedIndex> wordAndInvertedIndex : wordToInvertedIndex.entrySet()) {
-            if (i >= stopWritingWordsAt) {
-                iterationRemainder.put(wordAndInvertedIndex.getKey(), wordAndInvertedIndex.getValue());
-            }
-            i++;
-        }
-        wordToInvertedIndex.clear();
-        wordToInvertedIndex.putAll(iterationRemainder);
-        allWordsSuffixConcatInBlock = new StringBuilder(MiscTools.STRING_BUILDER_DEFAULT_CAPACITY);
+    File getIndexDirectory() {
+        return indexDirectory;
     }
 
-
-    void closeAllFiles() throws IOException {
-        frontCodeOutputStream.close();
-        invertedOutputStream.close();
-        bufferedStringConcatWriter.close();
+    int getNumOfTokensInFrontCodeBlock() {
+        return numOfTokensInFrontCodeBlock;
     }
 
+    DictionaryRowFormat getDictionaryRowFormat() {
+        return segmentInfo.getDictionaryRowFormat();
+    }
 
-    void writeFrontCodeBlock(TreeMap<String, InvertedIndex> blockOfWordToInvertedIndex, int numOfTokensInFrontCodeBlock)
-            throws IOException {
-        FrontCodeBlock frontCodeBlock = new FrontCodeBlock(blockOfWordToInvertedIndex,
-                numOfBytesWrittenInInvertedIndexFile,
-                numOfTokensInFrontCodeBlock);
-        numOfBytesWrittenInInvertedIndexFile = frontCodeBlock.getBytesOfInvertedIndexWrittenSoFar();
-
-        frontCodeOutputStream.write(frontCodeBlock.getBlockRow(numOfCharactersWrittenInSuffixFile));
-        String compressedStringForBlock = frontCodeBlock.getCompressedString();
-        allWordsSuffixConcatInBlock.append(compressedStringForBlock);
-        numOfCharactersWrittenInSuffixFile += compressedStringForBlock.length();
+    int getNumOfWordsWritten() {
+        return numOfWordsWritten;
     }
 
-    private void writeStringConcatFile()
-            throws IOException {
-        bufferedStringConcatWriter.write(allWordsSuffixConcatInBlock.toString());
+    int getNumOfCharactersWrittenInSuffixFile() {
+        return numOfCharactersWrittenInSuffixFile;
     }
 
-    void setInLastWriteIteration() {
-        isInLastWriteIteration = true;
+    int getNumOfBytesWrittenInInvertedIndexFile() {
+        return numOfBytesWrittenInInvertedIndexFile;
     }
 
-    private void writeRemainderAndClose() throws IOException {
-        writeMapToFiles();
-        closeAllFiles();
+    SegmentInfo getSegmentInfo() {
+        return segmentInfo;
     }
 }
-
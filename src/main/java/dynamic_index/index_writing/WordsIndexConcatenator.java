@@ -0,0 +1,153 @@
+package dynamic_index.index_writing;
+
+import dynamic_index.global_tools.MiscTools;
+import dynamic_index.index_structure.DictionaryRowFormat;
+import dynamic_index.index_structure.FrontCodeBlock;
+import dynamic_index.index_structure.SegmentInfo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Concatenates words indexes of consecutive ranges of words into one index. The postings and the concatenated
+ * strings are copied as they are; in every dictionary row the string pointer is moved by the characters of the
+ * indexes before it and the postings pointers by their postings bytes. Every index but the last must end with a
+ * full row, so the rows of the result are all full but the last, as in an index written at once. The indexes
+ * must have the same dictionary row format, which the result has too.
+ */
+public class WordsIndexConcatenator {
+
+    private final File indexDirectory;
+    private final SegmentInfo segmentInfo = new SegmentInfo();
+
+    private int numOfCharactersWrittenInSuffixFile = 0;
+    private int numOfBytesWrittenInInvertedIndexFile = 0;
+
+    /**
+     * @param indexDirectory - directory to write the words index to, without words files.
+     */
+    public WordsIndexConcatenator(File indexDirectory) {
+        this.indexDirectory = indexDirectory;
+    }
+
+    /**
+     * Writes the index of all the parts, in the given order, and its segment data.
+     * @param partWriters - the closed writers of the parts, by the order of their words.
+     */
+    public void concatenate(List<WordsExternalIndexWriter> partWriters) {
+        segmentInfo.setNumOfTokensInFrontCodeBlock(partWriters.get(0).getNumOfTokensInFrontCodeBlock());
+        segmentInfo.setDictionaryRowFormat(partWriters.get(0).getDictionaryRowFormat());
+        File frontCodedFile = new File(indexDirectory + File.separator + MiscTools.WORDS_FRONT_CODED_FILENAME);
+        File invIndexFile = new File(indexDirectory + File.separator + MiscTools.WORDS_INVERTED_INDEX_FILENAME);
+        File stringConcatFile = new File(indexDirectory + File.separator + MiscTools.WORDS_CONCAT_FILENAME);
+        try (DictionaryRowsWriter dictionaryRowsWriter = new DictionaryRowsWriter(
+                new BufferedOutputStream(new FileOutputStream(frontCodedFile)), segmentInfo.getDictionaryRowFormat());
+             FileChannel invertedChannel = new FileOutputStream(invIndexFile).getChannel();
+             FileChannel stringConcatChannel = new FileOutputStream(stringConcatFile).getChannel()) {
+            for (int i = 0; i < partWriters.size(); i++) {
+                WordsExternalIndexWriter partWriter = partWriters.get(i);
+                assert partWriter.getNumOfTokensInFrontCodeBlock() == segmentInfo.getNumOfTokensInFrontCodeBlock()
+                        : "the parts have different block sizes";
+                assert partWriter.getDictionaryRowFormat() == segmentInfo.getDictionaryRowFormat()
+                        : "the parts have different row formats";
+                assert i == partWriters.size() - 1
+                        || partWriter.getNumOfWordsWritten() % partWriter.getNumOfTokensInFrontCodeBlock() == 0
+                        : "a part before the last ends with a partial dictionary row";
+                File partDirectory = partWriter.getIndexDirectory();
+                if (segmentInfo.getDictionaryRowFormat() == DictionaryRowFormat.COMPACT) {
+                    appendRebasedCompactFrontCodeFile(partWriter, dictionaryRowsWriter);
+                } else {
+                    appendRebasedFrontCodeFile(partWriter, dictionaryRowsWriter);
+                }
+                appendFile(new File(partDirectory + File.separator + MiscTools.WORDS_INVERTED_INDEX_FILENAME),
+                        invertedChannel);
+                appendFile(new File(partDirectory + File.separator + MiscTools.WORDS_CONCAT_FILENAME),
+                        stringConcatChannel);
+                numOfCharactersWrittenInSuffixFile += partWriter.getNumOfCharactersWrittenInSuffixFile();
+                numOfBytesWrittenInInvertedIndexFile += partWriter.getNumOfBytesWrittenInInvertedIndexFile();
+                segmentInfo.includeAll(partWriter.getSegmentInfo());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        segmentInfo.write(indexDirectory);
+    }
+
+    private void appendRebasedFrontCodeFile(WordsExternalIndexWriter partWriter,
+                                            DictionaryRowsWriter dictionaryRowsWriter) throws IOException {
+        int numOfTokensInFrontCodeBlock = partWriter.getNumOfTokensInFrontCodeBlock();
+        int rowSizeInBytes = DictionaryRowFormat.getFixedRowSize(numOfTokensInFrontCodeBlock);
+        File partFrontCodedFile = new File(partWriter.getIndexDirectory() + File.separator
+                + MiscTools.WORDS_FRONT_CODED_FILENAME);
+        try (DataInputStream partFrontCodeDIS = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(partFrontCodedFile)))) {
+            ByteBuffer row = ByteBuffer.allocate(rowSizeInBytes);
+            long numOfRows = partFrontCodedFile.length() / rowSizeInBytes;
+            for (long r = 0; r < numOfRows; r++) {
+                partFrontCodeDIS.readFully(row.array());
+                rebaseRow(row, numOfTokensInFrontCodeBlock);
+                dictionaryRowsWriter.writeRow(row.array());
+            }
+        }
+    }
+
+    /*
+    A COMPACT row starts with the string pointer and the postings pointer of its first word, as varints that may
+    grow when rebased; the rest of the row is copied as it is. The dictionary of a part is read at once, as a
+    reader of the part would.
+     */
+    private void appendRebasedCompactFrontCodeFile(WordsExternalIndexWriter partWriter,
+                                                   DictionaryRowsWriter dictionaryRowsWriter) throws IOException {
+        int numOfTokensInFrontCodeBlock = partWriter.getNumOfTokensInFrontCodeBlock();
+        byte[] partDictionary = Files.readAllBytes(new File(partWriter.getIndexDirectory() + File.separator
+                + MiscTools.WORDS_FRONT_CODED_FILENAME).toPath());
+        DictionaryRowFormat rowFormat = DictionaryRowFormat.COMPACT;
+        int numOfRows = rowFormat.getNumOfRows(partDictionary, numOfTokensInFrontCodeBlock);
+        for (int r = 0; r < numOfRows; r++) {
+            int rowOffset = rowFormat.getRowOffset(partDictionary, r, numOfTokensInFrontCodeBlock);
+            int rowEnd = rowFormat.getRowEnd(partDictionary, r, numOfTokensInFrontCodeBlock);
+            int stringPointer = DictionaryRowFormat.getVarInt(partDictionary, rowOffset);
+            rowOffset += DictionaryRowFormat.getVarIntSize(stringPointer);
+            int postingsPointer = DictionaryRowFormat.getVarInt(partDictionary, rowOffset);
+            rowOffset += DictionaryRowFormat.getVarIntSize(postingsPointer);
+
+            byte[] row = new byte[2 * DictionaryRowFormat.MAX_VAR_INT_SIZE_IN_BYTES + rowEnd - rowOffset];
+            int rowLength = DictionaryRowFormat.putVarInt(stringPointer + numOfCharactersWrittenInSuffixFile,
+                    row, 0);
+            rowLength = DictionaryRowFormat.putVarInt(postingsPointer + numOfBytesWrittenInInvertedIndexFile,
+                    row, rowLength);
+            System.arraycopy(partDictionary, rowOffset, row, rowLength, rowEnd - rowOffset);
+            dictionaryRowsWriter.writeRow(Arrays.copyOf(row, rowLength + rowEnd - rowOffset));
+        }
+    }
+
+    /*
+    A row is the string pointer, followed by (length, prefix length, postings pointer, postings length) of each word.
+    The words of the padding of a last row have length 0 and stay zeros.
+     */
+    private void rebaseRow(ByteBuffer row, int numOfTokensInFrontCodeBlock) {
+        row.putInt(0, row.getInt(0) + numOfCharactersWrittenInSuffixFile);
+        for (int i = 0; i < numOfTokensInFrontCodeBlock; i++) {
+            int wordOffset = Integer.BYTES + FrontCodeBlock.BYTES_IN_WORD_BLOCK * i;
+            if (row.get(wordOffset) != 0) {
+                int postingsPointerOffset = wordOffset + 2;
+                row.putInt(postingsPointerOffset, row.getInt(postingsPointerOffset)
+                        + numOfBytesWrittenInInvertedIndexFile);
+            }
+        }
+    }
+
+    private void appendFile(File partFile, FileChannel destination) throws IOException {
+        try (FileChannel partChannel = new FileInputStream(partFile).getChannel()) {
+            long size = partChannel.size();
+            long position = 0;
+            while (position < size) { // a transfer may stop before the whole file
+                position += partChannel.transferTo(position, size - position, destination);
+            }
+        }
+    }
+}
@@ -2,9 +2,11 @@ package dynamic_index.index_writing;
 
 import dynamic_index.global_tools.MiscTools;
 import dynamic_index.index_reading.IndexMergingModerator;
+import dynamic_index.index_structure.DictionaryRowFormat;
 import dynamic_index.index_structure.FrontCodeBlock;
 import dynamic_index.index_structure.InvertedIndex;
 import dynamic_index.index_structure.InvertedIndexesToMerge;
+import dynamic_index.index_structure.SegmentInfo;
 
 import java.io.*;
 import java.util.Map;
@@ -22,10 +24,12 @@ public class WordsIndexMergeWriter {
     private int numOfCharactersWrittenInSuffixFile = 0;
     private int numOfBytesWrittenInInvertedIndexFile = 0;
 
-    private BufferedOutputStream frontCodeOutputStream;
+    private DictionaryRowsWriter dictionaryRowsWriter;
     private BufferedOutputStream invertedOutputStream;
     private BufferedWriter bufferedStringConcatWriter;
-    private final int numOfTokensInFrontCodeBlock = 8;
+    private final int numOfTokensInFrontCodeBlock;
+    private final DictionaryRowFormat dictionaryRowFormat;
+    private final SegmentInfo segmentInfo = new SegmentInfo();
 
     private final TreeMap<String, InvertedIndexesToMerge> wordToInvertedIndexMergerMap = new TreeMap<>();
 
@@ -34,9 +38,26 @@ public class WordsIndexMergeWriter {
      * @param allIndexesDirectory - the directory in which to merge all indexes.
      */
     public WordsIndexMergeWriter(String allIndexesDirectory) {
+        this(allIndexesDirectory, MiscTools.BASE_NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK,
+                DictionaryRowFormat.BASE_ROW_FORMAT);
+    }
+
+    /**
+     * Should be called when wanting to merge all indexes in a given directory, whatever the block sizes and row
+     * formats of their dictionaries are.
+     * @param allIndexesDirectory - the directory in which to merge all indexes.
+     * @param numOfTokensInFrontCodeBlock - number of words in a row of the dictionary of the merged index.
+     * @param dictionaryRowFormat - format of the rows of the dictionary of the merged index.
+     */
+    public WordsIndexMergeWriter(String allIndexesDirectory, int numOfTokensInFrontCodeBlock,
+                                 DictionaryRowFormat dictionaryRowFormat) {
         this.mergedIndexDirectory = MiscTools.createDirectory(allIndexesDirectory
                 + File.separator
                 + MiscTools.MERGED_INDEX_DIRECTORY);
+        this.numOfTokensInFrontCodeBlock = numOfTokensInFrontCodeBlock;
+        this.dictionaryRowFormat = dictionaryRowFormat;
+        segmentInfo.setNumOfTokensInFrontCodeBlock(numOfTokensInFrontCodeBlock);
+        segmentInfo.setDictionaryRowFormat(dictionaryRowFormat);
     }
 
     public File merge(IndexMergingModerator indexMergingModerator) {
@@ -60,7 +81,8 @@ public class WordsIndexMergeWriter {
             if (frontCodedFile.createNewFile()
                     && invIndexFile.createNewFile()
                     && stringConcatFile.createNewFile()) {
-                frontCodeOutputStream = new BufferedOutputStream(new FileOutputStream(frontCodedFile));
+                dictionaryRowsWriter = new DictionaryRowsWriter(
+                        new BufferedOutputStream(new FileOutputStream(frontCodedFile)), dictionaryRowFormat);
                 invertedOutputStream = new BufferedOutputStream(new FileOutputStream(invIndexFile));
                 bufferedStringConcatWriter = new BufferedWriter(new FileWriter(stringConcatFile));
             }
@@ -82,6 +104,7 @@ public class WordsIndexMergeWriter {
 
     private void writeBlockOfInvertedIndexToFile(){
         for (InvertedIndexesToMerge invertedIndexesToMerge : wordToInvertedIndexMergerMap.values()) {
+            invertedIndexesToMerge.addRidsTo(segmentInfo);
             invertedIndexesToMerge.writeTo(invertedOutputStream);
         }
     }
@@ -92,7 +115,7 @@ public class WordsIndexMergeWriter {
                 numOfTokensInFrontCodeBlock);
         numOfBytesWrittenInInvertedIndexFile = frontCodeBlock.getBytesOfInvertedIndexWrittenSoFar();
 
-        frontCodeOutputStream.write(frontCodeBlock.getBlockRow(numOfCharactersWrittenInSuffixFile));
+        dictionaryRowsWriter.writeRow(frontCodeBlock, numOfCharactersWrittenInSuffixFile);
 
         String compressedStringForBlock = frontCodeBlock.getCompressedString();
         allWordsSuffixConcatInBlock.append(compressedStringForBlock);
@@ -111,7 +134,7 @@ public class WordsIndexMergeWriter {
     }
 
     private boolean shouldWriteMap(String currentWord){
-        // if we have 8 words and the next word is new
+        // if the row is full and the next word is new
         return !wordToInvertedIndexMergerMap.containsKey(currentWord) &&
                 wordToInvertedIndexMergerMap.size() == numOfTokensInFrontCodeBlock;
     }
@@ -137,11 +160,12 @@ public class WordsIndexMergeWriter {
     private void writeRemainderAndClose() {
         writeMapToFiles(); // last iteration, not necessary to resetIteration here
         closeStreams();
+        segmentInfo.write(mergedIndexDirectory);
     }
 
     private void closeStreams() {
         try {
-            frontCodeOutputStream.close();
+            dictionaryRowsWriter.close();
             invertedOutputStream.close();
             bufferedStringConcatWriter.close();
         } catch (IOException e) {
@@ -1,8 +1,10 @@
 package dynamic_index.index_writing;
 
 import dynamic_index.global_tools.MiscTools;
+import dynamic_index.index_structure.DictionaryRowFormat;
 import dynamic_index.index_structure.FrontCodeBlock;
 import dynamic_index.index_structure.InvertedIndex;
+import dynamic_index.index_structure.SegmentInfo;
 
 import java.io.*;
 import java.util.Map;
@@ -20,19 +22,37 @@ public class WordsSimpleIndexWriter {
     private int numOfCharactersWrittenInSuffixFile = 0;
     private int numOfBytesWrittenInInvertedIndexFile = 0;
 
-    private BufferedOutputStream frontCodeOutputStream;
+    private DictionaryRowsWriter dictionaryRowsWriter;
     private BufferedOutputStream invertedOutputStream;
     private BufferedWriter bufferedStringConcatWriter;
-    private final int numOfTokensInFrontCodeBlock = 8;
+    private final int numOfTokensInFrontCodeBlock;
+    private final DictionaryRowFormat dictionaryRowFormat;
+    private final SegmentInfo segmentInfo = new SegmentInfo();
 
     public WordsSimpleIndexWriter(File indexOutputDirectory){
+        this(indexOutputDirectory, MiscTools.BASE_NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK,
+                DictionaryRowFormat.BASE_ROW_FORMAT);
+    }
+
+    /**
+     * @param indexOutputDirectory - directory to write the index files to.
+     * @param numOfTokensInFrontCodeBlock - number of words in a row of the dictionary, recorded in the segment.
+     * @param dictionaryRowFormat - format of the rows of the dictionary, recorded in the segment.
+     */
+    public WordsSimpleIndexWriter(File indexOutputDirectory, int numOfTokensInFrontCodeBlock,
+                                  DictionaryRowFormat dictionaryRowFormat){
         this.indexOutputDirectory = indexOutputDirectory;
+        this.numOfTokensInFrontCodeBlock = numOfTokensInFrontCodeBlock;
+        this.dictionaryRowFormat = dictionaryRowFormat;
+        segmentInfo.setNumOfTokensInFrontCodeBlock(numOfTokensInFrontCodeBlock);
+        segmentInfo.setDictionaryRowFormat(dictionaryRowFormat);
     }
 
     public void write(TreeMap<String, InvertedIndex> wordToInvertedIndex){
         instantiateIndexFiles();
         writeMapToFiles(wordToInvertedIndex);
         closeStreams();
+        segmentInfo.write(indexOutputDirectory);
     }
 
     private void instantiateIndexFiles() {
@@ -43,7 +63,8 @@ public class WordsSimpleIndexWriter {
             if (frontCodedFile.createNewFile()
                     && invIndexFile.createNewFile()
                     && stringConcatFile.createNewFile()) {
-                frontCodeOutputStream = new BufferedOutputStream(new FileOutputStream(frontCodedFile));
+                dictionaryRowsWriter = new DictionaryRowsWriter(
+                        new BufferedOutputStream(new FileOutputStream(frontCodedFile)), dictionaryRowFormat);
                 invertedOutputStream = new BufferedOutputStream(new FileOutputStream(invIndexFile));
                 bufferedStringConcatWriter = new BufferedWriter(new FileWriter(stringConcatFile));
             }
@@ -65,6 +86,7 @@ public class WordsSimpleIndexWriter {
 
     private void writeBlockOfInvertedIndexToFile(TreeMap<String, InvertedIndex> wordToInvertedIndexMap){
         for (InvertedIndex invertedIndex : wordToInvertedIndexMap.values()) {
+            segmentInfo.include(invertedIndex);
             invertedIndex.writeCompressedRidsTo(invertedOutputStream, 0); // ignoring last rid here
             invertedIndex.writeCompressedFrequenciesTo(invertedOutputStream);
         }
@@ -94,7 +116,7 @@ public class WordsSimpleIndexWriter {
                 this.numOfTokensInFrontCodeBlock);
         numOfBytesWrittenInInvertedIndexFile = frontCodeBlock.getBytesOfInvertedIndexWrittenSoFar();
 
-        frontCodeOutputStream.write(frontCodeBlock.getBlockRow(numOfCharactersWrittenInSuffixFile));
+        dictionaryRowsWriter.writeRow(frontCodeBlock, numOfCharactersWrittenInSuffixFile);
 
         String compressedStringForBlock = frontCodeBlock.getCompressedString();
         allWordsSuffixConcatInBlock.append(compressedStringForBlock);
@@ -109,7 +131,7 @@ public class WordsSimpleIndexWriter {
 
     private void closeStreams() {
         try {
-            frontCodeOutputStream.close();
+            dictionaryRowsWriter.close();
             invertedOutputStream.close();
             bufferedStringConcatWriter.close();
         } catch (IOException e) {
@@ -0,0 +1,191 @@
+package dynamic_index.index_writing;
+
+import dynamic_index.global_tools.MiscTools;
+import dynamic_index.index_structure.DictionaryRowFormat;
+import dynamic_index.index_structure.FrontCodeBlock;
+import dynamic_index.index_structure.PostingsList;
+import dynamic_index.index_structure.SegmentInfo;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverts reviews in memory, single-pass in-memory inversion (SPIMI) style: every word gets a PostingsList that
+ * grows as the reviews are added, without term ids and without sorting (tid, rid) pairs. When the postings take
+ * the memory budget they are written as a partial index, the words sorted only then, and the partial indexes
+ * are merged by the caller.
+ */
+public class WordsSpimiIndexWriter {
+
+    // the map entry, the word and the postings list object with its arrays, besides the bytes of the arrays
+    private static final int ESTIMATED_WORD_OVERHEAD_IN_BYTES = 128;
+
+    private final long memoryBudgetInBytes;
+    private final Map<String, PostingsList> wordToPostings = new HashMap<>();
+    private long estimatedMemoryInBytes = 0;
+    private final int numOfTokensInFrontCodeBlock;
+    private final DictionaryRowFormat dictionaryRowFormat;
+
+    // the rids of the partial index being inverted are recorded as they are added, not decoded again to write it
+    private SegmentInfo segmentInfo;
+    private int lastRid = 0;
+
+    /**
+     * @param memoryBudgetInBytes - memory the postings may take before they should be written.
+     */
+    public WordsSpimiIndexWriter(long memoryBudgetInBytes) {
+        this(memoryBudgetInBytes, MiscTools.BASE_NUM_OF_TOKENS_IN_FRONT_CODE_BLOCK,
+                DictionaryRowFormat.BASE_ROW_FORMAT);
+    }
+
+    /**
+     * @param memoryBudgetInBytes - memory the postings may take before they should be written.
+     * @param numOfTokensInFrontCodeBlock - number of words in a row of the dictionaries of the partial indexes.
+     * @param dictionaryRowFormat - format of the rows of the dictionaries of the partial indexes.
+     */
+    public WordsSpimiIndexWriter(long memoryBudgetInBytes, int numOfTokensInFrontCodeBlock,
+                                 DictionaryRowFormat dictionaryRowFormat) {
+        this.memoryBudgetInBytes = memoryBudgetInBytes;
+        this.numOfTokensInFrontCodeBlock = numOfTokensInFrontCodeBlock;
+        this.dictionaryRowFormat = dictionaryRowFormat;
+        this.segmentInfo = newSegmentInfo();
+    }
+
+    private SegmentInfo newSegmentInfo() {
+        SegmentInfo partialIndexSegmentInfo = new SegmentInfo();
+        partialIndexSegmentInfo.setNumOfTokensInFrontCodeBlock(numOfTokensInFrontCodeBlock);
+        partialIndexSegmentInfo.setDictionaryRowFormat(dictionaryRowFormat);
+        return partialIndexSegmentInfo;
+    }
+
+    /**
+     * Adds a word of a review. The reviews must be added in increasing order of rids.
+     * @param word - a word in the review.
+     * @param rid - review ID.
+     * @param frequency - the word's frequency in the review of rid.
+     */
+    public void add(String word, int rid, int frequency) {
+        PostingsList postingsList = wordToPostings.get(word);
+        if (postingsList == null) {
+            postingsList = new PostingsList();
+            wordToPostings.put(word, postingsList);
+            estimatedMemoryInBytes += ESTIMATED_WORD_OVERHEAD_IN_BYTES + word.length()
+                    + postingsList.getCapacityInBytes();
+        }
+        estimatedMemoryInBytes += postingsList.add(rid, frequency);
+        if (rid != lastRid) { // the words of a review are added together
+            segmentInfo.includeRid(rid);
+            lastRid = rid;
+        }
+    }
+
+    /**
+     * @return true if the postings take the memory budget, and should be written before adding more reviews.
+     */
+    public boolean isFull() {
+        return estimatedMemoryInBytes >= memoryBudgetInBytes;
+    }
+
+    public boolean isEmpty() {
+        return wordToPostings.isEmpty();
+    }
+
+    /**
+     * Writes all the postings added since the last partial index as an index, and empties the memory.
+     * @param partialIndexDirectory - existing directory to write the index files to.
+     */
+    public void writePartialIndex(File partialIndexDirectory) {
+        TreeMap<String, PostingsList> sortedWordToPostings = new TreeMap<>(wordToPostings);
+        wordToPostings.clear();
+        estimatedMemoryInBytes = 0;
+        new PartialIndexFilesWriter(partialIndexDirectory, segmentInfo).write(sortedWordToPostings);
+        segmentInfo = newSegmentInfo();
+        lastRid = 0;
+    }
+
+    /*
+    The files of one partial index, written as WordsSimpleIndexWriter writes an in-memory index.
+     */
+    private class PartialIndexFilesWriter {
+
+        private final File indexOutputDirectory;
+        private final StringBuilder allWordsSuffixConcatInBlock =
+                new StringBuilder(MiscTools.STRING_BUILDER_DEFAULT_CAPACITY);
+        private int numOfCharactersWrittenInSuffixFile = 0;
+        private int numOfBytesWrittenInInvertedIndexFile = 0;
+
+        private DictionaryRowsWriter dictionaryRowsWriter;
+        private BufferedOutputStream invertedOutputStream;
+        private BufferedWriter bufferedStringConcatWriter;
+        private final SegmentInfo segmentInfo;
+
+        PartialIndexFilesWriter(File indexOutputDirectory, SegmentInfo segmentInfo) {
+            this.indexOutputDirectory = indexOutputDirectory;
+            this.segmentInfo = segmentInfo;
+        }
+
+        void write(TreeMap<String, PostingsList> wordToPostings) {
+            try {
+                instantiateIndexFiles();
+                writeInvertedIndexFile(wordToPostings); // first because byte calculation
+                writeFrontCodeFile(wordToPostings);
+                bufferedStringConcatWriter.write(allWordsSuffixConcatInBlock.toString());
+                closeStreams();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            segmentInfo.write(indexOutputDirectory);
+        }
+
+        private void instantiateIndexFiles() throws IOException {
+            File frontCodedFile = new File(indexOutputDirectory + File.separator + MiscTools.WORDS_FRONT_CODED_FILENAME);
+            File invIndexFile = new File(indexOutputDirectory + File.separator + MiscTools.WORDS_INVERTED_INDEX_FILENAME);
+            File stringConcatFile = new File(indexOutputDirectory + File.separator + MiscTools.WORDS_CONCAT_FILENAME);
+            dictionaryRowsWriter = new DictionaryRowsWriter(
+                    new BufferedOutputStream(new FileOutputStream(frontCodedFile)), dictionaryRowFormat);
+            invertedOutputStream = new BufferedOutputStream(new FileOutputStream(invIndexFile));
+            bufferedStringConcatWriter = new BufferedWriter(new FileWriter(stringConcatFile));
+        }
+
+        private void writeInvertedIndexFile(TreeMap<String, PostingsList> wordToPostings) throws IOException {
+            for (PostingsList postingsList : wordToPostings.values()) {
+                postingsList.writeTo(invertedOutputStream);
+            }
+        }
+
+        private void writeFrontCodeFile(TreeMap<String, PostingsList> wordToPostings) throws IOException {
+            TreeMap<String, PostingsList> blockOfWordsToPostings = new TreeMap<>();
+            for (Map.Entry<String, PostingsList> wordAndPostings : wordToPostings.entrySet()) {
+                blockOfWordsToPostings.put(wordAndPostings.getKey(), wordAndPostings.getValue());
+                if (blockOfWordsToPostings.size() == numOfTokensInFrontCodeBlock) {
+                    writeFrontCodeBlock(blockOfWordsToPostings);
+                    blockOfWordsToPostings.clear();
+                }
+            }
+            if (!blockOfWordsToPostings.isEmpty()) { // when: mod(number of words, 8) != 0
+                writeFrontCodeBlock(blockOfWordsToPostings);
+            }
+        }
+
+        private void writeFrontCodeBlock(TreeMap<String, PostingsList> blockOfWordsToPostings) throws IOException {
+            FrontCodeBlock frontCodeBlock = new FrontCodeBlock(blockOfWordsToPostings,
+                    numOfBytesWrittenInInvertedIndexFile,
+                    numOfTokensInFrontCodeBlock);
+            numOfBytesWrittenInInvertedIndexFile = frontCodeBlock.getBytesOfInvertedIndexWrittenSoFar();
+
+            dictionaryRowsWriter.writeRow(frontCodeBlock, numOfCharactersWrittenInSuffixFile);
+
+            String compressedStringForBlock = frontCodeBlock.getCompressedString();
+            allWordsSuffixConcatInBlock.append(compressedStringForBlock);
+            numOfCharactersWrittenInSuffixFile += compressedStringForBlock.length();
+        }
+
+        private void closeStreams() throws IOException {
+            dictionaryRowsWriter.close();
+            invertedOutputStream.close();
+            bufferedStringConcatWriter.close();
+        }
+    }
+}